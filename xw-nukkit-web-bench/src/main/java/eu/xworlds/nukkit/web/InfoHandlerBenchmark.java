@@ -0,0 +1,201 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.nukkit.Server;
+import eu.xworlds.nukkit.web.tasks.RequestBodyListener;
+import eu.xworlds.nukkit.web.tasks.ServerSnapshot;
+import eu.xworlds.nukkit.web.tasks.WebRequestContext;
+import eu.xworlds.nukkit.web.tasks.WebpageHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * Serialization of info.json from the snapshot of a stubbed server.
+ * 
+ * @author mepeisen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfoHandlerBenchmark {
+	
+	/** number of levels */
+	@Param({"1", "16", "256"})
+	public int levels;
+	
+	/** the stubbed server */
+	private Server server;
+	
+	/** the handler */
+	private WebpageHandler handler;
+	
+	/** the request context */
+	private WebRequestContext context;
+	
+	/**
+	 * Captures the server snapshot
+	 */
+	@Setup
+	public void setup() {
+		final StubServer stub = new StubServer(this.levels, 100);
+		this.server = stub.getServer();
+		this.handler = StubServer.infoHandler();
+		this.context = new Context(stub.newWebserver(StubServer.config()).getServerSnapshot());
+	}
+	
+	/**
+	 * Builds the response; the body is released as soon as it was built.
+	 * @return the body size
+	 */
+	@Benchmark
+	public int serialize() {
+		final FullHttpResponse response = this.handler.handleRequest(this.context, this.server);
+		final int size = response.content().readableBytes();
+		response.release();
+		return size;
+	}
+	
+	/**
+	 * Request context of a GET request without body; the responses are allocated by the pooled allocator of the web
+	 * server.
+	 */
+	private static final class Context implements WebRequestContext {
+		
+		/** the snapshot */
+		private final ServerSnapshot snapshot;
+		
+		/** the request headers */
+		private final HttpHeaders headers = new DefaultHttpHeaders();
+		
+		/**
+		 * Constructor
+		 * @param snapshot
+		 */
+		Context(ServerSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public HttpHeaders getRequestHeaders() {
+			return this.headers;
+		}
+
+		@Override
+		public HttpHeaders getRequestTrailingHeaders() {
+			return EmptyHttpHeaders.INSTANCE;
+		}
+
+		@Override
+		public HttpVersion getProtocolVersion() {
+			return HttpVersion.HTTP_1_1;
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return HttpMethod.GET;
+		}
+
+		@Override
+		public String getRequestUri() {
+			return "/" + StubServer.NAME + "/info.json";
+		}
+
+		@Override
+		public QueryStringDecoder getQueryString() {
+			return new QueryStringDecoder(this.getRequestUri());
+		}
+
+		@Override
+		public String getPathParameter(String name) {
+			return null;
+		}
+
+		@Override
+		public ByteBuf getRequestContent() {
+			return Unpooled.EMPTY_BUFFER;
+		}
+
+		@Override
+		public long getRequestContentLength() {
+			return 0;
+		}
+
+		@Override
+		public Path getRequestBodyFile() {
+			return null;
+		}
+
+		@Override
+		public InputStream openRequestBody() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setRequestBodyListener(RequestBodyListener listener) {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public ByteBufAllocator getAllocator() {
+			return PooledByteBufAllocator.DEFAULT;
+		}
+
+		@Override
+		public ServerSnapshot getServerSnapshot() {
+			return this.snapshot;
+		}
+
+		@Override
+		public <T> CompletableFuture<T> callOnMainThread(Callable<T> callable) {
+			throw new UnsupportedOperationException();
+		}
+		
+	}
+	
+}
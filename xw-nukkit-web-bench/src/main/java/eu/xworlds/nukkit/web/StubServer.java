@@ -0,0 +1,186 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.lang.BaseLang;
+import cn.nukkit.level.Level;
+import cn.nukkit.plugin.PluginLogger;
+import cn.nukkit.utils.Config;
+import eu.xworlds.nukkit.web.tasks.WebpageHandler;
+import eu.xworlds.nukkit.web.tasks.WebserverTask;
+
+/**
+ * Stand-in for the nukkit server and the plugin owning the web server; populated with synthetic levels and players.
+ * The benchmarks run outside of nukkit.
+ * 
+ * @author mepeisen
+ */
+public final class StubServer {
+	
+	/** the plugin name */
+	public static final String NAME = "xw-web";
+	
+	/** the stubbed server */
+	private final Server server;
+	
+	/** the stubbed plugin */
+	private final WebserverPlugin plugin;
+	
+	/**
+	 * Constructor; the log output of the web server is discarded
+	 * @param levels number of synthetic levels
+	 * @param players number of synthetic players; distributed over the levels
+	 */
+	public StubServer(int levels, int players) {
+		this(levels, players, false);
+	}
+	
+	/**
+	 * Constructor
+	 * @param levels number of synthetic levels
+	 * @param players number of synthetic players; distributed over the levels
+	 * @param verbose {@code true} to print the log output of the web server
+	 */
+	public StubServer(int levels, int players, boolean verbose) {
+		final Map<Integer, Level> levelMap = new LinkedHashMap<>();
+		final Level[] levelArray = new Level[Math.max(1, levels)];
+		final Map<Long, Player>[] playersByLevel = newMaps(levelArray.length);
+		for (int i = 0; i < levelArray.length; i++) {
+			final Level level = Mockito.mock(Level.class);
+			Mockito.when(level.getId()).thenReturn(i + 1);
+			Mockito.when(level.getName()).thenReturn("world-" + i);
+			Mockito.when(level.getSeed()).thenReturn(0x5DEECE66DL * (i + 1));
+			Mockito.when(level.getPlayers()).thenReturn(playersByLevel[i]);
+			levelArray[i] = level;
+			levelMap.put(i + 1, level);
+		}
+		
+		final Map<UUID, Player> online = new LinkedHashMap<>();
+		for (int i = 0; i < players; i++) {
+			final Player player = Mockito.mock(Player.class);
+			final UUID uuid = UUID.nameUUIDFromBytes(("player-" + i).getBytes());
+			final int level = i % levelArray.length;
+			Mockito.when(player.getUniqueId()).thenReturn(uuid);
+			Mockito.when(player.getName()).thenReturn("player-" + i);
+			Mockito.when(player.getLevel()).thenReturn(levelArray[level]);
+			online.put(uuid, player);
+			playersByLevel[level].put((long) i, player);
+		}
+		
+		final BaseLang language = Mockito.mock(BaseLang.class);
+		Mockito.when(language.getName()).thenReturn("English");
+		
+		this.server = Mockito.mock(Server.class);
+		Mockito.when(this.server.getAllowFlight()).thenReturn(false);
+		Mockito.when(this.server.getDifficulty()).thenReturn(1);
+		Mockito.when(this.server.getGamemode()).thenReturn(0);
+		Mockito.when(this.server.getLanguage()).thenReturn(language);
+		Mockito.when(this.server.getName()).thenReturn("stub");
+		Mockito.when(this.server.getDefaultLevel()).thenReturn(levelArray[0]);
+		Mockito.when(this.server.getMaxPlayers()).thenReturn(Math.max(20, players));
+		Mockito.when(this.server.getLevels()).thenReturn(levelMap);
+		Mockito.when(this.server.getOnlinePlayers()).thenReturn(online);
+		
+		// the stubbed server does not have a logger; the log output is printed in verbose mode only
+		final PluginLogger logger = Mockito.mock(PluginLogger.class, new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				if (verbose) {
+					System.out.println("[" + NAME + "] " + invocation.getMethod().getName() + ": " + Arrays.toString(invocation.getArguments()));
+				}
+				return null;
+			}
+		});
+		this.plugin = Mockito.mock(WebserverPlugin.class);
+		Mockito.when(this.plugin.getServer()).thenReturn(this.server);
+		Mockito.when(this.plugin.getName()).thenReturn(NAME);
+		Mockito.when(this.plugin.getLogger()).thenReturn(logger);
+	}
+	
+	/**
+	 * Creates the player maps of the levels
+	 * @param count
+	 * @return maps
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static Map<Long, Player>[] newMaps(int count) {
+		final Map<Long, Player>[] result = new Map[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = new HashMap<>();
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the stubbed server
+	 */
+	public Server getServer() {
+		return this.server;
+	}
+	
+	/**
+	 * @return the stubbed plugin owning the web server
+	 */
+	public WebserverPlugin getPlugin() {
+		return this.plugin;
+	}
+	
+	/**
+	 * Creates a web server with the standard pages; the web server is not started.
+	 * @param config the configuration, see {@link #config(Object...)}
+	 * @return web server
+	 */
+	public WebserverTask newWebserver(Config config) {
+		final WebserverTask webserver = new WebserverTask(this.plugin, config);
+		LocalPages.register(webserver, NAME);
+		return webserver;
+	}
+	
+	/**
+	 * Creates a web server configuration; missing keys fall back to the defaults of the web server.
+	 * @param keyValues pairs of config keys ({@code WebserverTask.CONFIG_KEY_*}) and values
+	 * @return configuration
+	 */
+	public static Config config(Object... keyValues) {
+		final Config config = new Config();
+		for (int i = 0; i + 1 < keyValues.length; i += 2) {
+			config.set((String) keyValues[i], keyValues[i + 1]);
+		}
+		return config;
+	}
+	
+	/**
+	 * @return the shared handler of info.json
+	 */
+	public static WebpageHandler infoHandler() {
+		return LocalPages.INFO;
+	}
+	
+}
@@ -0,0 +1,57 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks. Accepts the jmh command line options, f.e. a regular expression selecting the benchmarks. The
+ * allocation profiler is always enabled; see "gc.alloc.rate.norm" for the bytes allocated per operation.
+ * 
+ * @author mepeisen
+ */
+public final class Benchmarks {
+	
+	/**
+	 * Hidden constructor
+	 */
+	private Benchmarks() {
+		// empty
+	}
+	
+	/**
+	 * Main entry
+	 * @param args jmh command line options
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		final Options options = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+	
+}
@@ -0,0 +1,475 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.bench;
+
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import eu.xworlds.nukkit.web.tasks.LatencyHistogram;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Http load generator. A closed loop sends the next request of a connection as soon as the previous one was answered;
+ * an open loop sends requests at a fixed rate regardless of the responses and measures the latency from the intended
+ * send time, so that a stalled server is not hidden by a stalled client (coordinated omission). Like browsers, a
+ * connection has at most one request in flight (no pipelining); the open loop queues the requests of busy connections
+ * within the client.
+ * 
+ * @author mepeisen
+ */
+final class LoadGenerator {
+	
+	/** the delay before a failed connection of a closed loop retries */
+	private static final long RETRY_DELAY = 10;
+	
+	/** the client event loops */
+	private final EventLoopGroup group;
+	
+	/** the server address */
+	private final InetSocketAddress address;
+	
+	/** the encoded request; shared by all connections */
+	private final ByteBuf request;
+	
+	/** true to reuse the connections */
+	private final boolean keepAlive;
+	
+	/** the client connections */
+	private final Connection[] connections;
+	
+	/** the latency of the answered requests */
+	private final LatencyHistogram latency = new LatencyHistogram();
+	
+	/** the answered requests by status class (1xx to 5xx) */
+	private final AtomicLongArray statuses = new AtomicLongArray(6);
+	
+	/** the answered requests */
+	private final AtomicLong completed = new AtomicLong();
+	
+	/** the failed requests (connect failures, connections closed by the server) */
+	private final AtomicLong errors = new AtomicLong();
+	
+	/** the requests sent but not yet answered */
+	private final AtomicLong outstanding = new AtomicLong();
+	
+	/** true as long as new requests are sent */
+	private volatile boolean running;
+	
+	/** true within the measurement interval */
+	private volatile boolean recording;
+	
+	/** true for a closed loop */
+	private volatile boolean closedLoop;
+	
+	/** the open loop dispatcher */
+	private ScheduledFuture<?> dispatcher;
+	
+	/**
+	 * Constructor
+	 * @param address the server address
+	 * @param path the requested path
+	 * @param keepAlive true to reuse the connections
+	 * @param connections number of connections
+	 * @param threads number of client event loops
+	 */
+	LoadGenerator(InetSocketAddress address, String path, boolean keepAlive, int connections, int threads) {
+		this.group = new NioEventLoopGroup(threads, new DefaultThreadFactory("xw-load", true));
+		this.address = address;
+		this.keepAlive = keepAlive;
+		final String raw = "GET " + path + " HTTP/1.1\r\nHost: " + address.getHostString() + ":" + address.getPort() + "\r\n"
+				+ (keepAlive ? "" : "Connection: close\r\n") + "\r\n";
+		this.request = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(raw, StandardCharsets.US_ASCII));
+		this.connections = new Connection[connections];
+		for (int i = 0; i < connections; i++) {
+			this.connections[i] = new Connection(this.group.next());
+		}
+	}
+	
+	/**
+	 * Starts a closed loop; every connection has exactly one request in flight.
+	 */
+	void startClosedLoop() {
+		this.running = true;
+		this.closedLoop = true;
+		final long now = System.nanoTime();
+		for (final Connection connection : this.connections) {
+			connection.submitLater(now);
+		}
+	}
+	
+	/**
+	 * Starts an open loop; the requests are distributed round robin to the connections and queued if the previous
+	 * request was not answered yet.
+	 * @param rate requests per second
+	 */
+	void startOpenLoop(int rate) {
+		this.running = true;
+		this.closedLoop = false;
+		final long start = System.nanoTime();
+		final double interval = 1000000000d / rate;
+		this.dispatcher = this.group.next().scheduleAtFixedRate(new Runnable() {
+			
+			/** the number of requests sent */
+			private long sent;
+			
+			@Override
+			public void run() {
+				final long due = (long) ((System.nanoTime() - start) / interval);
+				while (this.sent < due && running) {
+					connections[(int) (this.sent % connections.length)].submitLater(start + (long) (this.sent * interval));
+					this.sent++;
+				}
+			}
+		}, 0, 1, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Starts or stops the measurement; requests answered outside of the measurement interval are not counted.
+	 * @param recording
+	 */
+	void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+	
+	/**
+	 * Stops sending requests and waits for the outstanding requests.
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the number of requests still not answered
+	 * @throws InterruptedException
+	 */
+	long stop(long timeout) throws InterruptedException {
+		this.running = false;
+		if (this.dispatcher != null) {
+			this.dispatcher.cancel(false);
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (this.outstanding.get() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		final long result = this.outstanding.get();
+		this.group.shutdownGracefully(0, 1, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+		return result;
+	}
+	
+	/**
+	 * @return the answered requests within the measurement interval
+	 */
+	long getCompleted() {
+		return this.completed.get();
+	}
+	
+	/**
+	 * @return the failed requests within the measurement interval
+	 */
+	long getErrors() {
+		return this.errors.get();
+	}
+	
+	/**
+	 * @return the latency of the answered requests
+	 */
+	LatencyHistogram getLatency() {
+		return this.latency;
+	}
+	
+	/**
+	 * Prints the results
+	 * @param out
+	 * @param nanos the duration of the measurement interval
+	 * @param unanswered the requests not answered after stop
+	 */
+	void report(PrintStream out, long nanos, long unanswered) {
+		final long count = this.completed.get();
+		out.println(String.format("requests: %d (%.1f/s), errors: %d, unanswered: %d", count, count * 1e9 / nanos, this.errors.get(), unanswered));
+		final StringBuilder status = new StringBuilder("status:");
+		for (int i = 1; i < 6; i++) {
+			if (this.statuses.get(i) > 0) {
+				status.append(' ').append(i).append("xx=").append(this.statuses.get(i));
+			}
+		}
+		out.println(status);
+		out.println(String.format("latency: p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+				this.latency.getPercentile(0.5) / 1e6, this.latency.getPercentile(0.99) / 1e6,
+				this.latency.getPercentile(0.999) / 1e6, this.latency.getPercentile(1) / 1e6));
+	}
+	
+	/**
+	 * A request was answered
+	 * @param intended the intended send time
+	 * @param status the response status
+	 */
+	void completed(long intended, int status) {
+		this.outstanding.decrementAndGet();
+		if (this.recording) {
+			this.latency.record(System.nanoTime() - intended);
+			this.statuses.incrementAndGet(Math.max(0, Math.min(5, status / 100)));
+			this.completed.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Requests failed
+	 * @param count the number of failed requests
+	 */
+	void failed(int count) {
+		this.outstanding.addAndGet(-count);
+		if (this.recording) {
+			this.errors.addAndGet(count);
+		}
+	}
+	
+	/**
+	 * A client connection; reconnects as soon as the server closed the connection. Confined to its event loop.
+	 */
+	private final class Connection {
+		
+		/** the event loop */
+		private final EventLoop loop;
+		
+		/** the bootstrap */
+		private final Bootstrap bootstrap;
+		
+		/** the current channel; {@code null} if not connected */
+		private Channel channel;
+		
+		/** true while connecting */
+		private boolean connecting;
+		
+		/** the intended send time of the request in flight; 0 if no request is in flight */
+		private long pending;
+		
+		/** the intended send times of the requests waiting for the connection */
+		private final ArrayDeque<Long> backlog = new ArrayDeque<>();
+		
+		/**
+		 * Constructor
+		 * @param loop
+		 */
+		Connection(EventLoop loop) {
+			this.loop = loop;
+			this.bootstrap = new Bootstrap().group(loop).channel(NioSocketChannel.class).option(ChannelOption.TCP_NODELAY, Boolean.TRUE)
+					.handler(new ChannelInitializer<Channel>() {
+						@Override
+						protected void initChannel(Channel ch) throws Exception {
+							ch.pipeline().addLast(new HttpResponseDecoder(), new Handler());
+						}
+					});
+		}
+		
+		/**
+		 * Submits a request from any thread
+		 * @param intended the intended send time
+		 */
+		void submitLater(final long intended) {
+			outstanding.incrementAndGet();
+			try {
+				this.loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						submit(intended);
+					}
+				});
+			}
+			catch (RejectedExecutionException ex) {
+				// stopped
+				outstanding.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Queues a request
+		 * @param intended the intended send time
+		 */
+		void submit(long intended) {
+			this.backlog.add(intended);
+			this.sendNext();
+		}
+		
+		/**
+		 * Sends the next request as soon as the connection is idle; connects on demand
+		 */
+		private void sendNext() {
+			if (this.channel == null) {
+				if (!this.backlog.isEmpty()) {
+					this.connect();
+				}
+			}
+			else if (this.pending == 0 && !this.backlog.isEmpty()) {
+				this.pending = this.backlog.poll();
+				this.channel.writeAndFlush(request.duplicate());
+			}
+		}
+		
+		/**
+		 * Opens a new channel
+		 */
+		private void connect() {
+			if (this.connecting) {
+				return;
+			}
+			this.connecting = true;
+			this.bootstrap.connect(address).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					connectComplete(future);
+				}
+			});
+		}
+		
+		/**
+		 * Sends the waiting requests or fails them
+		 * @param future
+		 */
+		void connectComplete(ChannelFuture future) {
+			this.connecting = false;
+			if (future.isSuccess()) {
+				this.channel = future.channel();
+				this.sendNext();
+				return;
+			}
+			final int count = this.backlog.size();
+			this.backlog.clear();
+			failed(count);
+			this.retry(count);
+		}
+		
+		/**
+		 * Keeps the closed loop running after failed requests
+		 * @param count the number of failed requests
+		 */
+		private void retry(int count) {
+			if (!running || !closedLoop) {
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				outstanding.incrementAndGet();
+				this.loop.schedule(new Runnable() {
+					@Override
+					public void run() {
+						submit(System.nanoTime());
+					}
+				}, RETRY_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+		
+		/**
+		 * A response was received
+		 * @param ch the channel
+		 * @param status the response status
+		 * @param close true if the server closes the connection
+		 */
+		void received(Channel ch, int status, boolean close) {
+			if (ch != this.channel) {
+				return;
+			}
+			if (this.pending != 0) {
+				completed(this.pending, status);
+				this.pending = 0;
+			}
+			if (close) {
+				this.channel = null;
+				ch.close();
+			}
+			if (running && closedLoop) {
+				outstanding.incrementAndGet();
+				this.backlog.add(System.nanoTime());
+			}
+			this.sendNext();
+		}
+		
+		/**
+		 * The channel was closed
+		 * @param ch
+		 */
+		void closed(Channel ch) {
+			if (ch != this.channel) {
+				return;
+			}
+			// closed without announcement; the request in flight is lost
+			this.channel = null;
+			final int count = this.pending == 0 ? 0 : 1;
+			this.pending = 0;
+			failed(count);
+			this.retry(count);
+			this.sendNext();
+		}
+		
+		/**
+		 * The channel handler
+		 */
+		private final class Handler extends SimpleChannelInboundHandler<HttpObject> {
+			
+			/** the status of the current response */
+			private int status;
+			
+			/** true if the server closes the connection after the current response */
+			private boolean close;
+			
+			@Override
+			protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+				if (msg instanceof HttpResponse) {
+					this.status = ((HttpResponse) msg).status().code();
+					this.close = !keepAlive || !HttpUtil.isKeepAlive((HttpResponse) msg);
+				}
+				if (msg instanceof LastHttpContent) {
+					received(ctx.channel(), this.status, this.close);
+				}
+			}
+
+			@Override
+			public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+				closed(ctx.channel());
+				super.channelInactive(ctx);
+			}
+
+			@Override
+			public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+				ctx.close();
+			}
+			
+		}
+		
+	}
+	
+}
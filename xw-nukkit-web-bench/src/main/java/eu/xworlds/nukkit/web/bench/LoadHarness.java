@@ -0,0 +1,184 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import eu.xworlds.nukkit.web.StubServer;
+import eu.xworlds.nukkit.web.tasks.WebserverTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Local load test of the web server. Starts the web server with a stubbed nukkit server on localhost, runs a load
+ * scenario and prints the throughput and the latency percentiles. Exits with code 1 if the given limits are exceeded,
+ * so that releases can be gated on it.
+ * 
+ * <pre>
+ * LoadHarness [--scenario keepalive|storm|maintenance] [--connections n] [--rate requests per second; 0 for a closed loop]
+ *             [--duration seconds] [--warmup seconds] [--path path] [--levels n] [--players n]
+ *             [--transport auto|nio|epoll] [--handler-mode pool|virtual|inline] [--client-threads n]
+ *             [--max-p99 millis] [--max-error-rate ratio]
+ *             [--max-connections n] [--max-connections-per-ip n] [--rate-limit requests per second]
+ *             [--http2 true|false] [--verbose true|false]
+ * </pre>
+ * 
+ * @author mepeisen
+ */
+public final class LoadHarness {
+	
+	/** the number of nanos per tick of the stubbed server (20 ticks per second) */
+	private static final long TICK = 50000000L;
+	
+	/**
+	 * Hidden constructor
+	 */
+	private LoadHarness() {
+		// empty
+	}
+	
+	/**
+	 * Main entry
+	 * @param args options
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = parse(args);
+		final Scenario scenario = Scenario.of(option(options, "scenario", "keepalive"));
+		final int connections = Integer.parseInt(option(options, "connections", String.valueOf(scenario.connections)));
+		final int rate = Integer.parseInt(option(options, "rate", String.valueOf(scenario.rate)));
+		final int duration = Integer.parseInt(option(options, "duration", "10"));
+		final int warmup = Integer.parseInt(option(options, "warmup", "3"));
+		final String path = option(options, "path", scenario.path);
+		final int levels = Integer.parseInt(option(options, "levels", "4"));
+		final int players = Integer.parseInt(option(options, "players", "100"));
+		final int clientThreads = Integer.parseInt(option(options, "client-threads", "2"));
+		final double maxP99 = Double.parseDouble(option(options, "max-p99", "0"));
+		final double maxErrorRate = Double.parseDouble(option(options, "max-error-rate", "-1"));
+		
+		final int port = freePort();
+		final StubServer stub = new StubServer(levels, players, Boolean.parseBoolean(option(options, "verbose", "false")));
+		final WebserverTask webserver = stub.newWebserver(StubServer.config(
+				WebserverTask.CONFIG_KEY_PORT, port,
+				WebserverTask.CONFIG_KEY_MAINTENANCE, scenario.maintenance,
+				// the client shares the machine; the portable transport is the default
+				WebserverTask.CONFIG_KEY_TRANSPORT, option(options, "transport", "nio"),
+				WebserverTask.CONFIG_KEY_HANDLER_MODE, option(options, "handler-mode", "pool"),
+				// every client connects from localhost; the connection limits are disabled by default
+				WebserverTask.CONFIG_KEY_MAX_CONNECTIONS, Integer.parseInt(option(options, "max-connections", "0")),
+				WebserverTask.CONFIG_KEY_MAX_CONNECTIONS_PER_IP, Integer.parseInt(option(options, "max-connections-per-ip", "0")),
+				WebserverTask.CONFIG_KEY_RATE_LIMIT, Integer.parseInt(option(options, "rate-limit", "0")),
+				// the client speaks http/1; the option measures the cost of the h2c detection
+				WebserverTask.CONFIG_KEY_HTTP2, Boolean.parseBoolean(option(options, "http2", "true"))));
+		webserver.start().get(10, TimeUnit.SECONDS);
+		
+		// the main thread of the stubbed server; refreshes the snapshots and publishes the live topics
+		final ScheduledExecutorService mainThread = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("stub-main", true));
+		mainThread.scheduleAtFixedRate(new Runnable() {
+			
+			/** the current tick */
+			private int tick;
+			
+			@Override
+			public void run() {
+				webserver.onRun(++this.tick);
+			}
+		}, TICK, TICK, TimeUnit.NANOSECONDS);
+		
+		System.out.println("scenario " + scenario.label + ": " + (rate > 0 ? "open loop " + rate + "/s" : "closed loop") + ", " + connections
+				+ (scenario.keepAlive ? " keep-alive" : " non persistent") + " connections, GET " + path + ", " + duration + "s (warmup " + warmup + "s)");
+		final LoadGenerator generator = new LoadGenerator(new InetSocketAddress("127.0.0.1", port), path, scenario.keepAlive, connections, clientThreads);
+		if (rate > 0) {
+			generator.startOpenLoop(rate);
+		}
+		else {
+			generator.startClosedLoop();
+		}
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+		generator.setRecording(true);
+		final long start = System.nanoTime();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		generator.setRecording(false);
+		final long nanos = System.nanoTime() - start;
+		final long unanswered = generator.stop(5000);
+		
+		mainThread.shutdown();
+		webserver.shutdown();
+		generator.report(System.out, nanos, unanswered);
+		
+		boolean passed = true;
+		final double p99 = generator.getLatency().getPercentile(0.99) / 1e6;
+		if (maxP99 > 0 && p99 > maxP99) {
+			System.out.println("FAILED: p99 " + p99 + "ms exceeds " + maxP99 + "ms");
+			passed = false;
+		}
+		final long failed = generator.getErrors() + unanswered;
+		final double errorRate = failed / (double) Math.max(1, generator.getCompleted() + failed);
+		if (maxErrorRate >= 0 && errorRate > maxErrorRate) {
+			System.out.println("FAILED: error rate " + errorRate + " exceeds " + maxErrorRate);
+			passed = false;
+		}
+		System.exit(passed ? 0 : 1);
+	}
+	
+	/**
+	 * Parses the command line
+	 * @param args
+	 * @return options by name
+	 * @throws IllegalArgumentException thrown on invalid arguments
+	 */
+	private static Map<String, String> parse(String[] args) {
+		final Map<String, String> result = new HashMap<>();
+		for (int i = 0; i < args.length; i += 2) {
+			if (!args[i].startsWith("--") || i + 1 >= args.length) {
+				throw new IllegalArgumentException("Invalid argument " + args[i] + "; --name value expected");
+			}
+			result.put(args[i].substring(2), args[i + 1]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns an option
+	 * @param options
+	 * @param name
+	 * @param def the default value
+	 * @return option value
+	 */
+	private static String option(Map<String, String> options, String name, String def) {
+		final String result = options.get(name);
+		return result == null ? def : result;
+	}
+	
+	/**
+	 * @return a free local port
+	 * @throws IOException
+	 */
+	private static int freePort() throws IOException {
+		try (final ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+	
+}
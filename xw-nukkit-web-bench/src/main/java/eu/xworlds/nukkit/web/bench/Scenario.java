@@ -0,0 +1,87 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.bench;
+
+/**
+ * The load scenarios; every default may be overridden on the command line.
+ * 
+ * @author mepeisen
+ */
+enum Scenario {
+	
+	/** dashboards polling info.json over keep-alive connections; closed loop */
+	KEEPALIVE_POLLING("keepalive", "/xw-web/info.json", true, false, 64, 0),
+	
+	/** every request opens a new connection; closed loop */
+	CONNECTION_STORM("storm", "/xw-web/info.json", false, false, 256, 0),
+	
+	/** requests at a fixed rate while the web server is in maintenance mode; open loop */
+	MAINTENANCE_FLOOD("maintenance", "/xw-web/info.json", true, true, 32, 20000);
+	
+	/** the command line name */
+	final String label;
+	
+	/** the requested path */
+	final String path;
+	
+	/** true to reuse the connections */
+	final boolean keepAlive;
+	
+	/** true to run the web server in maintenance mode */
+	final boolean maintenance;
+	
+	/** the number of client connections */
+	final int connections;
+	
+	/** the request rate per second (open loop); 0 for a closed loop */
+	final int rate;
+	
+	/**
+	 * Constructor
+	 * @param label
+	 * @param path
+	 * @param keepAlive
+	 * @param maintenance
+	 * @param connections
+	 * @param rate
+	 */
+	private Scenario(String label, String path, boolean keepAlive, boolean maintenance, int connections, int rate) {
+		this.label = label;
+		this.path = path;
+		this.keepAlive = keepAlive;
+		this.maintenance = maintenance;
+		this.connections = connections;
+		this.rate = rate;
+	}
+	
+	/**
+	 * Returns the scenario of given command line name
+	 * @param label
+	 * @return scenario
+	 * @throws IllegalArgumentException thrown for unknown scenarios
+	 */
+	static Scenario of(String label) {
+		for (final Scenario scenario : values()) {
+			if (scenario.label.equalsIgnoreCase(label) || scenario.name().equalsIgnoreCase(label)) {
+				return scenario;
+			}
+		}
+		throw new IllegalArgumentException("Unknown scenario " + label);
+	}
+	
+}
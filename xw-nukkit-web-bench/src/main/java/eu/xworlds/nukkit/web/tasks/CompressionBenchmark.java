@@ -0,0 +1,149 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Compression cost by payload size: gzip of every response by the pipeline compressor and the compression of shared
+ * bodies (cached responses, static files) that are compressed only once.
+ * 
+ * @author mepeisen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+	
+	/** the payload size in bytes */
+	@Param({"1024", "16384", "262144"})
+	public int size;
+	
+	/** the compression level */
+	@Param({"1", "6", "9"})
+	public int level;
+	
+	/** the compression settings */
+	private Compression compression;
+	
+	/** the channel holding the compressor */
+	private EmbeddedChannel channel;
+	
+	/** the json payload */
+	private ByteBuf payload;
+	
+	/**
+	 * Creates the payload
+	 */
+	@Setup
+	public void setup() {
+		this.compression = new Compression(this.level, 0, WebserverTask.DEFAULT_COMPRESSION_TYPES);
+		this.channel = new EmbeddedChannel(new ContentCompressor(this.compression));
+		// player list alike json; repeated keys, varying values
+		final StringBuilder json = new StringBuilder(this.size + 64).append('[');
+		for (int i = 0; json.length() < this.size - 1; i++) {
+			json.append("{\"name\":\"player-").append(i).append("\",\"level\":").append(i % 7).append(",\"x\":").append((i * 7919) % 30000)
+				.append(",\"z\":").append((i * 104729) % 30000).append("},");
+		}
+		json.setLength(this.size - 1);
+		json.append(']');
+		this.payload = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Releases the channel
+	 */
+	@TearDown
+	public void tearDown() {
+		this.channel.finish();
+		this.drain();
+	}
+	
+	/**
+	 * Compresses a response within the pipeline.
+	 * @return the compressed size
+	 */
+	@Benchmark
+	public int perResponse() {
+		final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/", Unpooled.EMPTY_BUFFER);
+		request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, "gzip, deflate");
+		this.channel.writeInbound(request);
+		ReferenceCountUtil.release(this.channel.readInbound());
+		final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, this.payload.duplicate());
+		response.headers().set(HttpHeaderNames.CONTENT_TYPE, JsonResponse.CONTENT_TYPE);
+		this.channel.writeOutbound(response);
+		return this.drain();
+	}
+	
+	/**
+	 * Compresses a shared body.
+	 * @return the compressed body; {@code null} if the payload cannot be compressed
+	 */
+	@Benchmark
+	public ByteBuf shared() {
+		return this.compression.gzip(this.payload);
+	}
+	
+	/**
+	 * Releases the written response
+	 * @return the response size
+	 */
+	private int drain() {
+		int result = 0;
+		Object msg;
+		while ((msg = this.channel.readOutbound()) != null) {
+			if (msg instanceof ByteBufHolder) {
+				result += ((ByteBufHolder) msg).content().readableBytes();
+			}
+			ReferenceCountUtil.release(msg);
+		}
+		return result;
+	}
+	
+}
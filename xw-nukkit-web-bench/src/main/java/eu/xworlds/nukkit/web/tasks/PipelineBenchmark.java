@@ -0,0 +1,133 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.xworlds.nukkit.web.StubServer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Request/response round trip through the pipeline of the web server (decoder, compressor, handler, encoder). The
+ * requests are passed to an embedded channel instead of a socket; the handlers are invoked inline.
+ * 
+ * @author mepeisen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+	
+	/** the requested page: cached info.json, uncached info.json and a missing page */
+	@Param({"/" + StubServer.NAME + "/info.json", "/bench/info.json", "/bench/missing"})
+	public String uri;
+	
+	/** true to request gzip compressed responses */
+	@Param({"false", "true"})
+	public boolean gzip;
+	
+	/** the web server */
+	private WebserverTask webserver;
+	
+	/** the client connection */
+	private EmbeddedChannel channel;
+	
+	/** the encoded request */
+	private ByteBuf request;
+	
+	/**
+	 * Starts the web server
+	 * @throws Exception
+	 */
+	@Setup
+	public void setup() throws Exception {
+		final StubServer stub = new StubServer(16, 100);
+		this.webserver = stub.newWebserver(StubServer.config(
+				WebserverTask.CONFIG_KEY_PORT, 0,
+				// the acceptor is not used; the portable transport is sufficient
+				WebserverTask.CONFIG_KEY_TRANSPORT, "nio",
+				WebserverTask.CONFIG_KEY_HANDLER_MODE, "inline",
+				WebserverTask.CONFIG_KEY_KEEPALIVE_MAX_REQUESTS, 0,
+				// info.json is smaller than the default threshold
+				WebserverTask.CONFIG_KEY_COMPRESSION_MIN_SIZE, 0));
+		this.webserver.registerRoute("bench", "/bench/info.json", StubServer.infoHandler(), 0);
+		// the state is switched to running as soon as the (unused) acceptor was bound
+		this.webserver.start().get(10, TimeUnit.SECONDS);
+		this.channel = new EmbeddedChannel(this.webserver.newChannelInitializer());
+		final String raw = "GET " + this.uri + " HTTP/1.1\r\nHost: localhost\r\n" + (this.gzip ? "Accept-Encoding: gzip, deflate\r\n" : "") + "\r\n";
+		this.request = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(raw, StandardCharsets.US_ASCII));
+	}
+	
+	/**
+	 * Stops the web server
+	 * @throws Exception
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		this.channel.close();
+		this.drain();
+		this.webserver.stop().get(10, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Passes the request through the pipeline and releases the response.
+	 * @return the response size
+	 */
+	@Benchmark
+	public int roundTrip() {
+		this.channel.writeInbound(this.request.duplicate());
+		return this.drain();
+	}
+	
+	/**
+	 * Releases the written response
+	 * @return the response size
+	 */
+	private int drain() {
+		int size = 0;
+		Object msg;
+		while ((msg = this.channel.readOutbound()) != null) {
+			if (msg instanceof ByteBuf) {
+				size += ((ByteBuf) msg).readableBytes();
+			}
+			ReferenceCountUtil.release(msg);
+		}
+		return size;
+	}
+	
+}
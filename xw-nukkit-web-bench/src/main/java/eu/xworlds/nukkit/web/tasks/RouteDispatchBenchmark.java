@@ -0,0 +1,136 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cn.nukkit.Server;
+import io.netty.handler.codec.http.FullHttpResponse;
+
+/**
+ * Route dispatch of the web server. For shared handlers {@code getHandler} is reduced to the lookup within the route
+ * tree; the benchmarks match static routes, parameters, wildcards and unknown paths against the routes of many
+ * plugins.
+ * 
+ * @author mepeisen
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteDispatchBenchmark {
+	
+	/** number of plugins registering routes; every plugin registers five routes */
+	@Param({"1", "16", "256"})
+	public int plugins;
+	
+	/** the route tree */
+	private RouteTrie routes;
+	
+	/** the parameter offsets */
+	private final int[] offsets = new int[2 * RouteTrie.MAX_PARAMS];
+	
+	/** uri of a static route */
+	private String staticUri;
+	
+	/** uri of a route with parameters */
+	private String paramUri;
+	
+	/** uri of a wildcard route */
+	private String wildcardUri;
+	
+	/** uri not matching any route */
+	private String missingUri;
+	
+	/**
+	 * Compiles the route tree
+	 */
+	@Setup
+	public void setup() {
+		final WebpageHandler handler = new WebpageHandler() {
+			@Override
+			public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
+				return null;
+			}
+		};
+		final List<RouteTrie.Route> list = new ArrayList<>();
+		for (int i = 0; i < this.plugins; i++) {
+			final String name = "plugin" + i;
+			list.add(new RouteTrie.Route(name, "/" + name + "/info.json", handler, 1000));
+			list.add(new RouteTrie.Route(name, "/" + name + "/players.json", handler, 1000));
+			list.add(new RouteTrie.Route(name, "/" + name + "/player/{name}", handler, 0));
+			list.add(new RouteTrie.Route(name, "/" + name + "/arena/{arena}/team/{team}", handler, 0));
+			list.add(new RouteTrie.Route(name, "/" + name + "/static/**", handler, 0));
+		}
+		this.routes = RouteTrie.compile(list);
+		final String name = "/plugin" + (this.plugins / 2);
+		this.staticUri = name + "/players.json?sort=name";
+		this.paramUri = name + "/arena/pvp1/team/red";
+		this.wildcardUri = name + "/static/js/app.js";
+		this.missingUri = name + "/unknown/page";
+	}
+	
+	/**
+	 * @return matching route
+	 */
+	@Benchmark
+	public Object staticRoute() {
+		return this.routes.match(this.staticUri, this.offsets);
+	}
+	
+	/**
+	 * @return matching route
+	 */
+	@Benchmark
+	public Object paramRoute() {
+		return this.routes.match(this.paramUri, this.offsets);
+	}
+	
+	/**
+	 * @return matching route
+	 */
+	@Benchmark
+	public Object wildcardRoute() {
+		return this.routes.match(this.wildcardUri, this.offsets);
+	}
+	
+	/**
+	 * @return {@code null}
+	 */
+	@Benchmark
+	public Object missingRoute() {
+		return this.routes.match(this.missingUri, this.offsets);
+	}
+	
+}
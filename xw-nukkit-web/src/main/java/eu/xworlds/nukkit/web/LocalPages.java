@@ -0,0 +1,151 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonWriter;
+
+import cn.nukkit.Server;
+import eu.xworlds.nukkit.web.tasks.JsonResponse;
+import eu.xworlds.nukkit.web.tasks.LiveEndpoint;
+import eu.xworlds.nukkit.web.tasks.ServerSnapshot;
+import eu.xworlds.nukkit.web.tasks.ServerSnapshot.LevelInfo;
+import eu.xworlds.nukkit.web.tasks.WebMetrics;
+import eu.xworlds.nukkit.web.tasks.WebRequestContext;
+import eu.xworlds.nukkit.web.tasks.WebpageHandler;
+import eu.xworlds.nukkit.web.tasks.WebserverTask;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * The standard pages. The handlers are stateless and registered as shared singletons.
+ * 
+ * @author mepeisen
+ */
+class LocalPages {
+	
+	/**
+	 * info.json: Standard nukkit server info
+	 */
+	static final WebpageHandler INFO = new InfoHandler();
+	
+	/**
+	 * Hidden constructor
+	 */
+	private LocalPages() {
+		// empty
+	}
+	
+	/**
+	 * Registers the standard pages
+	 * @param webserver
+	 * @param name the plugin name
+	 */
+	static void register(WebserverTask webserver, String name) {
+		// the server snapshot is refreshed once per second by default
+		webserver.registerRoute(name, "/" + name + "/info.json", INFO, 1000);
+		// live channel; pushes the changes of every topic instead of being polled
+		webserver.registerRoute(name, "/" + name + "/live", new LiveEndpoint(), 0);
+		// server-sent events; the nukkit events for clients behind proxies not supporting web sockets
+		webserver.registerRoute(name, "/" + name + "/events", webserver.getEventStream(WebserverTask.EVENTS_STREAM), 0);
+		// request metrics in the prometheus text format; never cached, scrapers expect current values
+		webserver.registerRoute(name, "/" + name + "/metrics", new MetricsHandler(webserver), 0);
+	}
+
+	/**
+	 * info.json: Standard nukkit server info
+	 */
+	private static final class InfoHandler implements WebpageHandler {
+
+		@Override
+		public FullHttpResponse handleRequest(final WebRequestContext ctx, Server server) {
+			final ServerSnapshot snapshot = ctx.getServerSnapshot();
+			return JsonResponse.create(ctx, new JsonResponse.Content() {
+				
+				@Override
+				public void write(JsonWriter writer) throws IOException {
+					writer.beginObject();
+					
+					writer.name("options").beginObject();
+					writer.name("allowFlight").value(snapshot.getAllowFlight());
+					writer.name("difficulty").value(snapshot.getDifficulty());
+					writer.name("gamemode").value(snapshot.getGamemode());
+					writer.name("language").value(snapshot.getLanguage());
+					writer.name("name").value(snapshot.getName());
+					writer.endObject();
+					
+					writer.name("levels").beginArray();
+					for (final LevelInfo level : snapshot.getLevels())
+					{
+						writer.beginObject();
+						writer.name("id").value(level.getId());
+						writer.name("name").value(level.getName());
+						writer.name("seed").value(level.getSeed());
+						writer.name("players").value(level.getPlayers());
+						writer.endObject();
+					}
+					writer.endArray();
+					
+					writer.name("defaultLevel").value(snapshot.getDefaultLevel());
+					writer.name("maxPlayers").value(snapshot.getMaxPlayers());
+					writer.name("onlinePlayers").value(snapshot.getOnlinePlayers());
+					
+					writer.endObject();
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * metrics: Request metrics in the prometheus text format
+	 */
+	private static final class MetricsHandler implements WebpageHandler {
+		
+		/** the web server */
+		private final WebserverTask webserver;
+		
+		/**
+		 * Constructor
+		 * @param webserver
+		 */
+		MetricsHandler(WebserverTask webserver) {
+			this.webserver = webserver;
+		}
+
+		@Override
+		public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
+			final StringBuilder out = new StringBuilder(4096);
+			this.webserver.getMetrics().writePrometheus(out, this.webserver.getPendingTasks());
+			final ByteBuf buf = ByteBufUtil.encodeString(ctx.getAllocator(), CharBuffer.wrap(out), StandardCharsets.UTF_8);
+			final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, buf);
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, WebMetrics.PROMETHEUS_CONTENT_TYPE);
+			return response;
+		}
+		
+	}
+
+}
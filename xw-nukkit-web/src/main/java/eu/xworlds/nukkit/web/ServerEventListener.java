@@ -0,0 +1,100 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web;
+
+import com.google.gson.JsonObject;
+
+import cn.nukkit.Player;
+import cn.nukkit.event.EventHandler;
+import cn.nukkit.event.EventPriority;
+import cn.nukkit.event.Listener;
+import cn.nukkit.event.level.LevelLoadEvent;
+import cn.nukkit.event.player.PlayerChatEvent;
+import cn.nukkit.event.player.PlayerJoinEvent;
+import cn.nukkit.event.player.PlayerQuitEvent;
+import eu.xworlds.nukkit.web.tasks.EventStream;
+
+/**
+ * Publishes the nukkit events to the standard event stream. The events are only encoded here; sending is done by the
+ * web server once per tick.
+ * 
+ * @author mepeisen
+ */
+class ServerEventListener implements Listener {
+	
+	/** the target stream */
+	private final EventStream stream;
+	
+	/**
+	 * Constructor
+	 * @param stream the target stream
+	 */
+	ServerEventListener(EventStream stream) {
+		this.stream = stream;
+	}
+	
+	/**
+	 * @param event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerJoin(PlayerJoinEvent event) {
+		this.stream.publish("join", player(event.getPlayer()));
+	}
+	
+	/**
+	 * @param event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerQuit(PlayerQuitEvent event) {
+		this.stream.publish("quit", player(event.getPlayer()));
+	}
+	
+	/**
+	 * @param event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerChat(PlayerChatEvent event) {
+		final JsonObject data = player(event.getPlayer());
+		data.addProperty("message", event.getMessage());
+		this.stream.publish("chat", data);
+	}
+	
+	/**
+	 * @param event
+	 */
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onLevelLoad(LevelLoadEvent event) {
+		final JsonObject data = new JsonObject();
+		data.addProperty("id", event.getLevel().getId());
+		data.addProperty("name", event.getLevel().getName());
+		this.stream.publish("levelLoad", data);
+	}
+	
+	/**
+	 * Returns the event data of a player.
+	 * @param player
+	 * @return json data
+	 */
+	private static JsonObject player(Player player) {
+		final JsonObject data = new JsonObject();
+		data.addProperty("name", player.getName());
+		data.addProperty("uuid", String.valueOf(player.getUniqueId()));
+		return data;
+	}
+
+}
@@ -19,26 +19,31 @@
 package eu.xworlds.nukkit.web;
 
 import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
-import cn.nukkit.Server;
 import cn.nukkit.command.Command;
 import cn.nukkit.command.CommandSender;
 import cn.nukkit.plugin.Plugin;
 import cn.nukkit.plugin.PluginBase;
 import cn.nukkit.utils.Config;
 import cn.nukkit.utils.TextFormat;
-import eu.xworlds.nukkit.web.tasks.WebRequestContext;
+import eu.xworlds.nukkit.web.tasks.EventStream;
+import eu.xworlds.nukkit.web.tasks.LatencyHistogram;
+import eu.xworlds.nukkit.web.tasks.LiveEndpoint;
+import eu.xworlds.nukkit.web.tasks.LiveTopic;
+import eu.xworlds.nukkit.web.tasks.RequestBodyPolicy;
+import eu.xworlds.nukkit.web.tasks.StaticFileHandler;
+import eu.xworlds.nukkit.web.tasks.StaticResponse;
+import eu.xworlds.nukkit.web.tasks.WebMetrics;
+import eu.xworlds.nukkit.web.tasks.WebRequestHandler;
 import eu.xworlds.nukkit.web.tasks.WebpageHandler;
 import eu.xworlds.nukkit.web.tasks.WebpageHandlerFactory;
 import eu.xworlds.nukkit.web.tasks.WebserverTask;
-import io.netty.buffer.Unpooled;
-import io.netty.handler.codec.http.DefaultFullHttpResponse;
-import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpHeaders.Names;
-import io.netty.util.CharsetUtil;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.handler.codec.http.HttpVersion;
 
 /**
  * Plugin main class
@@ -84,6 +89,57 @@ public class WebserverPlugin extends PluginBase {
                         put(WebserverTask.CONFIG_KEY_ENABLED, true);
                         put(WebserverTask.CONFIG_KEY_PORT, 19133);
                         put(WebserverTask.CONFIG_KEY_MAINTENANCE, true);
+                        put(WebserverTask.CONFIG_KEY_HANDLER_MODE, "pool");
+                        put(WebserverTask.CONFIG_KEY_HANDLER_THREADS, 4);
+                        put(WebserverTask.CONFIG_KEY_HANDLER_QUEUE, 256);
+                        put(WebserverTask.CONFIG_KEY_RETRY_AFTER, 1);
+                        put(WebserverTask.CONFIG_KEY_KEEPALIVE_MAX_REQUESTS, 100);
+                        put(WebserverTask.CONFIG_KEY_PIPELINE_LIMIT, 16);
+                        put(WebserverTask.CONFIG_KEY_TRANSPORT, "auto");
+                        put(WebserverTask.CONFIG_KEY_BOSS_THREADS, 1);
+                        put(WebserverTask.CONFIG_KEY_WORKER_THREADS, 2);
+                        put(WebserverTask.CONFIG_KEY_THREAD_NAME, "xw-web");
+                        put(WebserverTask.CONFIG_KEY_THREAD_PRIORITY, Thread.NORM_PRIORITY);
+                        put(WebserverTask.CONFIG_KEY_ACCEPTORS, 1);
+                        put(WebserverTask.CONFIG_KEY_DRAIN_TIMEOUT, 5000);
+                        put(WebserverTask.CONFIG_KEY_SNAPSHOT_INTERVAL, 20);
+                        put(WebserverTask.CONFIG_KEY_MAIN_THREAD_BUDGET, 2000000);
+                        put(WebserverTask.CONFIG_KEY_MAIN_THREAD_QUEUE, 1024);
+                        put(WebserverTask.CONFIG_KEY_POOLED_BUFFERS, true);
+                        put(WebserverTask.CONFIG_KEY_CACHE_SIZE, 256);
+                        put(WebserverTask.CONFIG_KEY_MAX_BODY_SIZE, 1048576);
+                        put(WebserverTask.CONFIG_KEY_COMPRESSION_LEVEL, 6);
+                        put(WebserverTask.CONFIG_KEY_COMPRESSION_MIN_SIZE, 1024);
+                        put(WebserverTask.CONFIG_KEY_COMPRESSION_TYPES, new ArrayList<>(WebserverTask.DEFAULT_COMPRESSION_TYPES));
+                        put(WebserverTask.CONFIG_KEY_LIVE_SNAPSHOT_INTERVAL, 30);
+                        put(WebserverTask.CONFIG_KEY_LIVE_MAX_LAG, 10000);
+                        put(WebserverTask.CONFIG_KEY_SSE_REPLAY_SIZE, 256);
+                        put(WebserverTask.CONFIG_KEY_SSE_HEARTBEAT, 15000);
+                        put(WebserverTask.CONFIG_KEY_MAX_CONNECTIONS, 1024);
+                        put(WebserverTask.CONFIG_KEY_MAX_CONNECTIONS_PER_IP, 0);
+                        put(WebserverTask.CONFIG_KEY_READ_TIMEOUT, 30000);
+                        put(WebserverTask.CONFIG_KEY_WRITE_TIMEOUT, 30000);
+                        put(WebserverTask.CONFIG_KEY_RATE_LIMIT, 0);
+                        put(WebserverTask.CONFIG_KEY_RATE_LIMIT_BURST, 100);
+                        put(WebserverTask.CONFIG_KEY_RATE_LIMIT_ADDRESSES, 4096);
+                        put(WebserverTask.CONFIG_KEY_WRITE_BUFFER_HIGH, 65536);
+                        put(WebserverTask.CONFIG_KEY_WRITE_BUFFER_LOW, 32768);
+                        put(WebserverTask.CONFIG_KEY_MAX_PENDING_BYTES, 8388608);
+                        put(WebserverTask.CONFIG_KEY_HTTP2, true);
+                        put(WebserverTask.CONFIG_KEY_HTTP2_MAX_STREAMS, 100);
+                        put(WebserverTask.CONFIG_KEY_HTTP2_STREAM_WINDOW, 65535);
+                        put(WebserverTask.CONFIG_KEY_HTTP2_CONNECTION_WINDOW, 1048576);
+                        put(WebserverTask.CONFIG_KEY_TLS, false);
+                        put(WebserverTask.CONFIG_KEY_TLS_CERT, "cert.pem");
+                        put(WebserverTask.CONFIG_KEY_TLS_KEY, "key.pem");
+                        put(WebserverTask.CONFIG_KEY_TLS_KEY_PASSWORD, "");
+                        put(WebserverTask.CONFIG_KEY_TLS_PROTOCOLS, new ArrayList<>(WebserverTask.DEFAULT_TLS_PROTOCOLS));
+                        put(WebserverTask.CONFIG_KEY_TLS_CIPHERS, new ArrayList<String>());
+                        put(WebserverTask.CONFIG_KEY_TLS_PROVIDER, "auto");
+                        put(WebserverTask.CONFIG_KEY_TLS_SESSION_CACHE, 20480);
+                        put(WebserverTask.CONFIG_KEY_TLS_SESSION_TIMEOUT, 86400);
+                        put(WebserverTask.CONFIG_KEY_TLS_SESSION_TICKETS, true);
+                        put(WebserverTask.CONFIG_KEY_TLS_RELOAD_INTERVAL, 60);
                     }
                 });
         
@@ -94,10 +150,14 @@ public class WebserverPlugin extends PluginBase {
         // save config
         config.save();
         
-        // start the webapp server task
+        // start the webapp server
         this.webserver = new WebserverTask(this, config);
-        this.webserver.registerFactory(this.getName(), new LocalFactory());
-        this.getServer().getScheduler().scheduleRepeatingTask(this.webserver, 500);
+        LocalPages.register(this.webserver, this.getName());
+        this.getServer().getPluginManager().registerEvents(new ServerEventListener(this.webserver.getEventStream(WebserverTask.EVENTS_STREAM)), this);
+        this.getServer().getScheduler().scheduleRepeatingTask(this.webserver, 1);
+        if (config.getBoolean(WebserverTask.CONFIG_KEY_ENABLED)) {
+        	this.webserver.start();
+        }
 	}
 	
 	@Override
@@ -116,13 +176,36 @@ public class WebserverPlugin extends PluginBase {
 				sender.sendMessage("webserver port (active): " + this.webserver.getCurrentPort()); // TODO NLS
 				sender.sendMessage("webserver port (next start): " + this.webserver.getPort()); // TODO NLS
 				sender.sendMessage("webserver maintenance: " + String.valueOf(this.webserver.isMaintenance())); // TODO NLS
+				for (final Map.Entry<String, long[]> entry : this.webserver.getCacheStatistics().entrySet()) {
+					sender.sendMessage("webserver cache " + entry.getKey() + ": " + entry.getValue()[0] + " hits, " + entry.getValue()[1] + " misses"); // TODO NLS
+				}
+				final WebMetrics metrics = this.webserver.getMetrics();
+				sender.sendMessage("webserver connections: " + metrics.getConnections() + " open, " + metrics.getBytesIn() + " bytes in, " + metrics.getBytesOut() + " bytes out"); // TODO NLS
+				final StringBuilder rejected = new StringBuilder("webserver rejected:"); // TODO NLS
+				for (final WebMetrics.Rejection reason : WebMetrics.Rejection.values()) {
+					rejected.append(' ').append(reason.getLabel()).append('=').append(metrics.getRejected(reason));
+				}
+				sender.sendMessage(rejected.toString());
+				if (this.webserver.isTls()) {
+					final X509Certificate certificate = this.webserver.getTlsCertificate();
+					sender.sendMessage("webserver tls: " + this.webserver.getTlsProvider() + ", certificate " + (certificate == null ? "not loaded" : certificate.getSubjectX500Principal().getName() + " valid until " + certificate.getNotAfter())); // TODO NLS
+					final long handshakes = metrics.getHandshakes();
+					sender.sendMessage("webserver tls handshakes: " + handshakes + " completed (" + (handshakes == 0 ? 0 : metrics.getResumedHandshakes() * 100 / handshakes) + "% resumed), " + metrics.getFailedHandshakes() + " failed"); // TODO NLS
+				}
+				for (final Map.Entry<String, WebMetrics.RouteMetrics> entry : metrics.getRoutes().entrySet()) {
+					final LatencyHistogram handler = entry.getValue().getHandler();
+					final LatencyHistogram write = entry.getValue().getWrite();
+					sender.sendMessage("webserver route " + entry.getKey() + ": " + entry.getValue().getRequests() + " requests, handler p50/p99 "
+							+ handler.getPercentile(0.5) / 1000 + "/" + handler.getPercentile(0.99) / 1000 + "us, write p50/p99 "
+							+ write.getPercentile(0.5) / 1000 + "/" + write.getPercentile(0.99) / 1000 + "us"); // TODO NLS
+				}
 				break;
 			case "xwebstart":
-				this.webserver.setStartupIssued(true);
+				this.webserver.start();
 				sender.sendMessage("(async) webserver startup issued"); // TODO NLS
 				break;
 			case "xwebstop":
-				this.webserver.setStartupIssued(true);
+				this.webserver.stop();
 				sender.sendMessage("(async) webserver stop issued"); // TODO NLS
 				break;
 			case "xwebmt":
@@ -141,6 +224,15 @@ public class WebserverPlugin extends PluginBase {
 					sender.sendMessage("invalid or missing arguments"); // TODO NLS
 				}
 				break;
+			case "xwebcert":
+				if (this.webserver.isTls()) {
+					this.webserver.reloadTls();
+					sender.sendMessage("(async) tls certificate reload issued"); // TODO NLS
+				}
+				else {
+					sender.sendMessage("tls is disabled"); // TODO NLS
+				}
+				break;
     		case "xwebport":
 				if (args != null && args.length == 1) {
 					try {
@@ -177,58 +269,148 @@ public class WebserverPlugin extends PluginBase {
     }
     
     /**
-     * Unregisters an existing factory
+     * Registers a route served by given factory. The route pattern consists of segments separated by slashes; each
+     * segment is either a static text, a path parameter {@code {name}} (see
+     * {@link eu.xworlds.nukkit.web.tasks.WebRequestContext#getPathParameter(String)}), {@code *} matching exactly one
+     * segment or {@code **} matching the remaining path. Sample: {@code /myplugin/player/{name}}
+     * @param plugin the plugin that registers the route
+     * @param pattern the route pattern
+     * @param factory the webserver factory serving the route
+     * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+     */
+    public void registerRoute(Plugin plugin, String pattern, WebpageHandlerFactory factory) {
+    	this.webserver.registerRoute(plugin.getName(), pattern, factory);
+    }
+    
+    /**
+     * Registers a route served by a shared handler. The handler is invoked concurrently by multiple requests and must
+     * be thread safe; no factory is invoked and no handler is created per request. See
+     * {@link #registerRoute(Plugin, String, WebpageHandlerFactory)} for the pattern syntax.
+     * @param plugin the plugin that registers the route
+     * @param pattern the route pattern
+     * @param handler the thread safe handler serving the route
+     * @param cacheTtl the time successful GET responses without query string may be cached in milliseconds; {@code 0}
+     *            to disable caching
+     * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+     */
+    public void registerRoute(Plugin plugin, String pattern, WebRequestHandler handler, long cacheTtl) {
+    	this.webserver.registerRoute(plugin.getName(), pattern, handler, cacheTtl);
+    }
+    
+    /**
+     * Registers a route with its own request body policy, f.e. to accept large uploads. See
+     * {@link #registerRoute(Plugin, String, WebpageHandlerFactory)} for the pattern syntax.
+     * @param plugin the plugin that registers the route
+     * @param pattern the route pattern
+     * @param factory the webserver factory serving the route
+     * @param bodyPolicy the request body policy; {@code null} to collect bodies up to the configured maximum size in memory
+     * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+     */
+    public void registerRoute(Plugin plugin, String pattern, WebpageHandlerFactory factory, RequestBodyPolicy bodyPolicy) {
+    	this.webserver.registerRoute(plugin.getName(), pattern, factory, bodyPolicy);
+    }
+    
+    /**
+     * Registers a route served by a shared handler with its own request body policy. See
+     * {@link #registerRoute(Plugin, String, WebRequestHandler, long)}.
+     * @param plugin the plugin that registers the route
+     * @param pattern the route pattern
+     * @param handler the thread safe handler serving the route
+     * @param cacheTtl the time successful GET responses without query string may be cached in milliseconds; {@code 0}
+     *            to disable caching
+     * @param bodyPolicy the request body policy; {@code null} to collect bodies up to the configured maximum size in memory
+     * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+     */
+    public void registerRoute(Plugin plugin, String pattern, WebRequestHandler handler, long cacheTtl, RequestBodyPolicy bodyPolicy) {
+    	this.webserver.registerRoute(plugin.getName(), pattern, handler, cacheTtl, bodyPolicy);
+    }
+    
+    /**
+     * Serves the files of a directory within the plugin data folder, f.e. a dashboard.
+     * @param plugin the plugin that registers the files
+     * @param path the path prefix, f.e. {@code /myplugin/dashboard}; the files are served below this path
+     * @param directory the directory relative to the plugin data folder
+     * @return the handler; invoke {@link StaticFileHandler#clearCache()} after replacing files
+     * @throws IllegalArgumentException thrown if the path is invalid or conflicts with another route
+     */
+    public StaticFileHandler registerStaticFiles(Plugin plugin, String path, String directory) {
+    	final StaticFileHandler handler = new StaticFileHandler(new File(plugin.getDataFolder(), directory));
+    	this.webserver.registerRoute(plugin.getName(), (path.endsWith("/") ? path : path + "/") + "**", handler, 0);
+    	return handler;
+    }
+    
+    /**
+     * Returns a stream of server-sent events. Register the stream as route to let clients subscribe; the nukkit events
+     * are published to the stream {@link WebserverTask#EVENTS_STREAM}, available at {@code /xw-web/events}.
+     * @param name the stream name
+     * @return the stream; created on first access
+     */
+    public EventStream getEventStream(String name) {
+    	return this.webserver.getEventStream(name);
+    }
+    
+    /**
+     * Returns a topic of the live channel; web socket clients subscribed to the topic receive the changed values once
+     * per tick. Register a {@link LiveEndpoint} route to expose own topics; the topics are available through the
+     * standard endpoint {@code /xw-web/live}, too.
+     * @param name the topic name
+     * @return the topic; created on first access
+     */
+    public LiveTopic getLiveTopic(String name) {
+    	return this.webserver.getLiveTopic(name);
+    }
+    
+    /**
+     * Unregisters an existing factory and all routes of given plugin
      * @param plugin the plugin that is disabled
      */
     public void unregisterFactory(Plugin plugin) {
     	this.webserver.unregisterFactory(plugin.getName());
     }
     
+    /**
+     * Lets the web server reuse existing netty event loop groups; takes effect on next web server start.
+     * @param bossGroup the group accepting connections; {@code null} to let the web server create its own groups
+     * @param workerGroup the group handling the connections; {@code null} to use the boss group
+     */
+    public void setEventLoopGroups(EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+    	this.webserver.setEventLoopGroups(bossGroup, workerGroup);
+    }
+    
     /**
      * Builds a http 404 response.
      */
-    public static final WebpageHandler _404 = new WebpageHandler(){
-
-		@Override
-		public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
-			return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
-		}
-	};
+    public static final WebpageHandler _404 = new StaticResponse(HttpResponseStatus.NOT_FOUND);
     
     /**
      * Builds a http 500 response.
      */
-    public static final WebpageHandler _500 = new WebpageHandler(){
-
-		@Override
-		public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
-			return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.INTERNAL_SERVER_ERROR);
-		}
-	};
+    public static final WebpageHandler _500 = new StaticResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR);
     
     /**
      * Returns the index page to welcome users.
      */
-    public static final WebpageHandler INDEX = new WebpageHandler(){
-
-		@Override
-		public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
-			final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
-					Unpooled.copiedBuffer("Hello World! This is the wild wild web interface for nukkit server.", CharsetUtil.UTF_8));
-			response.headers().set(Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
-			return response;
-		}
-	};
+    public static final WebpageHandler INDEX = new StaticResponse(HttpResponseStatus.OK, "text/plain; charset=UTF-8",
+    		"Hello World! This is the wild wild web interface for nukkit server.");
     
     /**
      * Returns the maintenance page (http 503).
      */
-    public static final WebpageHandler MAINTENANCE = new WebpageHandler(){
-
-		@Override
-		public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
-			return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE);
-		}
-	};
+    public static final WebpageHandler MAINTENANCE = new StaticResponse(HttpResponseStatus.SERVICE_UNAVAILABLE);
+    
+    /**
+     * Returns the overload page (http 503); used if the handler execution stage sheds requests.
+     */
+    public static final WebpageHandler OVERLOADED = new StaticResponse(HttpResponseStatus.SERVICE_UNAVAILABLE);
+    
+    /**
+     * Returns the payload too large page (http 413); used if a request body exceeds the maximum size of its route.
+     */
+    public static final WebpageHandler TOO_LARGE = new StaticResponse(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+    
+    /**
+     * Returns the too many requests page (http 429); used if a client exceeds its request rate.
+     */
+    public static final WebpageHandler TOO_MANY_REQUESTS = new StaticResponse(HttpResponseStatus.TOO_MANY_REQUESTS);
 
 }
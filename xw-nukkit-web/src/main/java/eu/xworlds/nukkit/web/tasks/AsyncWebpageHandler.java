@@ -0,0 +1,56 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.concurrent.CompletableFuture;
+
+import cn.nukkit.Server;
+import io.netty.handler.codec.http.FullHttpResponse;
+
+/**
+ * Interface to be implemented by plugins that need to wait for other operations, f.e. for work being performed on
+ * the main thread (see {@link WebRequestContext#callOnMainThread(java.util.concurrent.Callable)}).
+ * 
+ * <p>The webserver does not block any thread while the response future is pending.</p>
+ * 
+ * @author mepeisen
+ */
+public interface AsyncWebpageHandler extends WebpageHandler {
+
+	/**
+	 * Handles an incoming web request asynchronous. Content-Length and keep alive handling
+	 * is managed by the webserver implementation.
+	 * 
+	 * @param ctx
+	 *            web request context; the request content is valid until the future completes
+	 * @param server
+	 *            the nukkit server instance
+	 * @return the future receiving the full http response; a future completed exceptionally shows up an internal
+	 *         error.
+	 */
+	CompletableFuture<FullHttpResponse> handleRequestAsync(WebRequestContext ctx, Server server);
+	
+	/**
+	 * Blocking variant; the webserver itself always invokes {@link #handleRequestAsync(WebRequestContext, Server)}.
+	 */
+	@Override
+	default FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
+		return this.handleRequestAsync(ctx, server).join();
+	}
+
+}
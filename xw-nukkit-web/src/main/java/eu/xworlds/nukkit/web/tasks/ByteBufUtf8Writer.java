@@ -0,0 +1,154 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.Writer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A writer encoding the characters as UTF-8 directly into a byte buffer.
+ * 
+ * <p>Other than {@link java.io.OutputStreamWriter} there is no intermediate char or byte buffer; the writer does not
+ * allocate any memory besides growing the target buffer. The writer is not thread safe.</p>
+ * 
+ * @author mepeisen
+ */
+public final class ByteBufUtf8Writer extends Writer {
+	
+	/** written instead of malformed surrogates */
+	private static final int REPLACEMENT = '?';
+	
+	/** the target buffer */
+	private final ByteBuf buf;
+	
+	/** a high surrogate waiting for the low surrogate; 0 if there is no pending surrogate */
+	private char highSurrogate;
+	
+	/**
+	 * Constructor
+	 * @param buf the target buffer
+	 */
+	public ByteBufUtf8Writer(ByteBuf buf) {
+		this.buf = buf;
+	}
+	
+	/**
+	 * @return the target buffer
+	 */
+	public ByteBuf getBuffer() {
+		return this.buf;
+	}
+
+	@Override
+	public void write(int c) {
+		this.encode((char) c);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		for (int i = off, end = off + len; i < end; i++) {
+			this.encode(cbuf[i]);
+		}
+	}
+
+	@Override
+	public void write(String str) {
+		this.write(str, 0, str.length());
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		for (int i = off, end = off + len; i < end; i++) {
+			this.encode(str.charAt(i));
+		}
+	}
+
+	@Override
+	public Writer append(CharSequence csq) {
+		final CharSequence seq = csq == null ? "null" : csq;
+		return this.append(seq, 0, seq.length());
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end) {
+		final CharSequence seq = csq == null ? "null" : csq;
+		for (int i = start; i < end; i++) {
+			this.encode(seq.charAt(i));
+		}
+		return this;
+	}
+
+	@Override
+	public Writer append(char c) {
+		this.encode(c);
+		return this;
+	}
+	
+	/**
+	 * Encodes a single char
+	 * @param c
+	 */
+	private void encode(char c) {
+		if (this.highSurrogate != 0) {
+			final char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				final int codePoint = Character.toCodePoint(high, c);
+				this.buf.writeByte(0xf0 | (codePoint >> 18));
+				this.buf.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+				this.buf.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+				this.buf.writeByte(0x80 | (codePoint & 0x3f));
+				return;
+			}
+			this.buf.writeByte(REPLACEMENT);
+		}
+		if (c < 0x80) {
+			this.buf.writeByte(c);
+		}
+		else if (c < 0x800) {
+			this.buf.writeByte(0xc0 | (c >> 6));
+			this.buf.writeByte(0x80 | (c & 0x3f));
+		}
+		else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		}
+		else if (Character.isLowSurrogate(c)) {
+			this.buf.writeByte(REPLACEMENT);
+		}
+		else {
+			this.buf.writeByte(0xe0 | (c >> 12));
+			this.buf.writeByte(0x80 | ((c >> 6) & 0x3f));
+			this.buf.writeByte(0x80 | (c & 0x3f));
+		}
+	}
+
+	@Override
+	public void flush() {
+		// nothing to do; the bytes are written immediately
+	}
+
+	@Override
+	public void close() {
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			this.buf.writeByte(REPLACEMENT);
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * A chunked input generating its chunks on demand, f.e. by iterating over players or log lines.
+ * 
+ * <p>The generator is invoked on the channel event loop whenever the connection is writable again; it must not block
+ * and should write roughly one chunk per invocation. Data from the nukkit server should be taken from
+ * {@link ServerSnapshot}s.</p>
+ * 
+ * @author mepeisen
+ */
+public abstract class ChunkGenerator implements ChunkedInput<ByteBuf> {
+	
+	/** default chunk size */
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+	
+	/** the initial capacity of the chunk buffers */
+	private final int chunkSize;
+	
+	/** true if the last chunk was generated */
+	private boolean endOfInput;
+	
+	/** number of bytes generated so far */
+	private long progress;
+	
+	/**
+	 * Constructor using the default chunk size
+	 */
+	protected ChunkGenerator() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Constructor
+	 * @param chunkSize the initial capacity of the chunk buffers
+	 */
+	protected ChunkGenerator(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Writes the next chunk.
+	 * @param buffer the buffer receiving the chunk; the generator is invoked again if it was left empty
+	 * @return {@code true} if there are more chunks to come, {@code false} if this was the last chunk
+	 * @throws Exception thrown to abort the response; the connection is closed
+	 */
+	protected abstract boolean generate(ByteBuf buffer) throws Exception;
+
+	@Override
+	public boolean isEndOfInput() throws Exception {
+		return this.endOfInput;
+	}
+
+	@Override
+	public void close() throws Exception {
+		// nothing to release by default
+	}
+
+	@Override
+	public long length() {
+		// the length is not known in advance
+		return -1;
+	}
+
+	@Override
+	public long progress() {
+		return this.progress;
+	}
+
+	@Deprecated
+	@Override
+	public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+		return this.readChunk(ctx.alloc());
+	}
+
+	@Override
+	public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+		if (this.endOfInput) {
+			return null;
+		}
+		final ByteBuf buffer = allocator.buffer(this.chunkSize);
+		boolean success = false;
+		try {
+			// empty chunks would be encoded as the end of the body
+			do {
+				this.endOfInput = !this.generate(buffer);
+			}
+			while (!this.endOfInput && !buffer.isReadable());
+			success = true;
+			this.progress += buffer.readableBytes();
+			return buffer;
+		}
+		finally {
+			if (!success) {
+				buffer.release();
+			}
+		}
+	}
+
+}
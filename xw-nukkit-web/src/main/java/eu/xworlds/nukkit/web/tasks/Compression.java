@@ -0,0 +1,222 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * The compression settings of the web server.
+ * 
+ * <p>Bodies are compressed if the content type is within the allow-list and the body is not smaller than the
+ * minimum size. Bodies shared by many responses (cached responses, static responses and cached files) are
+ * compressed once; see {@link SharedBody}.</p>
+ * 
+ * @author mepeisen
+ */
+final class Compression {
+	
+	/** compression disabled */
+	static final Compression DISABLED = new Compression(0, Integer.MAX_VALUE, new String[0]);
+	
+	/** the compression level (1-9); {@code 0} if compression is disabled */
+	final int level;
+	
+	/** the minimum body size */
+	final int minSize;
+	
+	/** the compressible content types; prefixes of the mime type */
+	private final String[] types;
+	
+	/**
+	 * Constructor
+	 * @param level the compression level (1-9); {@code 0} to disable compression
+	 * @param minSize the minimum body size
+	 * @param types the compressible content types; prefixes like {@code text/} are allowed
+	 */
+	Compression(int level, int minSize, List<String> types) {
+		this(Math.max(0, Math.min(9, level)), Math.max(0, minSize), types.toArray(new String[types.size()]));
+	}
+	
+	/**
+	 * Constructor
+	 * @param level
+	 * @param minSize
+	 * @param types
+	 */
+	private Compression(int level, int minSize, String[] types) {
+		this.level = level;
+		this.minSize = minSize;
+		this.types = types;
+		for (int i = 0; i < types.length; i++) {
+			types[i] = types[i].trim().toLowerCase();
+		}
+	}
+	
+	/**
+	 * @return {@code true} if compression is enabled
+	 */
+	boolean isEnabled() {
+		return this.level > 0;
+	}
+	
+	/**
+	 * Checks if a body should be compressed.
+	 * @param contentType the content type; may be {@code null}
+	 * @param length the body length
+	 * @return {@code true} if the body should be compressed
+	 */
+	boolean isCompressible(String contentType, long length) {
+		if (this.level == 0 || length < this.minSize || contentType == null) {
+			return false;
+		}
+		for (final String type : this.types) {
+			if (contentType.regionMatches(true, 0, type, 0, type.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Selects the body to be sent to the client and sets the Content-Encoding and Vary headers.
+	 * @param body the shared body
+	 * @param headers the response headers, containing the content type
+	 * @param acceptEncoding the Accept-Encoding request header; may be {@code null}
+	 * @return the compressed body if the client accepts gzip and the body is compressible, the uncompressed body
+	 *         otherwise
+	 */
+	ByteBuf select(SharedBody body, HttpHeaders headers, String acceptEncoding) {
+		if (headers.contains(HttpHeaderNames.CONTENT_ENCODING) || !this.isCompressible(headers.get(HttpHeaderNames.CONTENT_TYPE), body.content.readableBytes())) {
+			return body.content.duplicate();
+		}
+		headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+		final ByteBuf compressed = acceptsGzip(acceptEncoding) ? body.gzip(this) : null;
+		if (compressed == null) {
+			return body.content.duplicate();
+		}
+		headers.set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+		return compressed.duplicate();
+	}
+	
+	/**
+	 * Compresses the given body.
+	 * @param content
+	 * @return shared read-only compressed body or {@code null} if compression does not save any bytes
+	 */
+	ByteBuf gzip(ByteBuf content) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.readableBytes() / 4));
+		try (final GZIPOutputStream gzip = new LevelGZIPOutputStream(out, this.level)) {
+			content.getBytes(content.readerIndex(), gzip, content.readableBytes());
+		}
+		catch (IOException ex) {
+			// not thrown by byte array streams
+			return null;
+		}
+		if (out.size() >= content.readableBytes()) {
+			return null;
+		}
+		// the body is shared by cached responses and never released; a heap buffer is freed by the garbage collector
+		return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(out.toByteArray()).asReadOnly());
+	}
+	
+	/**
+	 * @param acceptEncoding the Accept-Encoding request header; may be {@code null}
+	 * @return {@code true} if the client accepts gzip encoded content
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (final String part : acceptEncoding.split(",")) {
+			final String coding = part.trim();
+			if (coding.regionMatches(true, 0, "gzip", 0, 4) && (coding.length() == 4 || coding.charAt(4) == ';' || coding.charAt(4) == ' ')) {
+				final String params = coding.replace(" ", "");
+				return !params.endsWith(";q=0") && !params.endsWith(";q=0.0");
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * A read-only body shared by many responses; the compressed variant is created on first demand.
+	 */
+	static final class SharedBody {
+		
+		/** the uncompressed body */
+		final ByteBuf content;
+		
+		/** the compressed body; {@code null} if not compressed yet or not compressible */
+		private volatile ByteBuf compressed;
+		
+		/** true if the body was compressed */
+		private volatile boolean compressedChecked;
+		
+		/**
+		 * Constructor
+		 * @param content the shared read-only body
+		 */
+		SharedBody(ByteBuf content) {
+			this.content = content;
+		}
+		
+		/**
+		 * @param compression
+		 * @return the compressed body or {@code null} if compression does not save any bytes
+		 */
+		ByteBuf gzip(Compression compression) {
+			if (!this.compressedChecked) {
+				synchronized (this) {
+					if (!this.compressedChecked) {
+						this.compressed = compression.gzip(this.content);
+						this.compressedChecked = true;
+					}
+				}
+			}
+			return this.compressed;
+		}
+		
+	}
+	
+	/**
+	 * Gzip stream with configurable level.
+	 */
+	private static final class LevelGZIPOutputStream extends GZIPOutputStream {
+		
+		/**
+		 * Constructor
+		 * @param out
+		 * @param level
+		 * @throws IOException
+		 */
+		LevelGZIPOutputStream(ByteArrayOutputStream out, int level) throws IOException {
+			super(out);
+			this.def.setLevel(level);
+		}
+		
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.FileRegion;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+/**
+ * The connection limits of the web server: a global and a per address connection cap, the idle timeouts and the per
+ * address request rate. The limits are shared by all connections and lock free; connections without an internet
+ * address (f.e. embedded channels) are never limited.
+ * 
+ * @author mepeisen
+ */
+final class ConnectionLimits {
+	
+	/** the maximum number of connections; 0 for no limit */
+	private final int maxConnections;
+	
+	/** the maximum number of connections per address; 0 for no limit */
+	private final int maxConnectionsPerAddress;
+	
+	/** the read timeout (millis); 0 for no timeout */
+	private final long readTimeout;
+	
+	/** the write timeout (millis); 0 for no timeout */
+	private final long writeTimeout;
+	
+	/** the request rate limiter; {@code null} for no limit */
+	private final RateLimiter rateLimiter;
+	
+	/** the metrics */
+	private final WebMetrics metrics;
+	
+	/** number of accepted connections */
+	private final AtomicInteger connections = new AtomicInteger();
+	
+	/** number of accepted connections by address; a counter of -1 was removed by its last connection */
+	private final ConcurrentMap<InetAddress, AtomicInteger> connectionsPerAddress = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor
+	 * @param maxConnections the maximum number of connections; 0 for no limit
+	 * @param maxConnectionsPerAddress the maximum number of connections per address; 0 for no limit
+	 * @param readTimeout the read timeout (millis); 0 for no timeout
+	 * @param writeTimeout the write timeout (millis); 0 for no timeout
+	 * @param rateLimiter the request rate limiter; {@code null} for no limit
+	 * @param metrics the metrics counting the rejections
+	 */
+	ConnectionLimits(int maxConnections, int maxConnectionsPerAddress, long readTimeout, long writeTimeout, RateLimiter rateLimiter, WebMetrics metrics) {
+		this.maxConnections = maxConnections;
+		this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+		this.readTimeout = readTimeout;
+		this.writeTimeout = writeTimeout;
+		this.rateLimiter = rateLimiter;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns the internet address of a client.
+	 * @param remoteAddress the remote address of the channel
+	 * @return internet address; {@code null} if the channel is not an internet channel
+	 */
+	static InetAddress address(SocketAddress remoteAddress) {
+		return remoteAddress instanceof InetSocketAddress ? ((InetSocketAddress) remoteAddress).getAddress() : null;
+	}
+	
+	/**
+	 * Creates the guard of a new connection; the guard has to be the first handler after the connection metrics.
+	 * @return guard
+	 */
+	Guard newGuard() {
+		return new Guard();
+	}
+	
+	/**
+	 * Takes a request token of given client.
+	 * @param address the client address; {@code null} for no limit
+	 * @return {@code 0} if the request is accepted; the time until the client may send the next request (nanos)
+	 *         otherwise
+	 */
+	long acquireRequest(InetAddress address) {
+		if (this.rateLimiter == null || address == null) {
+			return 0;
+		}
+		final long result = this.rateLimiter.acquire(address, System.nanoTime());
+		if (result != 0) {
+			this.metrics.rejected(WebMetrics.Rejection.RATE_LIMIT);
+		}
+		return result;
+	}
+	
+	/**
+	 * Counts a new connection.
+	 * @param address the client address; {@code null} for no per address limit
+	 * @return the rejection reason; {@code null} if the connection is accepted
+	 */
+	private WebMetrics.Rejection open(InetAddress address) {
+		if (this.connections.incrementAndGet() > this.maxConnections && this.maxConnections > 0) {
+			this.connections.decrementAndGet();
+			return WebMetrics.Rejection.CONNECTIONS;
+		}
+		if (address != null && this.maxConnectionsPerAddress > 0 && !this.openAddress(address)) {
+			this.connections.decrementAndGet();
+			return WebMetrics.Rejection.CONNECTIONS_PER_ADDRESS;
+		}
+		return null;
+	}
+	
+	/**
+	 * Counts a new connection of given address.
+	 * @param address
+	 * @return {@code true} if the connection is accepted
+	 */
+	private boolean openAddress(InetAddress address) {
+		for (;;) {
+			AtomicInteger counter = this.connectionsPerAddress.get(address);
+			if (counter == null) {
+				final AtomicInteger newCounter = new AtomicInteger(1);
+				counter = this.connectionsPerAddress.putIfAbsent(address, newCounter);
+				if (counter == null) {
+					return true;
+				}
+			}
+			final int current = counter.get();
+			if (current < 0) {
+				// removed by the last connection; retry with a new counter
+				this.connectionsPerAddress.remove(address, counter);
+				continue;
+			}
+			if (current >= this.maxConnectionsPerAddress) {
+				return false;
+			}
+			if (counter.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Counts a closed connection.
+	 * @param address the client address; {@code null} if the address was not counted
+	 */
+	private void release(InetAddress address) {
+		this.connections.decrementAndGet();
+		if (address != null && this.maxConnectionsPerAddress > 0) {
+			final AtomicInteger counter = this.connectionsPerAddress.get(address);
+			if (counter != null && counter.decrementAndGet() == 0 && counter.compareAndSet(0, -1)) {
+				this.connectionsPerAddress.remove(address, counter);
+			}
+		}
+	}
+	
+	/**
+	 * The first handler of every connection behind the connection metrics. Closes connections exceeding the connection
+	 * caps and connections that stopped reading the responses. The reader idle events are passed to the http handler;
+	 * only the http handler knows whether the connection is waiting for a request.
+	 */
+	final class Guard extends IdleStateHandler {
+		
+		/** the client address; {@code null} if the connection is not counted */
+		private InetAddress address;
+		
+		/** true if the connection was counted */
+		private boolean counted;
+		
+		/** the message being written at the last writer idle event */
+		private Object stalledMessage;
+		
+		/** the write position of the message being written at the last writer idle event */
+		private long stalledPosition = -1;
+		
+		/**
+		 * Constructor
+		 */
+		Guard() {
+			super(readTimeout, writeTimeout, 0, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void channelActive(ChannelHandlerContext ctx) throws Exception {
+			final InetAddress remote = address(ctx.channel().remoteAddress());
+			final WebMetrics.Rejection rejection = open(remote);
+			if (rejection != null) {
+				metrics.rejected(rejection);
+				ctx.close();
+				return;
+			}
+			this.address = remote;
+			this.counted = true;
+			super.channelActive(ctx);
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			if (this.counted) {
+				this.counted = false;
+				release(this.address);
+			}
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) throws Exception {
+			if (evt.state() != IdleState.WRITER_IDLE) {
+				ctx.fireUserEventTriggered(evt);
+				return;
+			}
+			// a single write (f.e. a large file) completes only at its end; the write position tells whether it proceeds
+			final ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+			if (buffer == null || buffer.totalPendingWriteBytes() == 0) {
+				this.stalledMessage = null;
+				return;
+			}
+			final Object current = buffer.current();
+			final long position = position(current);
+			if (current == this.stalledMessage && position == this.stalledPosition) {
+				// the client stopped reading
+				metrics.rejected(WebMetrics.Rejection.WRITE_TIMEOUT);
+				ctx.close();
+				return;
+			}
+			this.stalledMessage = current;
+			this.stalledPosition = position;
+		}
+		
+		/**
+		 * Returns the write position of a message.
+		 * @param msg
+		 * @return position
+		 */
+		private long position(Object msg) {
+			if (msg instanceof ByteBuf) {
+				return ((ByteBuf) msg).readerIndex();
+			}
+			if (msg instanceof ByteBufHolder) {
+				return ((ByteBufHolder) msg).content().readerIndex();
+			}
+			if (msg instanceof FileRegion) {
+				return ((FileRegion) msg).transferred();
+			}
+			return 0;
+		}
+		
+	}
+
+}
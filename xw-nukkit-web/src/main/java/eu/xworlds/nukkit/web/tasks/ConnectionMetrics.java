@@ -0,0 +1,101 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+
+/**
+ * The first handler of every connection; counts the bytes on the wire and marks the start of each request. The
+ * handler fields are only touched by the channel event loop.
+ * 
+ * @author mepeisen
+ */
+final class ConnectionMetrics extends ChannelDuplexHandler {
+	
+	/** the metrics */
+	private final WebMetrics metrics;
+	
+	/** the time the first bytes of the next request were read (nanos); 0 if no bytes were read yet */
+	private long requestStart;
+	
+	/**
+	 * Constructor
+	 * @param metrics
+	 */
+	ConnectionMetrics(WebMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns the time the first bytes of the current request were read.
+	 * @return time (nanos)
+	 */
+	long requestStart() {
+		return this.requestStart == 0 ? System.nanoTime() : this.requestStart;
+	}
+	
+	/**
+	 * Invoked as soon as a request was received completely; the next read starts the next request.
+	 */
+	void requestReceived() {
+		this.requestStart = 0;
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		this.metrics.opened();
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		this.metrics.closed();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof ByteBuf) {
+			if (this.requestStart == 0) {
+				this.requestStart = System.nanoTime();
+			}
+			this.metrics.received(((ByteBuf) msg).readableBytes());
+		}
+		super.channelRead(ctx, msg);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if (msg instanceof ByteBuf) {
+			this.metrics.sent(((ByteBuf) msg).readableBytes());
+		}
+		else if (msg instanceof ByteBufHolder) {
+			this.metrics.sent(((ByteBufHolder) msg).content().readableBytes());
+		}
+		else if (msg instanceof FileRegion) {
+			this.metrics.sent(((FileRegion) msg).count());
+		}
+		super.write(ctx, msg, promise);
+	}
+
+}
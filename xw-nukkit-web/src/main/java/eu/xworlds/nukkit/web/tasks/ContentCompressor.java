@@ -0,0 +1,61 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import io.netty.handler.codec.compression.StandardCompressionOptions;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+
+/**
+ * The response compressor of the web server; compresses the responses selected by the {@link Compression}
+ * settings.
+ * 
+ * @author mepeisen
+ */
+final class ContentCompressor extends HttpContentCompressor {
+	
+	/** the compression settings */
+	private final Compression compression;
+	
+	/**
+	 * Constructor
+	 * @param compression the compression settings; must be enabled
+	 */
+	ContentCompressor(Compression compression) {
+		super(StandardCompressionOptions.gzip(compression.level, 15, 8), StandardCompressionOptions.deflate(compression.level, 15, 8));
+		this.compression = compression;
+	}
+
+	@Override
+	protected Result beginEncode(HttpResponse headers, String acceptEncoding) throws Exception {
+		if (headers instanceof StreamingResponse.FileHead) {
+			// file regions are written unchanged (sendfile); precompressed files carry their own encoding
+			return null;
+		}
+		// streamed bodies of unknown length are compressed
+		final long length = headers instanceof FullHttpResponse ? ((FullHttpResponse) headers).content().readableBytes() : HttpUtil.getContentLength(headers, Long.MAX_VALUE);
+		if (!this.compression.isCompressible(headers.headers().get(HttpHeaderNames.CONTENT_TYPE), length)) {
+			return null;
+		}
+		return super.beginEncode(headers, acceptEncoding);
+	}
+
+}
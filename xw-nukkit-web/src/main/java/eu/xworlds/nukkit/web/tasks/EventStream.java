@@ -0,0 +1,430 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.gson.JsonElement;
+
+import cn.nukkit.Server;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.DefaultHttpContent;
+
+/**
+ * A stream of server-sent events, f.e. the nukkit events. The stream is a shared handler; register it as route to
+ * let clients subscribe.
+ * 
+ * <p>Events are encoded once when published and kept in a bounded replay buffer. The events published within a
+ * tick are sent as a single batch; the batch is shared by all subscribers and written by their event loops, one task
+ * per event loop and batch. Idle streams send a heartbeat comment to keep proxies from closing the connection.</p>
+ * 
+ * <p>Subscribers that are not writable skip the batches and catch up from the replay buffer as soon as they are
+ * writable again; subscribers staying unwritable for longer than the configured lag are disconnected and may
+ * reconnect with {@code Last-Event-ID}.</p>
+ * 
+ * <p>The stream is thread safe.</p>
+ * 
+ * @author mepeisen
+ */
+public final class EventStream implements EventStreamWebpageHandler {
+	
+	/** the heartbeat comment */
+	private static final Batch HEARTBEAT = new Batch(encode(": heartbeat\n\n"), 0, 0);
+	
+	/** the stream name */
+	private final String name;
+	
+	/** the time a subscriber may stay unwritable before it is disconnected (nanos) */
+	private final long maxLag;
+	
+	/** the replay buffer; the event of id {@code n} is stored at index {@code n % length}; guarded by this */
+	private final Event[] replay;
+	
+	/** the id of the next event; guarded by this */
+	private long nextId = 1;
+	
+	/** the events published since the last batch; guarded by this */
+	private final List<Event> pending = new ArrayList<>();
+	
+	/** the time the last batch or heartbeat was sent (nanos); guarded by this */
+	private long lastSent = System.nanoTime();
+	
+	/** the subscribers by event loop */
+	private final ConcurrentMap<EventLoop, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor
+	 * @param name the stream name
+	 * @param replaySize number of events kept for clients reconnecting with {@code Last-Event-ID}
+	 * @param maxLag the time a subscriber may stay unwritable before it is disconnected (millis)
+	 */
+	EventStream(String name, int replaySize, long maxLag) {
+		this.name = name;
+		this.replay = new Event[Math.max(1, replaySize)];
+		this.maxLag = maxLag * 1000000L;
+	}
+	
+	/**
+	 * @return the stream name
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Publishes an event; the event is sent with the next tick.
+	 * @param event the event type; {@code null} for the default type ("message")
+	 * @param data the event data; line breaks are allowed
+	 * @return the event id
+	 */
+	public long publish(String event, String data) {
+		final StringBuilder builder = new StringBuilder();
+		synchronized (this) {
+			final long id = this.nextId++;
+			builder.append("id: ").append(id).append('\n');
+			if (event != null) {
+				builder.append("event: ").append(event.replace('\n', ' ').replace('\r', ' ')).append('\n');
+			}
+			for (final String line : data.split("\r\n|\r|\n", -1)) {
+				builder.append("data: ").append(line).append('\n');
+			}
+			builder.append('\n');
+			final Event result = new Event(id, encode(builder));
+			this.replay[(int) (id % this.replay.length)] = result;
+			this.pending.add(result);
+			return id;
+		}
+	}
+	
+	/**
+	 * Publishes an event with json data.
+	 * @param event the event type; {@code null} for the default type ("message")
+	 * @param data the event data
+	 * @return the event id
+	 */
+	public long publish(String event, JsonElement data) {
+		return this.publish(event, data.toString());
+	}
+	
+	/**
+	 * @return number of subscribed connections
+	 */
+	public int getSubscriberCount() {
+		int result = 0;
+		for (final Set<Subscriber> set : this.subscribers.values()) {
+			result += set.size();
+		}
+		return result;
+	}
+
+	@Override
+	public EventStream selectEventStream(WebRequestContext ctx, Server server) {
+		return this;
+	}
+	
+	/**
+	 * Sends the events published since the last invocation or a heartbeat; invoked by the web server task once per
+	 * tick.
+	 * @param now the current time (nanos)
+	 * @param heartbeat the heartbeat interval (nanos); {@code 0} to disable heartbeats
+	 */
+	void flush(long now, long heartbeat) {
+		final Batch batch;
+		synchronized (this) {
+			if (!this.pending.isEmpty() && this.getSubscriberCount() == 0) {
+				// nobody listens; reconnecting clients replay the events
+				this.pending.clear();
+				this.lastSent = now;
+				return;
+			}
+			if (!this.pending.isEmpty()) {
+				int size = 0;
+				for (final Event event : this.pending) {
+					size += event.content.readableBytes();
+				}
+				// the batch is shared by every subscriber; a heap buffer is freed by the garbage collector
+				final ByteBuf content = Unpooled.buffer(size);
+				for (final Event event : this.pending) {
+					content.writeBytes(event.content, event.content.readerIndex(), event.content.readableBytes());
+				}
+				batch = new Batch(shared(content), this.pending.get(0).id, this.pending.get(this.pending.size() - 1).id);
+				this.pending.clear();
+			}
+			else if (heartbeat > 0 && now - this.lastSent >= heartbeat) {
+				batch = HEARTBEAT;
+			}
+			else {
+				return;
+			}
+			this.lastSent = now;
+		}
+		for (final Map.Entry<EventLoop, Set<Subscriber>> entry : this.subscribers.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				continue;
+			}
+			try {
+				entry.getKey().execute(new Fanout(batch, entry.getValue()));
+			}
+			catch (RejectedExecutionException ex) {
+				// the event loop is shutting down; its channels are closed
+			}
+		}
+	}
+	
+	/**
+	 * Subscribes a connection; invoked on the event loop of the channel after the response head was written.
+	 * @param channel
+	 * @param lastEventId the last event the client received; {@code -1} to receive new events only
+	 * @return the subscriber
+	 */
+	Subscriber subscribe(Channel channel, long lastEventId) {
+		final Subscriber subscriber = new Subscriber(this, channel);
+		synchronized (this) {
+			subscriber.lastId = lastEventId < 0 || lastEventId >= this.nextId ? this.nextId - 1 : lastEventId;
+		}
+		Set<Subscriber> set = this.subscribers.get(channel.eventLoop());
+		if (set == null) {
+			final Set<Subscriber> newSet = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+			set = this.subscribers.putIfAbsent(channel.eventLoop(), newSet);
+			if (set == null) {
+				set = newSet;
+			}
+		}
+		set.add(subscriber);
+		subscriber.catchUp();
+		return subscriber;
+	}
+	
+	/**
+	 * Unsubscribes a connection.
+	 * @param subscriber
+	 */
+	void unsubscribe(Subscriber subscriber) {
+		final Set<Subscriber> set = this.subscribers.get(subscriber.channel.eventLoop());
+		if (set != null) {
+			set.remove(subscriber);
+		}
+	}
+	
+	/**
+	 * Collects the events following given event from the replay buffer. Events that were dropped from the replay
+	 * buffer are lost.
+	 * @param subscriber the subscriber; receives the id of the last collected event
+	 * @return the events; {@code null} if there are no events
+	 */
+	private synchronized ByteBuf replay(Subscriber subscriber) {
+		final long first = Math.max(subscriber.lastId + 1, this.nextId - this.replay.length);
+		if (first >= this.nextId) {
+			return null;
+		}
+		int size = 0;
+		for (long id = first; id < this.nextId; id++) {
+			size += this.replay[(int) (id % this.replay.length)].content.readableBytes();
+		}
+		final ByteBuf result = Unpooled.directBuffer(size);
+		for (long id = first; id < this.nextId; id++) {
+			final ByteBuf content = this.replay[(int) (id % this.replay.length)].content;
+			result.writeBytes(content, content.readerIndex(), content.readableBytes());
+		}
+		subscriber.lastId = this.nextId - 1;
+		return result;
+	}
+	
+	/**
+	 * Encodes a text into a shared heap buffer.
+	 * @param text
+	 * @return the shared buffer
+	 */
+	private static ByteBuf encode(CharSequence text) {
+		return shared(Unpooled.wrappedBuffer(text.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	/**
+	 * Protects a heap buffer shared by multiple channels; the buffer is never released but freed by the garbage
+	 * collector. Direct buffers must not be shared this way; their memory is returned by {@code release()} only.
+	 * @param buf
+	 * @return the shared buffer
+	 */
+	private static ByteBuf shared(ByteBuf buf) {
+		return Unpooled.unreleasableBuffer(buf.asReadOnly());
+	}
+	
+	/**
+	 * A published event.
+	 */
+	private static final class Event {
+		
+		/** the event id */
+		final long id;
+		
+		/** the encoded event; shared */
+		final ByteBuf content;
+		
+		Event(long id, ByteBuf content) {
+			this.id = id;
+			this.content = content;
+		}
+		
+	}
+	
+	/**
+	 * The events of a tick, encoded once for all subscribers.
+	 */
+	private static final class Batch {
+		
+		/** the encoded events; shared */
+		final ByteBuf content;
+		
+		/** the id of the first event; 0 for heartbeats */
+		final long firstId;
+		
+		/** the id of the last event; 0 for heartbeats */
+		final long lastId;
+		
+		Batch(ByteBuf content, long firstId, long lastId) {
+			this.content = content;
+			this.firstId = firstId;
+			this.lastId = lastId;
+		}
+		
+	}
+	
+	/**
+	 * A subscribed connection. The fields are only touched by the event loop of the channel.
+	 */
+	static final class Subscriber {
+		
+		/** the stream */
+		final EventStream stream;
+		
+		/** the channel */
+		final Channel channel;
+		
+		/** the id of the last event sent */
+		long lastId;
+		
+		/** the time the channel was found unwritable (nanos); 0 if the subscriber is up to date */
+		private long staleSince;
+		
+		Subscriber(EventStream stream, Channel channel) {
+			this.stream = stream;
+			this.channel = channel;
+		}
+		
+		/**
+		 * Delivers a batch.
+		 * @param batch
+		 * @param now the current time (nanos)
+		 */
+		void deliver(Batch batch, long now) {
+			if (!this.channel.isActive()) {
+				return;
+			}
+			if (batch == HEARTBEAT) {
+				if (this.channel.isWritable()) {
+					this.write(batch.content.duplicate());
+				}
+				return;
+			}
+			if (batch.lastId <= this.lastId) {
+				// already replayed
+				return;
+			}
+			if (!this.channel.isWritable()) {
+				// slow consumer; catches up from the replay buffer as soon as the channel is writable
+				if (this.staleSince == 0) {
+					this.staleSince = now | 1;
+				}
+				else if (now - this.staleSince > this.stream.maxLag) {
+					this.channel.close();
+				}
+				return;
+			}
+			if (this.staleSince != 0 || batch.firstId != this.lastId + 1) {
+				this.catchUp();
+				return;
+			}
+			this.lastId = batch.lastId;
+			this.write(batch.content.duplicate());
+		}
+		
+		/**
+		 * Sends the events missed from the replay buffer.
+		 */
+		void catchUp() {
+			this.staleSince = 0;
+			final ByteBuf events = this.stream.replay(this);
+			if (events != null) {
+				this.write(events);
+			}
+		}
+		
+		/**
+		 * @return {@code true} if the subscriber skipped events
+		 */
+		boolean isStale() {
+			return this.staleSince != 0;
+		}
+		
+		/**
+		 * Writes a body chunk.
+		 * @param content
+		 */
+		private void write(ByteBuf content) {
+			this.channel.writeAndFlush(new DefaultHttpContent(content)).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+		}
+		
+	}
+	
+	/**
+	 * Passes a batch to the subscribers of a single event loop.
+	 */
+	private static final class Fanout implements Runnable {
+		
+		private final Batch batch;
+		
+		private final Set<Subscriber> subscribers;
+		
+		Fanout(Batch batch, Set<Subscriber> subscribers) {
+			this.batch = batch;
+			this.subscribers = subscribers;
+		}
+
+		@Override
+		public void run() {
+			final long now = System.nanoTime();
+			for (final Subscriber subscriber : this.subscribers) {
+				subscriber.deliver(this.batch, now);
+			}
+		}
+		
+	}
+
+}
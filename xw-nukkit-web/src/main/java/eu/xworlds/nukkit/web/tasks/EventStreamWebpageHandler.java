@@ -0,0 +1,48 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import cn.nukkit.Server;
+
+/**
+ * Interface to be implemented by handlers sending server-sent events ({@code text/event-stream}), f.e. a feed of
+ * nukkit events. An {@link EventStream} is a handler itself; implement this interface to select the stream per
+ * request.
+ * 
+ * <p>The response is kept open until the client disconnects; the client receives every event published to the
+ * stream. Clients reconnecting with a {@code Last-Event-ID} header receive the events they missed as long as the
+ * events are still held by the replay buffer of the stream.</p>
+ * 
+ * @author mepeisen
+ */
+public interface EventStreamWebpageHandler extends WebRequestHandler {
+
+	/**
+	 * Selects the event stream the client subscribes to.
+	 * 
+	 * @param ctx
+	 *            web request context; the request content is released as soon as this method returns
+	 * @param server
+	 *            the nukkit server instance
+	 * @return the event stream; {@code null} shows up a 404 page.
+	 * @throws RuntimeException
+	 *             can be thrown to show up an internal error.
+	 */
+	EventStream selectEventStream(WebRequestContext ctx, Server server);
+
+}
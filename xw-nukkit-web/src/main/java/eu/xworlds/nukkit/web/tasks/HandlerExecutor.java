@@ -0,0 +1,172 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * The execution stage invoking the webpage handlers outside the netty io threads.
+ * 
+ * <p>The stage is bounded; if there are too many pending requests {@link #submit(Runnable)} returns {@code false}
+ * and the caller should shed the load (http 503).</p>
+ * 
+ * @author mepeisen
+ */
+final class HandlerExecutor {
+	
+	/**
+	 * The execution modes.
+	 */
+	public enum Mode {
+		/** invoke the handlers directly on the netty io threads; only suitable for trivial handlers */
+		INLINE,
+		/** invoke the handlers on a fixed thread pool */
+		POOL,
+		/** invoke each handler on a new virtual thread (java 21+); falls back to POOL on older java versions */
+		VIRTUAL
+	}
+	
+	/** the mode being used */
+	private final Mode mode;
+	
+	/** the executor or {@code null} for inline mode */
+	private final ExecutorService executor;
+	
+	/** limits the pending requests for virtual threads; {@code null} for other modes */
+	private final Semaphore permits;
+	
+	/**
+	 * Constructor
+	 * @param mode the requested execution mode
+	 * @param threads number of pool threads
+	 * @param queueSize maximum number of pending requests
+	 * @param threadName the name prefix for pool threads
+	 * @param threadPriority the thread priority for pool threads
+	 */
+	HandlerExecutor(Mode mode, int threads, int queueSize, String threadName, int threadPriority) {
+		ExecutorService virtual = null;
+		if (mode == Mode.VIRTUAL) {
+			virtual = createVirtualExecutor();
+			if (virtual == null) {
+				mode = Mode.POOL;
+			}
+		}
+		this.mode = mode;
+		switch (mode) {
+			default:
+			case INLINE:
+				this.executor = null;
+				this.permits = null;
+				break;
+			case VIRTUAL:
+				this.executor = virtual;
+				this.permits = new Semaphore(Math.max(1, queueSize));
+				break;
+			case POOL:
+				final int size = Math.max(1, threads);
+				this.executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+						new DefaultThreadFactory(threadName, true, threadPriority), new ThreadPoolExecutor.AbortPolicy());
+				this.permits = null;
+				break;
+		}
+	}
+	
+	/**
+	 * Creates the virtual thread executor by reflection (we are compiled against java 8).
+	 * @return virtual thread executor or {@code null} if the jvm does not support virtual threads.
+	 */
+	private static ExecutorService createVirtualExecutor() {
+		try {
+			final Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the effective execution mode
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+	
+	/**
+	 * Submits given task
+	 * @param task
+	 * @return {@code true} if the task was accepted; {@code false} if the stage is overloaded
+	 */
+	public boolean submit(final Runnable task) {
+		switch (this.mode) {
+			default:
+			case INLINE:
+				task.run();
+				return true;
+			case POOL:
+				try {
+					this.executor.execute(task);
+					return true;
+				}
+				catch (RejectedExecutionException ex) {
+					return false;
+				}
+			case VIRTUAL:
+				if (!this.permits.tryAcquire()) {
+					return false;
+				}
+				try {
+					this.executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								task.run();
+							}
+							finally {
+								HandlerExecutor.this.permits.release();
+							}
+						}
+					});
+					return true;
+				}
+				catch (RejectedExecutionException ex) {
+					this.permits.release();
+					return false;
+				}
+		}
+	}
+	
+	/**
+	 * Shuts down the executor; pending tasks will still be executed.
+	 */
+	public void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+		}
+	}
+
+}
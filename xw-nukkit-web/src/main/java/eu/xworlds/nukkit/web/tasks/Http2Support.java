@@ -0,0 +1,163 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http2.DefaultHttp2ResetFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The http/2 support of the web server.
+ * 
+ * <p>Every http/2 stream is a child channel of the connection. The streams convert the frames to http/1 objects, so
+ * each stream runs the http/1 handler with a single request; the webpage handlers do not notice the protocol.</p>
+ * 
+ * @author mepeisen
+ */
+final class Http2Support {
+	
+	/** the application protocols negotiated on tls connections; http/2 is preferred */
+	static final ApplicationProtocolConfig ALPN = new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+			ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE, ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+			ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1);
+	
+	/** ends a stream after its last response was written; a client still sending the request body stops sending */
+	static final ChannelFutureListener END_STREAM = new ChannelFutureListener() {
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			if (future.channel().isActive()) {
+				future.channel().writeAndFlush(new DefaultHttp2ResetFrame(Http2Error.NO_ERROR));
+			}
+		}
+	};
+	
+	/** wraps the raw buffers of the stream bodies (f.e. file chunks); the streams accept http objects only */
+	static final ContentWrapper CONTENT_WRAPPER = new ContentWrapper();
+	
+	/**
+	 * Hidden constructor
+	 */
+	private Http2Support() {
+		// empty
+	}
+	
+	/**
+	 * Creates the frame codec of a new connection.
+	 * @param maxStreams the maximum number of concurrent streams
+	 * @param streamWindow the flow control window of each stream (bytes)
+	 * @return frame codec
+	 */
+	static Http2FrameCodec newFrameCodec(int maxStreams, int streamWindow) {
+		return Http2FrameCodecBuilder.forServer()
+				.initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(maxStreams).initialWindowSize(streamWindow))
+				.build();
+	}
+	
+	/**
+	 * Wraps raw buffers into http contents.
+	 */
+	@Sharable
+	static final class ContentWrapper extends MessageToMessageEncoder<ByteBuf> {
+
+		@Override
+		protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+			out.add(new DefaultHttpContent(msg.retain()));
+		}
+		
+	}
+	
+	/**
+	 * The last handler of a http/2 connection; receives the frames not belonging to a stream. Enlarges the flow control
+	 * window of the connection after the client settings were received and closes the connection if it does not carry
+	 * any stream within the read timeout.
+	 */
+	static final class ConnectionHandler extends ChannelInboundHandlerAdapter {
+		
+		/** the frame codec */
+		private final Http2FrameCodec codec;
+		
+		/** the flow control window of the connection (bytes) */
+		private final int connectionWindow;
+		
+		/** the metrics */
+		private final WebMetrics metrics;
+		
+		/** true as soon as the connection window was enlarged */
+		private boolean windowUpdated;
+		
+		/**
+		 * Constructor
+		 * @param codec the frame codec
+		 * @param connectionWindow the flow control window of the connection (bytes)
+		 * @param metrics the metrics
+		 */
+		ConnectionHandler(Http2FrameCodec codec, int connectionWindow, WebMetrics metrics) {
+			this.codec = codec;
+			this.connectionWindow = connectionWindow;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (msg instanceof Http2SettingsFrame && !this.windowUpdated) {
+				this.windowUpdated = true;
+				final Http2Connection connection = this.codec.connection();
+				final int delta = this.connectionWindow - connection.local().flowController().windowSize(connection.connectionStream());
+				if (delta > 0) {
+					ctx.writeAndFlush(new DefaultHttp2WindowUpdateFrame(delta));
+				}
+			}
+			// settings, ping and go away frames are answered by the codec
+			ReferenceCountUtil.release(msg);
+		}
+
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+				if (this.codec.connection().numActiveStreams() == 0) {
+					this.metrics.rejected(WebMetrics.Rejection.READ_TIMEOUT);
+					ctx.close();
+				}
+				return;
+			}
+			super.userEventTriggered(ctx, evt);
+		}
+		
+	}
+
+}
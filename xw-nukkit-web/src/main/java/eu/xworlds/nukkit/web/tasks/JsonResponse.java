@@ -0,0 +1,127 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Helper to build json responses by streaming the json directly into a byte buffer of the channel allocator.
+ * 
+ * <p>Sample usage within a webpage handler:</p>
+ * <pre>
+ * return JsonResponse.create(ctx, new JsonResponse.Content() {
+ *     public void write(JsonWriter writer) throws IOException {
+ *         writer.beginObject().name("onlinePlayers").value(ctx.getServerSnapshot().getOnlinePlayers()).endObject();
+ *     }
+ * });
+ * </pre>
+ * 
+ * @author mepeisen
+ */
+public final class JsonResponse {
+	
+	/** the content type of json responses */
+	public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+	
+	/** initial buffer size; the buffer grows on demand */
+	private static final int INITIAL_CAPACITY = 512;
+	
+	/**
+	 * Hidden constructor
+	 */
+	private JsonResponse() {
+		// empty
+	}
+	
+	/**
+	 * The json content to be written.
+	 */
+	public interface Content {
+		
+		/**
+		 * Writes the json content.
+		 * @param writer
+		 * @throws IOException
+		 */
+		void write(JsonWriter writer) throws IOException;
+		
+	}
+	
+	/**
+	 * Creates a http 200 json response.
+	 * @param ctx the web request context
+	 * @param content the json content
+	 * @return full http response
+	 */
+	public static FullHttpResponse create(WebRequestContext ctx, Content content) {
+		return create(ctx.getAllocator(), HttpResponseStatus.OK, content);
+	}
+	
+	/**
+	 * Creates a json response.
+	 * @param alloc the allocator for the response buffer
+	 * @param status the http status
+	 * @param content the json content
+	 * @return full http response
+	 * @throws IllegalStateException thrown if the json content could not be written.
+	 */
+	public static FullHttpResponse create(ByteBufAllocator alloc, HttpResponseStatus status, Content content) {
+		final ByteBuf buf = alloc.buffer(INITIAL_CAPACITY);
+		boolean success = false;
+		try {
+			write(buf, content);
+			final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, buf);
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+			success = true;
+			return response;
+		}
+		finally {
+			if (!success) {
+				buf.release();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the json content into given buffer.
+	 * @param buf the target buffer
+	 * @param content the json content
+	 * @throws IllegalStateException thrown if the json content could not be written.
+	 */
+	public static void write(ByteBuf buf, Content content) {
+		final JsonWriter writer = new JsonWriter(new ByteBufUtf8Writer(buf));
+		try {
+			content.write(writer);
+			writer.close();
+		}
+		catch (IOException ex) {
+			throw new IllegalStateException("Failed to write json", ex);
+		}
+	}
+
+}
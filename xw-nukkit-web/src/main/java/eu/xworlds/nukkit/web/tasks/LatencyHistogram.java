@@ -0,0 +1,147 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free latency histogram with logarithmic buckets.
+ * 
+ * <p>The latencies are recorded in micro seconds; every power of two is split into eight linear sub buckets, so the
+ * percentiles are accurate to about 12%. Recording is a single atomic increment and never allocates.</p>
+ * 
+ * @author mepeisen
+ */
+public final class LatencyHistogram {
+	
+	/** number of bits of the sub bucket index */
+	private static final int SUB_BITS = 3;
+	
+	/** number of sub buckets per power of two */
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	
+	/** the largest recorded value (micros); about 4.6 hours */
+	private static final long MAX_VALUE = (1L << 34) - 1;
+	
+	/** number of buckets */
+	private static final int BUCKETS = index(MAX_VALUE) + 1;
+	
+	/** the counts by bucket */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	/** the total count */
+	private final AtomicLong count = new AtomicLong();
+	
+	/** the sum of all recorded values (nanos) */
+	private final AtomicLong sum = new AtomicLong();
+	
+	/**
+	 * Records a latency.
+	 * @param nanos the latency in nano seconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		this.counts.incrementAndGet(index(Math.min(MAX_VALUE, nanos / 1000)));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(nanos);
+	}
+	
+	/**
+	 * @return number of recorded latencies
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+	
+	/**
+	 * @return sum of all recorded latencies (nanos)
+	 */
+	public long getSum() {
+		return this.sum.get();
+	}
+	
+	/**
+	 * Returns a percentile.
+	 * @param quantile the quantile, f.e. {@code 0.99}
+	 * @return the upper bound of the bucket holding the percentile (nanos); {@code 0} if nothing was recorded
+	 */
+	public long getPercentile(double quantile) {
+		final long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return upperBound(i) * 1000;
+			}
+		}
+		return upperBound(BUCKETS - 1) * 1000;
+	}
+	
+	/**
+	 * Returns the number of latencies up to given bound. Buckets crossing the bound are not counted.
+	 * @param nanos the bound (nanos)
+	 * @return cumulative count
+	 */
+	public long getCountBelow(long nanos) {
+		long result = 0;
+		for (int i = 0; i < BUCKETS && upperBound(i) * 1000 <= nanos; i++) {
+			result += this.counts.get(i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the bucket of a value.
+	 * @param micros
+	 * @return bucket index
+	 */
+	private static int index(long micros) {
+		if (micros < SUB_COUNT) {
+			return (int) micros;
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+		return SUB_COUNT + shift * SUB_COUNT + (int) ((micros >>> shift) & (SUB_COUNT - 1));
+	}
+	
+	/**
+	 * Returns the largest value of a bucket.
+	 * @param index
+	 * @return value (micros)
+	 */
+	private static long upperBound(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		final int shift = (index - SUB_COUNT) / SUB_COUNT;
+		final long sub = (index - SUB_COUNT) % SUB_COUNT;
+		return ((SUB_COUNT + sub + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.socket.DuplexChannel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Closes a connection after its last response was written.
+ * 
+ * <p>Closing a socket with unread input makes the kernel reset the connection; the client then drops responses it
+ * already received. Instead the output is shut down (the client reads the responses up to the end of the stream)
+ * and the remaining input is discarded until the client closes the connection or the linger timeout passed.</p>
+ * 
+ * @author mepeisen
+ */
+final class LingeringClose implements ChannelFutureListener {
+	
+	/** the shared instance */
+	static final LingeringClose INSTANCE = new LingeringClose();
+	
+	/** the time the client may take to close the connection (millis) */
+	private static final long LINGER_TIMEOUT = 2000;
+	
+	/**
+	 * Hidden constructor
+	 */
+	private LingeringClose() {
+		// empty
+	}
+
+	@Override
+	public void operationComplete(ChannelFuture future) throws Exception {
+		final Channel channel = future.channel();
+		if (!future.isSuccess() || !channel.isActive() || !(channel instanceof DuplexChannel)) {
+			channel.close();
+			return;
+		}
+		final SslHandler ssl = channel.pipeline().get(SslHandler.class);
+		if (ssl == null) {
+			shutdown(channel);
+			return;
+		}
+		// the close notify ends the tls stream before the socket output is shut down
+		ssl.closeOutbound().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture f) throws Exception {
+				shutdown(channel);
+			}
+		});
+	}
+	
+	/**
+	 * Shuts down the output and discards the input until the connection is closed.
+	 * @param channel
+	 */
+	static void shutdown(final Channel channel) {
+		if (!channel.isActive()) {
+			return;
+		}
+		// the pipelined requests are neither decoded nor answered
+		channel.pipeline().addFirst(new Discarder());
+		((DuplexChannel) channel).shutdownOutput().addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+		channel.eventLoop().schedule(new Runnable() {
+			@Override
+			public void run() {
+				channel.close();
+			}
+		}, LINGER_TIMEOUT, TimeUnit.MILLISECONDS);
+		// reads even if auto read was disabled by the pipeline limit
+		channel.read();
+	}
+	
+	/**
+	 * Discards the input of a closing connection; the connection is closed as soon as the client closed its output.
+	 */
+	private static final class Discarder extends ChannelInboundHandlerAdapter {
+		
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			ReferenceCountUtil.release(msg);
+		}
+		
+		@Override
+		public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+			if (!ctx.channel().config().isAutoRead()) {
+				ctx.read();
+			}
+		}
+		
+		@Override
+		public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+			// the connection handler must not toggle auto read any more
+		}
+		
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+			ctx.close();
+		}
+		
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import cn.nukkit.Server;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * The web socket endpoint of the live channel; register it as a shared handler of a route. Web socket upgrade
+ * requests are handed over to the live channel; plain http requests are answered with 426 (upgrade required).
+ * 
+ * <p>Clients subscribe to topics (see {@link LiveTopic}) either by query parameters ({@code ?topic=stats}) or by
+ * sending {@code {"subscribe":"stats"}} resp. {@code {"unsubscribe":"stats"}}; the value may be a json array of
+ * topic names, too.</p>
+ * 
+ * @author mepeisen
+ */
+public final class LiveEndpoint implements WebpageHandler {
+	
+	/** the topics clients may subscribe to; {@code null} for any topic */
+	private final Set<String> topics;
+	
+	/**
+	 * Constructor
+	 * @param topics the topics clients may subscribe to; none for any topic
+	 */
+	public LiveEndpoint(String... topics) {
+		this.topics = topics.length == 0 ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(topics)));
+	}
+	
+	/**
+	 * Checks if the endpoint exposes the given topic.
+	 * @param topic
+	 * @return {@code true} if clients may subscribe to given topic
+	 */
+	public boolean isAllowed(String topic) {
+		return this.topics == null || this.topics.contains(topic);
+	}
+
+	@Override
+	public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
+		final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.UPGRADE_REQUIRED, Unpooled.EMPTY_BUFFER);
+		response.headers().set(HttpHeaderNames.UPGRADE, "websocket");
+		response.headers().set(HttpHeaderNames.SEC_WEBSOCKET_VERSION, "13");
+		return response;
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+
+/**
+ * The per connection handler of the live channel; replaces the http handler after the web socket upgrade. The
+ * handler fields are only touched by the channel event loop.
+ * 
+ * @author mepeisen
+ */
+final class LiveSocketHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+	
+	/** maximum size of client messages; clients only send subscriptions */
+	static final int MAX_FRAME_SIZE = 4096;
+	
+	/** web socket status code: unsupported data */
+	private static final int UNSUPPORTED_DATA = 1003;
+	
+	/** the handshaker, closing the connection */
+	private final WebSocketServerHandshaker handshaker;
+	
+	/** the endpoint */
+	private final LiveEndpoint endpoint;
+	
+	/** the known topics */
+	private final Map<String, LiveTopic> topics;
+	
+	/** the subscriptions by topic name */
+	private final Map<String, LiveTopic.Subscriber> subscriptions = new HashMap<>();
+	
+	/** the channel context; set as soon as the handler was added */
+	private ChannelHandlerContext ctx;
+	
+	/**
+	 * Constructor
+	 * @param handshaker
+	 * @param endpoint
+	 * @param topics the known topics
+	 */
+	LiveSocketHandler(WebSocketServerHandshaker handshaker, LiveEndpoint endpoint, Map<String, LiveTopic> topics) {
+		this.handshaker = handshaker;
+		this.endpoint = endpoint;
+		this.topics = topics;
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		this.ctx = ctx;
+	}
+	
+	/**
+	 * Subscribes the topics requested on upgrade; invoked on the event loop after the handshake was sent.
+	 * @param names the topic names; may be {@code null}
+	 */
+	void start(List<String> names) {
+		if (names != null) {
+			for (final String name : names) {
+				this.subscribe(name);
+			}
+		}
+	}
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+		if (frame instanceof TextWebSocketFrame) {
+			this.receive(((TextWebSocketFrame) frame).text());
+		}
+		else if (frame instanceof PingWebSocketFrame) {
+			ctx.writeAndFlush(new PongWebSocketFrame(frame.content().retain()));
+		}
+		else if (frame instanceof CloseWebSocketFrame) {
+			this.handshaker.close(ctx.channel(), (CloseWebSocketFrame) frame.retain());
+		}
+		else if (!(frame instanceof PongWebSocketFrame)) {
+			// binary and fragmented messages
+			this.handshaker.close(ctx.channel(), new CloseWebSocketFrame(UNSUPPORTED_DATA, "unsupported frame"));
+		}
+	}
+	
+	/**
+	 * Handles a client message.
+	 * @param text
+	 */
+	private void receive(String text) {
+		final JsonObject message;
+		try {
+			final JsonElement element = new JsonParser().parse(text);
+			if (!element.isJsonObject()) {
+				this.sendError("object expected");
+				return;
+			}
+			message = element.getAsJsonObject();
+		}
+		catch (JsonParseException ex) {
+			this.sendError("invalid json");
+			return;
+		}
+		final JsonElement subscribe = message.get("subscribe");
+		if (subscribe != null) {
+			for (final String name : names(subscribe)) {
+				this.subscribe(name);
+			}
+		}
+		final JsonElement unsubscribe = message.get("unsubscribe");
+		if (unsubscribe != null) {
+			for (final String name : names(unsubscribe)) {
+				final LiveTopic.Subscriber subscriber = this.subscriptions.remove(name);
+				if (subscriber != null) {
+					subscriber.topic.unsubscribe(subscriber);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the topic names of a subscribe or unsubscribe message.
+	 * @param element a string or an array of strings
+	 * @return topic names
+	 */
+	private static String[] names(JsonElement element) {
+		if (element.isJsonArray()) {
+			final String[] result = new String[element.getAsJsonArray().size()];
+			for (int i = 0; i < result.length; i++) {
+				final JsonElement item = element.getAsJsonArray().get(i);
+				result[i] = item.isJsonPrimitive() ? item.getAsString() : "";
+			}
+			return result;
+		}
+		return new String[] { element.isJsonPrimitive() ? element.getAsString() : "" };
+	}
+	
+	/**
+	 * Subscribes a topic.
+	 * @param name
+	 */
+	private void subscribe(String name) {
+		if (this.subscriptions.containsKey(name)) {
+			return;
+		}
+		final LiveTopic topic = this.endpoint.isAllowed(name) ? this.topics.get(name) : null;
+		if (topic == null) {
+			this.sendError("unknown topic " + name);
+			return;
+		}
+		this.subscriptions.put(name, topic.subscribe(this.ctx.channel()));
+	}
+	
+	/**
+	 * Sends an error message.
+	 * @param error
+	 */
+	private void sendError(String error) {
+		final JsonObject message = new JsonObject();
+		message.add("error", new JsonPrimitive(error));
+		this.ctx.writeAndFlush(new TextWebSocketFrame(message.toString()));
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().isWritable()) {
+			// the slow consumer caught up; the skipped deltas are replaced by a single snapshot
+			for (final LiveTopic.Subscriber subscriber : this.subscriptions.values()) {
+				if (subscriber.isStale()) {
+					subscriber.resync();
+				}
+			}
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		for (final LiveTopic.Subscriber subscriber : this.subscriptions.values()) {
+			subscriber.topic.unsubscribe(subscriber);
+		}
+		this.subscriptions.clear();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		// f.e. corrupted or too large frames
+		ctx.close();
+	}
+
+}
@@ -0,0 +1,464 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+/**
+ * A topic of the live channel, f.e. the server statistics. Plugins publish key/value pairs; web socket clients
+ * subscribe to the topic and receive the changes.
+ * 
+ * <p>Changes are collected and published once per server tick. Every publication is encoded once into a shared
+ * frame that is passed to all subscribers; only the changed keys are sent (delta), a full snapshot is sent to new
+ * subscribers and after every few deltas. The frames are written by the event loops of the subscribers, one task per
+ * event loop and publication.</p>
+ * 
+ * <p>The messages are json objects: {@code {"topic":"stats","seq":12,"snapshot":{...}}} contains the whole state,
+ * {@code {"topic":"stats","seq":13,"delta":{...}}} contains the changed keys of the next sequence; removed keys are
+ * {@code null}. A client ignores deltas not following the sequence it knows; it always receives a snapshot first.</p>
+ * 
+ * <p>Subscribers that are not writable (slow consumers) skip the deltas; they receive a single snapshot as soon as
+ * they are writable again. Subscribers staying unwritable for longer than the configured lag are disconnected.</p>
+ * 
+ * <p>The topic is thread safe.</p>
+ * 
+ * @author mepeisen
+ */
+public final class LiveTopic {
+	
+	/** encodes the json elements; removed keys are written as null */
+	private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+	
+	/** initial frame buffer size; the buffer grows on demand */
+	private static final int INITIAL_CAPACITY = 256;
+	
+	/** the topic name */
+	private final String name;
+	
+	/** number of deltas between two full snapshots */
+	private final int snapshotInterval;
+	
+	/** the time a subscriber may stay unwritable before it is disconnected (nanos) */
+	private final long maxLag;
+	
+	/** the current state; guarded by this */
+	private final Map<String, JsonElement> state = new LinkedHashMap<>();
+	
+	/** the changes since the last publication; removed keys map to json null; guarded by this */
+	private final Map<String, JsonElement> changes = new LinkedHashMap<>();
+	
+	/** the sequence of the last publication; guarded by this */
+	private long sequence;
+	
+	/** number of deltas since the last full snapshot; guarded by this */
+	private int deltas;
+	
+	/** the snapshot of the current sequence; created on demand; guarded by this */
+	private Frame snapshot;
+	
+	/** the subscribers by event loop */
+	private final ConcurrentMap<EventLoop, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor
+	 * @param name the topic name
+	 * @param snapshotInterval number of deltas between two full snapshots
+	 * @param maxLag the time a subscriber may stay unwritable before it is disconnected (millis)
+	 */
+	LiveTopic(String name, int snapshotInterval, long maxLag) {
+		this.name = name;
+		this.snapshotInterval = snapshotInterval;
+		this.maxLag = maxLag * 1000000L;
+	}
+	
+	/**
+	 * @return the topic name
+	 */
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * Sets a value; the change is published with the next tick. Setting an unchanged value does not publish anything.
+	 * @param key
+	 * @param value the value; {@code null} to remove the key
+	 */
+	public void set(String key, JsonElement value) {
+		synchronized (this) {
+			if (value == null || value.isJsonNull()) {
+				if (this.state.remove(key) != null) {
+					this.changes.put(key, JsonNull.INSTANCE);
+				}
+			}
+			else if (!value.equals(this.state.put(key, value))) {
+				this.changes.put(key, value);
+			}
+		}
+	}
+	
+	/**
+	 * Sets a string value.
+	 * @param key
+	 * @param value the value; {@code null} to remove the key
+	 */
+	public void set(String key, String value) {
+		this.set(key, value == null ? null : new JsonPrimitive(value));
+	}
+	
+	/**
+	 * Sets a numeric value.
+	 * @param key
+	 * @param value the value; {@code null} to remove the key
+	 */
+	public void set(String key, Number value) {
+		this.set(key, value == null ? null : new JsonPrimitive(value));
+	}
+	
+	/**
+	 * Sets a boolean value.
+	 * @param key
+	 * @param value the value; {@code null} to remove the key
+	 */
+	public void set(String key, Boolean value) {
+		this.set(key, value == null ? null : new JsonPrimitive(value));
+	}
+	
+	/**
+	 * Removes a value.
+	 * @param key
+	 */
+	public void remove(String key) {
+		this.set(key, (JsonElement) null);
+	}
+	
+	/**
+	 * @return number of subscribed connections
+	 */
+	public int getSubscriberCount() {
+		int result = 0;
+		for (final Set<Subscriber> set : this.subscribers.values()) {
+			result += set.size();
+		}
+		return result;
+	}
+	
+	/**
+	 * Publishes the changes collected since the last invocation; invoked by the web server task once per tick.
+	 */
+	void publish() {
+		final Frame frame;
+		synchronized (this) {
+			if (this.changes.isEmpty()) {
+				return;
+			}
+			this.sequence++;
+			this.releaseSnapshot();
+			if (this.getSubscriberCount() == 0) {
+				// nobody listens; new subscribers receive a snapshot anyway
+				this.changes.clear();
+				return;
+			}
+			if (++this.deltas >= this.snapshotInterval) {
+				// resynchronizes clients that missed something
+				this.deltas = 0;
+				this.changes.clear();
+				frame = this.snapshot();
+			}
+			else {
+				frame = this.encode("delta", this.changes);
+				this.changes.clear();
+			}
+		}
+		try {
+			for (final Map.Entry<EventLoop, Set<Subscriber>> entry : this.subscribers.entrySet()) {
+				if (entry.getValue().isEmpty()) {
+					continue;
+				}
+				frame.retain();
+				try {
+					entry.getKey().execute(new Fanout(frame, entry.getValue()));
+				}
+				catch (RejectedExecutionException ex) {
+					// the event loop is shutting down; its channels are closed
+					frame.release();
+				}
+			}
+		}
+		finally {
+			frame.release();
+		}
+	}
+	
+	/**
+	 * Returns the snapshot of the current sequence.
+	 * @return the snapshot frame; the caller releases the frame
+	 */
+	Frame snapshot() {
+		synchronized (this) {
+			if (this.snapshot == null) {
+				this.snapshot = this.encode("snapshot", this.state);
+			}
+			return this.snapshot.retain();
+		}
+	}
+	
+	/**
+	 * Releases the snapshot of the previous sequence; guarded by this.
+	 */
+	private void releaseSnapshot() {
+		if (this.snapshot != null) {
+			this.snapshot.release();
+			this.snapshot = null;
+		}
+	}
+	
+	/**
+	 * Encodes a message of the current sequence; guarded by this.
+	 * @param type the message type ("snapshot" or "delta")
+	 * @param values the values
+	 * @return the frame
+	 */
+	private Frame encode(final String type, final Map<String, JsonElement> values) {
+		final ByteBuf buf = ByteBufAllocator.DEFAULT.directBuffer(INITIAL_CAPACITY);
+		boolean success = false;
+		try {
+			JsonResponse.write(buf, new JsonResponse.Content() {
+				@Override
+				public void write(JsonWriter writer) throws IOException {
+					writer.beginObject();
+					writer.name("topic").value(name);
+					writer.name("seq").value(sequence);
+					writer.name(type).beginObject();
+					for (final Map.Entry<String, JsonElement> entry : values.entrySet()) {
+						writer.name(entry.getKey());
+						GSON.toJson(entry.getValue(), writer);
+					}
+					writer.endObject();
+					writer.endObject();
+				}
+			});
+			success = true;
+			return new Frame(new TextWebSocketFrame(buf), this.sequence, "snapshot".equals(type));
+		}
+		finally {
+			if (!success) {
+				buf.release();
+			}
+		}
+	}
+	
+	/**
+	 * Subscribes a web socket connection; invoked on the event loop of the channel. The subscriber receives the
+	 * current snapshot.
+	 * @param channel
+	 * @return the subscriber
+	 */
+	Subscriber subscribe(Channel channel) {
+		final Subscriber subscriber = new Subscriber(this, channel);
+		Set<Subscriber> set = this.subscribers.get(channel.eventLoop());
+		if (set == null) {
+			final Set<Subscriber> newSet = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+			set = this.subscribers.putIfAbsent(channel.eventLoop(), newSet);
+			if (set == null) {
+				set = newSet;
+			}
+		}
+		set.add(subscriber);
+		subscriber.resync();
+		return subscriber;
+	}
+	
+	/**
+	 * Unsubscribes a web socket connection.
+	 * @param subscriber
+	 */
+	void unsubscribe(Subscriber subscriber) {
+		final Set<Subscriber> set = this.subscribers.get(subscriber.channel.eventLoop());
+		if (set != null) {
+			set.remove(subscriber);
+		}
+	}
+	
+	/**
+	 * An encoded message shared by all subscribers.
+	 */
+	static final class Frame {
+		
+		/** the shared frame; never written itself, the subscribers write duplicates */
+		final TextWebSocketFrame frame;
+		
+		/** the sequence */
+		final long sequence;
+		
+		/** true for full snapshots */
+		final boolean snapshot;
+		
+		Frame(TextWebSocketFrame frame, long sequence, boolean snapshot) {
+			this.frame = frame;
+			this.sequence = sequence;
+			this.snapshot = snapshot;
+		}
+		
+		/**
+		 * @return this frame
+		 */
+		Frame retain() {
+			this.frame.retain();
+			return this;
+		}
+		
+		/**
+		 * Releases this frame.
+		 */
+		void release() {
+			this.frame.release();
+		}
+		
+		/**
+		 * @return a duplicate to be written; shares the content of this frame
+		 */
+		TextWebSocketFrame duplicate() {
+			return this.frame.duplicate().retain();
+		}
+		
+	}
+	
+	/**
+	 * A subscribed connection. The fields are only touched by the event loop of the channel.
+	 */
+	static final class Subscriber {
+		
+		/** the topic */
+		final LiveTopic topic;
+		
+		/** the web socket channel */
+		final Channel channel;
+		
+		/** the last sequence sent; -1 if nothing was sent yet */
+		private long sequence = -1;
+		
+		/** the time the channel was found unwritable (nanos); 0 if the subscriber is up to date */
+		private long staleSince;
+		
+		Subscriber(LiveTopic topic, Channel channel) {
+			this.topic = topic;
+			this.channel = channel;
+		}
+		
+		/**
+		 * Delivers a publication.
+		 * @param frame
+		 * @param now the current time (nanos)
+		 */
+		void deliver(Frame frame, long now) {
+			if (frame.sequence <= this.sequence || !this.channel.isActive()) {
+				// already covered by a snapshot
+				return;
+			}
+			if (!this.channel.isWritable()) {
+				// slow consumer; the deltas are coalesced into a snapshot sent as soon as the channel is writable
+				if (this.staleSince == 0) {
+					this.staleSince = now | 1;
+				}
+				else if (now - this.staleSince > this.topic.maxLag) {
+					this.channel.close();
+				}
+				return;
+			}
+			if (this.staleSince != 0 || (!frame.snapshot && frame.sequence != this.sequence + 1)) {
+				this.resync();
+				return;
+			}
+			this.sequence = frame.sequence;
+			this.channel.writeAndFlush(frame.duplicate(), this.channel.voidPromise());
+		}
+		
+		/**
+		 * Sends the current snapshot.
+		 */
+		void resync() {
+			final Frame frame = this.topic.snapshot();
+			try {
+				this.staleSince = 0;
+				this.sequence = frame.sequence;
+				this.channel.writeAndFlush(frame.duplicate(), this.channel.voidPromise());
+			}
+			finally {
+				frame.release();
+			}
+		}
+		
+		/**
+		 * @return {@code true} if the subscriber skipped deltas
+		 */
+		boolean isStale() {
+			return this.staleSince != 0;
+		}
+		
+	}
+	
+	/**
+	 * Passes a publication to the subscribers of a single event loop.
+	 */
+	private static final class Fanout implements Runnable {
+		
+		private final Frame frame;
+		
+		private final Set<Subscriber> subscribers;
+		
+		Fanout(Frame frame, Set<Subscriber> subscribers) {
+			this.frame = frame;
+			this.subscribers = subscribers;
+		}
+
+		@Override
+		public void run() {
+			try {
+				final long now = System.nanoTime();
+				for (final Subscriber subscriber : this.subscribers) {
+					subscriber.deliver(this.frame, now);
+				}
+			}
+			finally {
+				this.frame.release();
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes work from the web handlers to the nukkit main thread.
+ * 
+ * <p>The queue is drained by the web server task on every tick; each tick only spends the configured time budget so
+ * that web traffic never causes a tick time spike. The futures are completed by the executor passed on submit, so the
+ * dependent stages (f.e. encoding and compressing the response) never run on the main thread.</p>
+ * 
+ * @author mepeisen
+ */
+final class MainThreadBridge {
+	
+	/** the pending work */
+	private final Queue<Work<?>> queue = new ConcurrentLinkedQueue<>();
+	
+	/** number of pending work items; ConcurrentLinkedQueue.size() is not constant time */
+	private final AtomicInteger size = new AtomicInteger();
+	
+	/** maximum number of pending work items */
+	private final int maxSize;
+	
+	/** the time budget per tick (nanos) */
+	private final long budget;
+	
+	/**
+	 * Constructor
+	 * @param maxSize maximum number of pending work items
+	 * @param budget the time budget per tick in nano seconds
+	 */
+	MainThreadBridge(int maxSize, long budget) {
+		this.maxSize = maxSize;
+		this.budget = budget;
+	}
+	
+	/**
+	 * Submits work to the main thread.
+	 * @param callable
+	 * @param completion the executor completing the future
+	 * @return future receiving the result of the callable
+	 */
+	<T> CompletableFuture<T> submit(Callable<T> callable, Executor completion) {
+		final Work<T> work = new Work<>(callable, completion);
+		if (this.size.incrementAndGet() > this.maxSize) {
+			this.size.decrementAndGet();
+			work.future.completeExceptionally(new RejectedExecutionException("Too many pending main thread tasks"));
+			return work.future;
+		}
+		this.queue.add(work);
+		return work.future;
+	}
+	
+	/**
+	 * Runs the pending work until the time budget is exhausted. At least one work item is executed per invocation.
+	 * Must be invoked on the main thread.
+	 * @return number of executed work items
+	 */
+	int drain() {
+		final long deadline = System.nanoTime() + this.budget;
+		int count = 0;
+		Work<?> work;
+		while ((work = this.queue.poll()) != null) {
+			this.size.decrementAndGet();
+			work.run();
+			count++;
+			if (System.nanoTime() - deadline >= 0) {
+				break;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return number of pending work items
+	 */
+	int getPending() {
+		return this.size.get();
+	}
+	
+	/**
+	 * A single work item.
+	 * @param <T> result type
+	 */
+	private static final class Work<T> implements Runnable {
+		
+		final Callable<T> callable;
+		
+		final Executor completion;
+		
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		
+		Work(Callable<T> callable, Executor completion) {
+			this.callable = callable;
+			this.completion = completion;
+		}
+
+		@Override
+		public void run() {
+			T result = null;
+			Throwable failure = null;
+			try {
+				result = this.callable.call();
+			}
+			catch (Throwable ex) {
+				// errors must neither escape into the nukkit scheduler nor leave the future incomplete
+				failure = ex;
+			}
+			final T value = result;
+			final Throwable error = failure;
+			final Runnable complete = new Runnable() {
+				@Override
+				public void run() {
+					if (error != null) {
+						Work.this.future.completeExceptionally(error);
+					}
+					else {
+						Work.this.future.complete(value);
+					}
+				}
+			};
+			try {
+				this.completion.execute(complete);
+			}
+			catch (RejectedExecutionException ex) {
+				// the executor is shutting down
+				complete.run();
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.concurrent.ThreadFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+/**
+ * The netty transports supported by the web server.
+ * 
+ * @author mepeisen
+ */
+enum NettyTransport {
+	
+	/** java nio; available on every platform */
+	NIO {
+		@Override
+		EventLoopGroup newGroup(int threads, ThreadFactory threadFactory) {
+			return new NioEventLoopGroup(threads, threadFactory);
+		}
+
+		@Override
+		Class<? extends ServerChannel> serverChannelClass() {
+			return NioServerSocketChannel.class;
+		}
+	},
+	
+	/** native epoll; linux only */
+	EPOLL {
+		@Override
+		EventLoopGroup newGroup(int threads, ThreadFactory threadFactory) {
+			return new EpollEventLoopGroup(threads, threadFactory);
+		}
+
+		@Override
+		Class<? extends ServerChannel> serverChannelClass() {
+			return EpollServerSocketChannel.class;
+		}
+	};
+	
+	/**
+	 * Creates a new event loop group.
+	 * @param threads number of threads; 0 for netty default
+	 * @param threadFactory the thread factory
+	 * @return event loop group
+	 */
+	abstract EventLoopGroup newGroup(int threads, ThreadFactory threadFactory);
+	
+	/**
+	 * @return the server channel class to be used with this transport
+	 */
+	abstract Class<? extends ServerChannel> serverChannelClass();
+	
+	/**
+	 * Selects the transport by configuration name.
+	 * @param name "auto", "epoll" or "nio"
+	 * @return the transport; falls back to nio if epoll is not available.
+	 * @throws IllegalArgumentException thrown on invalid names
+	 */
+	static NettyTransport select(String name) {
+		if ("auto".equalsIgnoreCase(name)) {
+			return isEpollAvailable() ? EPOLL : NIO;
+		}
+		final NettyTransport result = NettyTransport.valueOf(name.toUpperCase());
+		if (result == EPOLL && !isEpollAvailable()) {
+			return NIO;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the transport matching an existing event loop group.
+	 * @param group
+	 * @return transport
+	 */
+	static NettyTransport of(EventLoopGroup group) {
+		return group instanceof EpollEventLoopGroup ? EPOLL : NIO;
+	}
+	
+	/**
+	 * @return {@code true} if the native epoll transport can be used.
+	 */
+	static boolean isEpollAvailable() {
+		try {
+			return Epoll.isAvailable();
+		}
+		catch (Throwable ex) {
+			// native library or classes missing
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free token bucket rate limiter keyed by client address.
+ * 
+ * <p>Every bucket is a single atomic value, the theoretical arrival time of the next request (generic cell rate
+ * algorithm). A request is accepted as long as the arrival time does not run ahead of the current time by more than the
+ * burst. Buckets whose arrival time passed are full again and equal to new buckets; they are evicted as soon as the
+ * number of tracked addresses reaches its limit. If every tracked address is active requests of new addresses are
+ * refused until the next eviction frees a bucket; the limiter fails closed so that a flood of addresses cannot
+ * bypass it.</p>
+ * 
+ * @author mepeisen
+ */
+final class RateLimiter {
+	
+	/** minimum time between two evictions (nanos) */
+	private static final long EVICTION_INTERVAL = 1000000000L;
+	
+	/** the time between two tokens (nanos) */
+	private final long interval;
+	
+	/** the burst (nanos); the number of tokens multiplied with the interval */
+	private final long tolerance;
+	
+	/** the maximum number of tracked addresses */
+	private final int maxAddresses;
+	
+	/** the arrival time of the next request by address (nanos) */
+	private final ConcurrentMap<InetAddress, AtomicLong> buckets = new ConcurrentHashMap<>();
+	
+	/** earliest time of the next eviction (nanos) */
+	private final AtomicLong nextEviction = new AtomicLong(System.nanoTime());
+	
+	/**
+	 * Constructor
+	 * @param rate the requests per second
+	 * @param burst the number of requests accepted at once
+	 * @param maxAddresses the maximum number of tracked addresses
+	 */
+	RateLimiter(int rate, int burst, int maxAddresses) {
+		this.interval = Math.max(1, 1000000000L / rate);
+		this.tolerance = this.interval * Math.max(1, burst);
+		this.maxAddresses = Math.max(1, maxAddresses);
+	}
+	
+	/**
+	 * Takes a token from the bucket of given address.
+	 * @param address the client address
+	 * @param now the current time (nanos)
+	 * @return {@code 0} if the request is accepted; the time until the next token is available (nanos) otherwise
+	 */
+	long acquire(InetAddress address, long now) {
+		AtomicLong bucket = this.buckets.get(address);
+		if (bucket == null) {
+			if (this.buckets.size() >= this.maxAddresses && !this.evict(now)) {
+				// no bucket is free; refuse until the next eviction
+				return Math.max(this.interval, this.nextEviction.get() - now);
+			}
+			final AtomicLong newBucket = new AtomicLong(now);
+			bucket = this.buckets.putIfAbsent(address, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+			}
+		}
+		for (;;) {
+			final long arrival = bucket.get();
+			final long next = (arrival - now > 0 ? arrival : now) + this.interval;
+			if (next - now > this.tolerance) {
+				return next - now - this.tolerance;
+			}
+			if (bucket.compareAndSet(arrival, next)) {
+				return 0;
+			}
+		}
+	}
+	
+	/**
+	 * Removes the full buckets; at most once per eviction interval.
+	 * @param now the current time (nanos)
+	 * @return {@code true} if a new address can be tracked
+	 */
+	private boolean evict(long now) {
+		final long next = this.nextEviction.get();
+		if (next - now <= 0 && this.nextEviction.compareAndSet(next, now + EVICTION_INTERVAL)) {
+			for (final Iterator<AtomicLong> iter = this.buckets.values().iterator(); iter.hasNext();) {
+				if (iter.next().get() - now <= 0) {
+					iter.remove();
+				}
+			}
+		}
+		return this.buckets.size() < this.maxAddresses;
+	}
+	
+	/**
+	 * @return number of tracked addresses
+	 */
+	int size() {
+		return this.buckets.size();
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * Receives the request body of routes registered with {@link RequestBodyPolicy#stream(long)}.
+ * 
+ * <p>All methods are invoked on the channel event loop in order and must not block. Reading from the connection is
+ * paused until the listener was set; chunks received before are passed to the listener first.</p>
+ * 
+ * @author mepeisen
+ */
+public interface RequestBodyListener {
+	
+	/**
+	 * Receives the next chunk of the body.
+	 * @param chunk the chunk; only valid during this call, invoke {@link ByteBuf#retain()} to keep it
+	 * @throws Exception thrown to abort; the listener receives {@link #onError(Throwable)} and the connection is closed
+	 *         after the response was written
+	 */
+	void onContent(ByteBuf chunk) throws Exception;
+	
+	/**
+	 * Invoked after the last chunk was received.
+	 * @param trailingHeaders the trailing headers
+	 */
+	void onComplete(HttpHeaders trailingHeaders);
+	
+	/**
+	 * Invoked if the body could not be received completely, f.e. because it exceeds the maximum size or the connection
+	 * was closed.
+	 * @param cause the cause
+	 */
+	void onError(Throwable cause);
+
+}
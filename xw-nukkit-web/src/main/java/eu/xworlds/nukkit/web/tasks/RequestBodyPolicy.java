@@ -0,0 +1,141 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+/**
+ * Controls how the request bodies of a route are received.
+ * 
+ * <ul>
+ * <li>{@link Mode#AGGREGATE}: the body is collected in memory before the handler is invoked (default).</li>
+ * <li>{@link Mode#SPILL}: the body is collected in memory up to a threshold; larger bodies are written to a temporary
+ * file (see {@link WebRequestContext#getRequestBodyFile()}).</li>
+ * <li>{@link Mode#STREAM}: the handler is invoked as soon as the request head was received; the body is passed chunk
+ * by chunk to a {@link RequestBodyListener} (see
+ * {@link WebRequestContext#setRequestBodyListener(RequestBodyListener)}).</li>
+ * </ul>
+ * 
+ * <p>Bodies exceeding the maximum size are answered with http 413.</p>
+ * 
+ * @author mepeisen
+ */
+public final class RequestBodyPolicy {
+	
+	/**
+	 * The receive modes.
+	 */
+	public enum Mode {
+		/** collect in memory */
+		AGGREGATE,
+		/** collect in memory or in a temporary file */
+		SPILL,
+		/** pass the chunks to the handler */
+		STREAM
+	}
+	
+	/** default memory threshold for spilled bodies */
+	public static final long DEFAULT_MEMORY_THRESHOLD = 65536;
+	
+	/** the mode */
+	private final Mode mode;
+	
+	/** the maximum body size in bytes; negative for unlimited */
+	private final long maxSize;
+	
+	/** the number of bytes kept in memory before the body is spilled to disk */
+	private final long memoryThreshold;
+	
+	/**
+	 * Constructor
+	 * @param mode
+	 * @param maxSize
+	 * @param memoryThreshold
+	 */
+	private RequestBodyPolicy(Mode mode, long maxSize, long memoryThreshold) {
+		this.mode = mode;
+		this.maxSize = maxSize;
+		this.memoryThreshold = memoryThreshold;
+	}
+	
+	/**
+	 * Collects the body in memory.
+	 * @param maxSize the maximum body size in bytes; at most {@link Integer#MAX_VALUE}
+	 * @return policy
+	 */
+	public static RequestBodyPolicy aggregate(long maxSize) {
+		return new RequestBodyPolicy(Mode.AGGREGATE, Math.min(Math.max(0, maxSize), Integer.MAX_VALUE), Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Collects the body in memory up to {@link #DEFAULT_MEMORY_THRESHOLD} bytes; larger bodies are spilled to disk.
+	 * @param maxSize the maximum body size in bytes; negative for unlimited
+	 * @return policy
+	 */
+	public static RequestBodyPolicy spillToDisk(long maxSize) {
+		return spillToDisk(maxSize, DEFAULT_MEMORY_THRESHOLD);
+	}
+	
+	/**
+	 * Collects the body in memory up to given threshold; larger bodies are spilled to disk.
+	 * @param maxSize the maximum body size in bytes; negative for unlimited
+	 * @param memoryThreshold the number of bytes kept in memory
+	 * @return policy
+	 */
+	public static RequestBodyPolicy spillToDisk(long maxSize, long memoryThreshold) {
+		return new RequestBodyPolicy(Mode.SPILL, maxSize, Math.min(Math.max(0, memoryThreshold), Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Passes the body chunk by chunk to the handler.
+	 * @param maxSize the maximum body size in bytes; negative for unlimited
+	 * @return policy
+	 */
+	public static RequestBodyPolicy stream(long maxSize) {
+		return new RequestBodyPolicy(Mode.STREAM, maxSize, 0);
+	}
+
+	/**
+	 * @return the mode
+	 */
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * @return the maximum body size in bytes; negative for unlimited
+	 */
+	public long getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * @return the number of bytes kept in memory
+	 */
+	public long getMemoryThreshold() {
+		return this.memoryThreshold;
+	}
+	
+	/**
+	 * Checks the body size against the maximum size.
+	 * @param size
+	 * @return {@code true} if the size exceeds the maximum size
+	 */
+	boolean exceeds(long size) {
+		return this.maxSize >= 0 && size > this.maxSize;
+	}
+
+}
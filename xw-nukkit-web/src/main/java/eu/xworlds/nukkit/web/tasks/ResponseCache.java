@@ -0,0 +1,264 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * A bounded LRU cache for responses of cacheable routes (see {@link WebpageHandlerFactory#getCacheTtl(String[])}).
+ * 
+ * @author mepeisen
+ */
+final class ResponseCache {
+	
+	/** the cached entries in access order; guarded by itself */
+	private final LinkedHashMap<String, Entry> entries;
+	
+	/** hit/miss counters by route */
+	private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor
+	 * @param maxEntries maximum number of cached responses
+	 */
+	@SuppressWarnings("serial")
+	ResponseCache(final int maxEntries) {
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the cached entry.
+	 * @param key the cache key (request path; requests with a query string are not cached)
+	 * @param now current time in nanos
+	 * @return cached entry or {@code null} if there is no valid entry.
+	 */
+	Entry get(String key, long now) {
+		synchronized (this.entries) {
+			final Entry entry = this.entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (now - entry.expires >= 0) {
+				this.entries.remove(key);
+				return null;
+			}
+			entry.counters.hits.incrementAndGet();
+			return entry;
+		}
+	}
+	
+	/**
+	 * Stores a response
+	 * @param key the cache key (request path; requests with a query string are not cached)
+	 * @param route the route for statistics
+	 * @param response the response to be cached; the response is copied and may be released afterwards
+	 * @param ttl time to live in millis
+	 * @param now current time in nanos
+	 * @return the cache entry
+	 */
+	Entry put(String key, String route, FullHttpResponse response, long ttl, long now) {
+		final Counters routeCounters = this.counters(route);
+		routeCounters.misses.incrementAndGet();
+		final Entry entry = new Entry(routeCounters, response, now + TimeUnit.MILLISECONDS.toNanos(ttl));
+		synchronized (this.entries) {
+			this.entries.put(key, entry);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Invalidates all entries
+	 */
+	void clear() {
+		synchronized (this.entries) {
+			this.entries.clear();
+		}
+	}
+	
+	/**
+	 * @param route
+	 * @return the counters for given route
+	 */
+	private Counters counters(String route) {
+		Counters result = this.counters.get(route);
+		if (result == null) {
+			final Counters newCounters = new Counters();
+			result = this.counters.putIfAbsent(route, newCounters);
+			if (result == null) {
+				result = newCounters;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the statistics
+	 * @return map from route to hits (index 0) and misses (index 1)
+	 */
+	Map<String, long[]> getStatistics() {
+		final Map<String, long[]> result = new TreeMap<>();
+		for (final Map.Entry<String, Counters> entry : this.counters.entrySet()) {
+			result.put(entry.getKey(), new long[]{entry.getValue().hits.get(), entry.getValue().misses.get()});
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks if the If-None-Match header matches the given entity tag.
+	 * @param ifNoneMatch the header value; may be {@code null}
+	 * @param etag the entity tag
+	 * @return {@code true} if the client already has the current representation
+	 */
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		int start = 0;
+		final int len = ifNoneMatch.length();
+		while (start < len) {
+			int end = ifNoneMatch.indexOf(',', start);
+			if (end < 0) {
+				end = len;
+			}
+			int s = start;
+			int e = end;
+			while (s < e && ifNoneMatch.charAt(s) == ' ') s++;
+			while (e > s && ifNoneMatch.charAt(e - 1) == ' ') e--;
+			// weak comparison (RFC 7232, 3.2)
+			if (e - s >= 2 && ifNoneMatch.startsWith("W/", s)) s += 2;
+			if ((e - s == 1 && ifNoneMatch.charAt(s) == '*') || (e - s == etag.length() && ifNoneMatch.startsWith(etag, s))) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+	
+	/**
+	 * Hit/miss counters of a single route.
+	 */
+	private static final class Counters {
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+	}
+	
+	/**
+	 * A cached response.
+	 */
+	static final class Entry {
+		
+		/** the route counters */
+		final Counters counters;
+		
+		/** the status */
+		private final HttpResponseStatus status;
+		
+		/** the response headers */
+		private final HttpHeaders headers;
+		
+		/** the shared body */
+		private final Compression.SharedBody body;
+		
+		/** the strong entity tag */
+		final String etag;
+		
+		/** the strong entity tag of the compressed body */
+		final String gzipEtag;
+		
+		/** expiration time (nanos) */
+		final long expires;
+		
+		Entry(Counters counters, FullHttpResponse response, long expires) {
+			this.counters = counters;
+			this.status = response.status();
+			this.headers = new DefaultHttpHeaders().set(response.headers());
+			final ByteBuf body = response.content();
+			final byte[] bytes = new byte[body.readableBytes()];
+			body.getBytes(body.readerIndex(), bytes);
+			this.body = new Compression.SharedBody(Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes)));
+			final CRC32 crc = new CRC32();
+			crc.update(bytes);
+			final String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(bytes.length);
+			this.etag = "\"" + tag + "\"";
+			// every representation needs its own strong entity tag
+			this.gzipEtag = "\"" + tag + "-gz\"";
+			this.expires = expires;
+		}
+		
+		/**
+		 * Checks the If-None-Match header against both representations.
+		 * @param ifNoneMatch the header value; may be {@code null}
+		 * @return {@code true} if the client already has a current representation
+		 */
+		boolean isNotModified(String ifNoneMatch) {
+			return matches(ifNoneMatch, this.etag) || matches(ifNoneMatch, this.gzipEtag);
+		}
+		
+		/**
+		 * Creates a response from cache; the body is compressed once and shared by all responses.
+		 * @param notModified {@code true} to send a http 304 without body
+		 * @param now current time in nanos
+		 * @param compression the compression settings
+		 * @param acceptEncoding the Accept-Encoding request header; may be {@code null}
+		 * @return response
+		 */
+		FullHttpResponse toResponse(boolean notModified, long now, Compression compression, String acceptEncoding) {
+			final HttpHeaders headers = StaticResponse.HEADERS.newHeaders().set(this.headers);
+			final ByteBuf content = compression.select(this.body, headers, acceptEncoding);
+			final FullHttpResponse response;
+			if (notModified) {
+				content.release();
+				response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+				if (headers.contains(HttpHeaderNames.VARY)) {
+					response.headers().set(HttpHeaderNames.VARY, headers.get(HttpHeaderNames.VARY));
+				}
+			}
+			else {
+				response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, this.status, content);
+				response.headers().set(headers);
+			}
+			response.headers().set(HttpHeaderNames.ETAG, headers.contains(HttpHeaderNames.CONTENT_ENCODING) && !this.headers.contains(HttpHeaderNames.CONTENT_ENCODING) ? this.gzipEtag : this.etag);
+			response.headers().set(HttpHeaderNames.CACHE_CONTROL, "max-age=" + Math.max(0, TimeUnit.NANOSECONDS.toSeconds(this.expires - now)));
+			return response;
+		}
+		
+	}
+
+}
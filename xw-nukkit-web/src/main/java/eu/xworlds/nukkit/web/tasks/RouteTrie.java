@@ -0,0 +1,374 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable prefix tree of the registered routes.
+ * 
+ * <p>Route patterns consist of segments separated by slashes. A segment is either a static text, a path parameter
+ * {@code {name}}, an anonymous parameter {@code *} matching exactly one segment or the wildcard {@code **} matching
+ * the remaining path (only allowed as last segment). Static segments are preferred to parameters, parameters are
+ * preferred to wildcards.</p>
+ * 
+ * <p>Matching works on the raw request uri and does not allocate any memory; the parameter positions are stored into
+ * an int array given by the caller. The tree is never changed after creation; a new tree is compiled and swapped on
+ * every registration change.</p>
+ * 
+ * @author mepeisen
+ */
+final class RouteTrie {
+	
+	/** maximum number of parameters (including wildcards) per route */
+	static final int MAX_PARAMS = 8;
+	
+	/** name of the anonymous parameter */
+	static final String ANONYMOUS = "*";
+	
+	/** name of the wildcard */
+	static final String WILDCARD = "**";
+	
+	/** an empty trie */
+	static final RouteTrie EMPTY = new RouteTrie(new Node());
+	
+	/** the root node */
+	private final Node root;
+	
+	/**
+	 * Constructor
+	 * @param root
+	 */
+	private RouteTrie(Node root) {
+		this.root = root;
+	}
+	
+	/**
+	 * A registered route.
+	 */
+	static final class Route {
+		
+		/** the owner (plugin name) */
+		final String owner;
+		
+		/** the route pattern */
+		final String pattern;
+		
+		/** the route target; a shared {@link WebRequestHandler} or a {@link WebpageHandlerFactory} */
+		final Object target;
+		
+		/** the cache time to live in millis for shared handlers */
+		final long cacheTtl;
+		
+		/** the request body policy; {@code null} for the default policy */
+		final RequestBodyPolicy bodyPolicy;
+		
+		/** the parsed pattern segments */
+		final String[] segments;
+		
+		/** the names of the parameters, in order of appearance */
+		final String[] paramNames;
+		
+		/**
+		 * Constructor
+		 * @param owner
+		 * @param pattern
+		 * @param target
+		 * @param cacheTtl
+		 * @throws IllegalArgumentException thrown on invalid patterns
+		 */
+		Route(String owner, String pattern, Object target, long cacheTtl) {
+			this(owner, pattern, target, cacheTtl, null);
+		}
+		
+		/**
+		 * Constructor
+		 * @param owner
+		 * @param pattern
+		 * @param target
+		 * @param cacheTtl
+		 * @param bodyPolicy
+		 * @throws IllegalArgumentException thrown on invalid patterns
+		 */
+		Route(String owner, String pattern, Object target, long cacheTtl, RequestBodyPolicy bodyPolicy) {
+			this.owner = owner;
+			this.pattern = pattern;
+			this.target = target;
+			this.cacheTtl = cacheTtl;
+			this.bodyPolicy = bodyPolicy;
+			final List<String> segmentList = new ArrayList<>();
+			final List<String> params = new ArrayList<>();
+			int start = pattern.startsWith("/") ? 1 : 0;
+			while (start < pattern.length()) {
+				int end = pattern.indexOf('/', start);
+				if (end < 0) {
+					end = pattern.length();
+				}
+				final String segment = pattern.substring(start, end);
+				if (!segmentList.isEmpty() && WILDCARD.equals(segmentList.get(segmentList.size() - 1))) {
+					throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+				}
+				if (ANONYMOUS.equals(segment) || WILDCARD.equals(segment)) {
+					params.add(segment);
+				}
+				else if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+					params.add(segment.substring(1, segment.length() - 1));
+				}
+				else if (segment.isEmpty() || segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 || segment.indexOf('?') >= 0) {
+					throw new IllegalArgumentException("Invalid segment \"" + segment + "\" within route " + pattern);
+				}
+				segmentList.add(segment);
+				start = end + 1;
+			}
+			if (params.size() > MAX_PARAMS) {
+				throw new IllegalArgumentException("Too many parameters within route " + pattern);
+			}
+			this.segments = segmentList.toArray(new String[segmentList.size()]);
+			this.paramNames = params.toArray(new String[params.size()]);
+		}
+		
+	}
+	
+	/**
+	 * A node of the tree
+	 */
+	private static final class Node {
+		
+		/** the static child segments, sorted */
+		String[] segments = new String[0];
+		
+		/** the static children, same order as the segments */
+		Node[] children = new Node[0];
+		
+		/** the parameter child */
+		Node param;
+		
+		/** the route matching the remaining path */
+		Route wildcard;
+		
+		/** the route ending at this node */
+		Route route;
+		
+		/**
+		 * Finds the static child matching the given uri segment
+		 * @param uri
+		 * @param start
+		 * @param end
+		 * @return child or {@code null}
+		 */
+		Node findStatic(String uri, int start, int end) {
+			int low = 0;
+			int high = this.segments.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int cmp = compare(this.segments[mid], uri, start, end);
+				if (cmp < 0) {
+					low = mid + 1;
+				}
+				else if (cmp > 0) {
+					high = mid - 1;
+				}
+				else {
+					return this.children[mid];
+				}
+			}
+			return null;
+		}
+		
+	}
+	
+	/**
+	 * Compares a segment with an uri region, in the same order as {@link String#compareTo(String)}.
+	 * @param segment
+	 * @param uri
+	 * @param start
+	 * @param end
+	 * @return comparison result
+	 */
+	static int compare(String segment, String uri, int start, int end) {
+		final int len1 = segment.length();
+		final int len2 = end - start;
+		final int lim = Math.min(len1, len2);
+		for (int i = 0; i < lim; i++) {
+			final char c1 = segment.charAt(i);
+			final char c2 = uri.charAt(start + i);
+			if (c1 != c2) {
+				return c1 - c2;
+			}
+		}
+		return len1 - len2;
+	}
+	
+	/**
+	 * Compiles a new tree.
+	 * @param routes
+	 * @return tree
+	 * @throws IllegalArgumentException thrown on conflicting routes
+	 */
+	static RouteTrie compile(Collection<Route> routes) {
+		final Builder root = new Builder();
+		for (final Route route : routes) {
+			Builder node = root;
+			for (final String segment : route.segments) {
+				if (WILDCARD.equals(segment)) {
+					if (node.wildcard != null) {
+						throw new IllegalArgumentException("Route " + route.pattern + " conflicts with " + node.wildcard.pattern);
+					}
+					node.wildcard = route;
+					node = null;
+					break;
+				}
+				else if (ANONYMOUS.equals(segment) || segment.startsWith("{")) {
+					if (node.param == null) {
+						node.param = new Builder();
+					}
+					node = node.param;
+				}
+				else {
+					Builder child = node.children.get(segment);
+					if (child == null) {
+						child = new Builder();
+						node.children.put(segment, child);
+					}
+					node = child;
+				}
+			}
+			if (node != null) {
+				if (node.route != null) {
+					throw new IllegalArgumentException("Route " + route.pattern + " conflicts with " + node.route.pattern);
+				}
+				node.route = route;
+			}
+		}
+		return new RouteTrie(root.build());
+	}
+	
+	/**
+	 * Mutable node used while compiling the tree.
+	 */
+	private static final class Builder {
+		
+		/** static children, sorted by {@link String#compareTo(String)} */
+		final Map<String, Builder> children = new TreeMap<>();
+		
+		Builder param;
+		
+		Route wildcard;
+		
+		Route route;
+		
+		Node build() {
+			final Node result = new Node();
+			result.segments = this.children.keySet().toArray(new String[this.children.size()]);
+			result.children = new Node[result.segments.length];
+			for (int i = 0; i < result.segments.length; i++) {
+				result.children[i] = this.children.get(result.segments[i]).build();
+			}
+			result.param = this.param == null ? null : this.param.build();
+			result.wildcard = this.wildcard;
+			result.route = this.route;
+			return result;
+		}
+		
+	}
+	
+	/**
+	 * Returns the end of the path within the raw uri
+	 * @param uri
+	 * @return end of the path (start of query string or fragment)
+	 */
+	static int pathEnd(String uri) {
+		final int len = uri.length();
+		for (int i = 0; i < len; i++) {
+			final char c = uri.charAt(i);
+			if (c == '?' || c == '#') {
+				return i;
+			}
+		}
+		return len;
+	}
+	
+	/**
+	 * Matches the given uri.
+	 * @param uri the raw request uri (starting with a slash)
+	 * @param offsets receives the start and end offsets of the parameters within the uri; the array must be able to
+	 *         hold {@code 2 * MAX_PARAMS} entries
+	 * @return the matching route or {@code null} if no route matches
+	 */
+	Route match(String uri, int[] offsets) {
+		if (uri.isEmpty() || uri.charAt(0) != '/') {
+			return null;
+		}
+		return match(this.root, uri, 1, pathEnd(uri), offsets, 0);
+	}
+	
+	/**
+	 * Recursive matching
+	 * @param node current node
+	 * @param uri raw uri
+	 * @param pos start of the current segment
+	 * @param end end of the path
+	 * @param offsets parameter offsets
+	 * @param param index of the next parameter
+	 * @return matching route or {@code null}
+	 */
+	private static Route match(Node node, String uri, int pos, int end, int[] offsets, int param) {
+		if (pos >= end) {
+			if (node.route != null) {
+				return node.route;
+			}
+			if (node.wildcard != null) {
+				offsets[2 * param] = end;
+				offsets[2 * param + 1] = end;
+				return node.wildcard;
+			}
+			return null;
+		}
+		int segEnd = pos;
+		while (segEnd < end && uri.charAt(segEnd) != '/') {
+			segEnd++;
+		}
+		final int next = segEnd < end ? segEnd + 1 : end;
+		final Node child = node.findStatic(uri, pos, segEnd);
+		if (child != null) {
+			final Route result = match(child, uri, next, end, offsets, param);
+			if (result != null) {
+				return result;
+			}
+		}
+		if (node.param != null) {
+			final Route result = match(node.param, uri, next, end, offsets, param + 1);
+			if (result != null) {
+				offsets[2 * param] = pos;
+				offsets[2 * param + 1] = segEnd;
+				return result;
+			}
+		}
+		if (node.wildcard != null) {
+			offsets[2 * param] = pos;
+			offsets[2 * param + 1] = end;
+			return node.wildcard;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,279 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.level.Level;
+
+/**
+ * An immutable summary of the nukkit server state.
+ * 
+ * <p>The snapshot is captured on the main thread and published to the web handlers. Reading the snapshot is safe
+ * from any thread; the live game objects must not be touched by web handlers.</p>
+ * 
+ * @author mepeisen
+ */
+public final class ServerSnapshot {
+	
+	/** the snapshot version; incremented on every capture */
+	private final long version;
+	
+	/** the server tick the snapshot was captured */
+	private final int tick;
+	
+	/** the time the snapshot was captured (millis since epoch) */
+	private final long timestamp;
+	
+	private final boolean allowFlight;
+	
+	private final int difficulty;
+	
+	private final int gamemode;
+	
+	private final String language;
+	
+	private final String name;
+	
+	private final int defaultLevel;
+	
+	private final int maxPlayers;
+	
+	private final List<LevelInfo> levels;
+	
+	private final List<PlayerInfo> players;
+	
+	/**
+	 * Captures a new snapshot. Must be invoked on the main thread.
+	 * @param server
+	 * @param version
+	 * @param tick
+	 */
+	ServerSnapshot(Server server, long version, int tick) {
+		this.version = version;
+		this.tick = tick;
+		this.timestamp = System.currentTimeMillis();
+		this.allowFlight = server.getAllowFlight();
+		this.difficulty = server.getDifficulty();
+		this.gamemode = server.getGamemode();
+		this.language = server.getLanguage().getName();
+		this.name = server.getName();
+		this.defaultLevel = server.getDefaultLevel() == null ? -1 : server.getDefaultLevel().getId();
+		this.maxPlayers = server.getMaxPlayers();
+		
+		final List<LevelInfo> levelList = new ArrayList<>();
+		for (final Level level : server.getLevels().values()) {
+			levelList.add(new LevelInfo(level.getId(), level.getName(), level.getSeed(), level.getPlayers().size()));
+		}
+		this.levels = Collections.unmodifiableList(levelList);
+		
+		final List<PlayerInfo> playerList = new ArrayList<>();
+		for (final Player player : server.getOnlinePlayers().values()) {
+			final Level level = player.getLevel();
+			playerList.add(new PlayerInfo(player.getUniqueId(), player.getName(), level == null ? -1 : level.getId()));
+		}
+		this.players = Collections.unmodifiableList(playerList);
+	}
+
+	/**
+	 * @return the snapshot version; incremented on every capture
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return the server tick the snapshot was captured
+	 */
+	public int getTick() {
+		return this.tick;
+	}
+
+	/**
+	 * @return the time the snapshot was captured (millis since epoch)
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * @return the allowFlight
+	 */
+	public boolean getAllowFlight() {
+		return this.allowFlight;
+	}
+
+	/**
+	 * @return the difficulty
+	 */
+	public int getDifficulty() {
+		return this.difficulty;
+	}
+
+	/**
+	 * @return the gamemode
+	 */
+	public int getGamemode() {
+		return this.gamemode;
+	}
+
+	/**
+	 * @return the language name
+	 */
+	public String getLanguage() {
+		return this.language;
+	}
+
+	/**
+	 * @return the server name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the id of the default level or {@code -1} if there is no default level
+	 */
+	public int getDefaultLevel() {
+		return this.defaultLevel;
+	}
+
+	/**
+	 * @return the maxPlayers
+	 */
+	public int getMaxPlayers() {
+		return this.maxPlayers;
+	}
+
+	/**
+	 * @return the number of online players
+	 */
+	public int getOnlinePlayers() {
+		return this.players.size();
+	}
+
+	/**
+	 * @return the loaded levels (unmodifiable)
+	 */
+	public List<LevelInfo> getLevels() {
+		return this.levels;
+	}
+
+	/**
+	 * @return the online players (unmodifiable)
+	 */
+	public List<PlayerInfo> getPlayers() {
+		return this.players;
+	}
+	
+	/**
+	 * Summary of a level.
+	 */
+	public static final class LevelInfo {
+		
+		private final int id;
+		
+		private final String name;
+		
+		private final long seed;
+		
+		private final int players;
+		
+		LevelInfo(int id, String name, long seed, int players) {
+			this.id = id;
+			this.name = name;
+			this.seed = seed;
+			this.players = players;
+		}
+
+		/**
+		 * @return the id
+		 */
+		public int getId() {
+			return this.id;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the seed
+		 */
+		public long getSeed() {
+			return this.seed;
+		}
+
+		/**
+		 * @return the number of players within this level
+		 */
+		public int getPlayers() {
+			return this.players;
+		}
+		
+	}
+	
+	/**
+	 * Summary of an online player.
+	 */
+	public static final class PlayerInfo {
+		
+		private final UUID uuid;
+		
+		private final String name;
+		
+		private final int level;
+		
+		PlayerInfo(UUID uuid, String name, int level) {
+			this.uuid = uuid;
+			this.name = name;
+			this.level = level;
+		}
+
+		/**
+		 * @return the unique id
+		 */
+		public UUID getUniqueId() {
+			return this.uuid;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the id of the level the player is in or {@code -1}
+		 */
+		public int getLevel() {
+			return this.level;
+		}
+		
+	}
+
+}
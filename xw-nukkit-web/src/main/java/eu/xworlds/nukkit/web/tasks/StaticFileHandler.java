@@ -0,0 +1,409 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cn.nukkit.Server;
+import eu.xworlds.nukkit.web.WebserverPlugin;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * A webpage handler serving the files of a directory, f.e. dashboards shipped within the plugin data folder. Register
+ * it for a route ending with a wildcard; the path matched by the wildcard is resolved against the directory.
+ * 
+ * <p>Small files are cached in memory and compressed once; larger files are sent with zero copy and are never
+ * compressed. Supports Range requests, Last-Modified/If-Modified-Since and precompressed variants
+ * ({@code <name>.gz}) for clients accepting gzip.
+ * The handler is thread safe and should be kept as a singleton.</p>
+ * 
+ * @author mepeisen
+ */
+public final class StaticFileHandler implements StreamingWebpageHandler {
+	
+	/** default maximum size of files being cached */
+	public static final int DEFAULT_MAX_CACHED_FILE_SIZE = 65536;
+	
+	/** default cache capacity in bytes */
+	public static final long DEFAULT_CACHE_CAPACITY = 8 * 1024 * 1024;
+	
+	/** the response for unsupported methods */
+	private static final WebpageHandler METHOD_NOT_ALLOWED = new StaticResponse(HttpResponseStatus.METHOD_NOT_ALLOWED);
+	
+	/** content types by file extension */
+	private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+	
+	static {
+		CONTENT_TYPES.put("html", "text/html; charset=UTF-8");
+		CONTENT_TYPES.put("htm", "text/html; charset=UTF-8");
+		CONTENT_TYPES.put("css", "text/css; charset=UTF-8");
+		CONTENT_TYPES.put("js", "application/javascript; charset=UTF-8");
+		CONTENT_TYPES.put("json", "application/json; charset=UTF-8");
+		CONTENT_TYPES.put("map", "application/json; charset=UTF-8");
+		CONTENT_TYPES.put("txt", "text/plain; charset=UTF-8");
+		CONTENT_TYPES.put("xml", "application/xml; charset=UTF-8");
+		CONTENT_TYPES.put("svg", "image/svg+xml");
+		CONTENT_TYPES.put("png", "image/png");
+		CONTENT_TYPES.put("jpg", "image/jpeg");
+		CONTENT_TYPES.put("jpeg", "image/jpeg");
+		CONTENT_TYPES.put("gif", "image/gif");
+		CONTENT_TYPES.put("ico", "image/x-icon");
+		CONTENT_TYPES.put("webp", "image/webp");
+		CONTENT_TYPES.put("woff", "font/woff");
+		CONTENT_TYPES.put("woff2", "font/woff2");
+		CONTENT_TYPES.put("wasm", "application/wasm");
+		CONTENT_TYPES.put("zip", "application/zip");
+	}
+	
+	/** the root directory */
+	private final Path root;
+	
+	/** the maximum size of files being cached */
+	private final int maxCachedFileSize;
+	
+	/** the cache capacity in bytes */
+	private final long cacheCapacity;
+	
+	/** the cached files by path; guarded by itself */
+	private final LinkedHashMap<Path, CachedFile> cache = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/** the number of bytes cached; guarded by cache */
+	private long cachedBytes;
+	
+	/**
+	 * Constructor using the default cache settings.
+	 * @param directory the root directory
+	 */
+	public StaticFileHandler(File directory) {
+		this(directory, DEFAULT_MAX_CACHED_FILE_SIZE, DEFAULT_CACHE_CAPACITY);
+	}
+	
+	/**
+	 * Constructor
+	 * @param directory the root directory
+	 * @param maxCachedFileSize the maximum size of files being cached in memory; {@code 0} to disable caching
+	 * @param cacheCapacity the cache capacity in bytes
+	 */
+	public StaticFileHandler(File directory, int maxCachedFileSize, long cacheCapacity) {
+		this.root = directory.toPath().toAbsolutePath().normalize();
+		this.maxCachedFileSize = maxCachedFileSize;
+		this.cacheCapacity = cacheCapacity;
+	}
+
+	@Override
+	public StreamingResponse handleStreamingRequest(WebRequestContext ctx, Server server) {
+		final boolean head = HttpMethod.HEAD.equals(ctx.getMethod());
+		if (!head && !HttpMethod.GET.equals(ctx.getMethod())) {
+			final FullHttpResponse response = METHOD_NOT_ALLOWED.handleRequest(ctx, server);
+			response.headers().set(HttpHeaderNames.ALLOW, "GET, HEAD");
+			return new StreamingResponse(response);
+		}
+		
+		final String relative = ctx.getPathParameter(RouteTrie.WILDCARD);
+		if (relative == null || relative.isEmpty()) {
+			final String path = ctx.getQueryString().path();
+			if (!path.endsWith("/")) {
+				// relative links of the index page need the trailing slash
+				final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.MOVED_PERMANENTLY);
+				response.headers().set(HttpHeaderNames.LOCATION, path + "/");
+				return new StreamingResponse(response);
+			}
+		}
+		
+		try {
+			Path file = this.resolve(relative);
+			if (file != null && Files.isDirectory(file)) {
+				file = file.resolve("index.html");
+			}
+			final BasicFileAttributes attributes = file == null ? null : readAttributes(file);
+			if (attributes == null || !attributes.isRegularFile()) {
+				return new StreamingResponse(WebserverPlugin._404.handleRequest(ctx, server));
+			}
+			
+			// serve the precompressed variant if available
+			final Path gzFile = file.resolveSibling(file.getFileName() + ".gz");
+			final BasicFileAttributes gzAttributes = readAttributes(gzFile);
+			final boolean hasVariant = gzAttributes != null && gzAttributes.isRegularFile();
+			final boolean gzip = hasVariant && Compression.acceptsGzip(ctx.getRequestHeaders().get(HttpHeaderNames.ACCEPT_ENCODING));
+			final Path sent = gzip ? gzFile : file;
+			final BasicFileAttributes sentAttributes = gzip ? gzAttributes : attributes;
+			
+			final long lastModified = sentAttributes.lastModifiedTime().toMillis() / 1000 * 1000;
+			final String lastModifiedText = DateFormatter.format(new Date(lastModified));
+			final long length = sentAttributes.size();
+			
+			final String ifModifiedSince = ctx.getRequestHeaders().get(HttpHeaderNames.IF_MODIFIED_SINCE);
+			if (ifModifiedSince != null && !isModifiedSince(lastModified, ifModifiedSince)) {
+				final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+				applyHeaders(response, lastModifiedText, hasVariant);
+				return new StreamingResponse(response);
+			}
+			
+			long start = 0;
+			long end = length - 1;
+			HttpResponseStatus status = HttpResponseStatus.OK;
+			final String rangeHeader = ctx.getRequestHeaders().get(HttpHeaderNames.RANGE);
+			final String ifRange = ctx.getRequestHeaders().get(HttpHeaderNames.IF_RANGE);
+			if (rangeHeader != null && (ifRange == null || ifRange.equals(lastModifiedText))) {
+				final long[] range = parseRange(rangeHeader, length);
+				if (range == UNSATISFIABLE) {
+					final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+					response.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + length);
+					return new StreamingResponse(response);
+				}
+				if (range != null) {
+					start = range[0];
+					end = range[1];
+					status = HttpResponseStatus.PARTIAL_CONTENT;
+				}
+			}
+			
+			final String contentType = contentType(file.getFileName().toString());
+			final StreamingResponse result;
+			// HEAD requests are answered with a file response; the webserver skips the body but keeps the length
+			final CachedFile cached = !head && length <= this.maxCachedFileSize ? this.cached(sent, lastModified, length) : null;
+			if (cached != null && status == HttpResponseStatus.PARTIAL_CONTENT) {
+				final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, cached.body.content.slice((int) start, (int) (end - start + 1)));
+				response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+				result = new StreamingResponse(response);
+			}
+			else if (cached != null) {
+				// files without precompressed variant are compressed once
+				final HttpHeaders headers = StaticResponse.HEADERS.newHeaders().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+				final ByteBuf content = gzip ? cached.body.content.duplicate() : WebserverTask.compressionOf(ctx).select(cached.body, headers, ctx.getRequestHeaders().get(HttpHeaderNames.ACCEPT_ENCODING));
+				final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+				response.headers().set(headers);
+				result = new StreamingResponse(response);
+			}
+			else {
+				result = new StreamingResponse(status, contentType, sent.toFile(), start, end - start + 1);
+			}
+			applyHeaders(result.getHead(), lastModifiedText, hasVariant);
+			if (gzip) {
+				result.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+			}
+			if (status == HttpResponseStatus.PARTIAL_CONTENT) {
+				result.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+			}
+			return result;
+		}
+		catch (IOException ex) {
+			return new StreamingResponse(WebserverPlugin._404.handleRequest(ctx, server));
+		}
+	}
+	
+	/**
+	 * Invalidates the cached files, f.e. after the files were replaced.
+	 */
+	public void clearCache() {
+		synchronized (this.cache) {
+			this.cache.clear();
+			this.cachedBytes = 0;
+		}
+	}
+	
+	/**
+	 * Resolves the path below the root directory.
+	 * @param relative
+	 * @return the file or {@code null} if the path leaves the root directory or addresses hidden files
+	 */
+	private Path resolve(String relative) {
+		if (relative == null || relative.isEmpty()) {
+			return this.root;
+		}
+		if (relative.indexOf('\0') >= 0 || relative.indexOf('\\') >= 0) {
+			return null;
+		}
+		for (final String segment : relative.split("/")) {
+			if (segment.startsWith(".")) {
+				// includes ".." and hidden files
+				return null;
+			}
+		}
+		final Path result = this.root.resolve(relative).normalize();
+		return result.startsWith(this.root) ? result : null;
+	}
+	
+	/**
+	 * Returns the cached file content; reads the file into the cache if it is missing or outdated.
+	 * @param file
+	 * @param lastModified
+	 * @param length
+	 * @return cached file or {@code null} if the file cannot be cached
+	 * @throws IOException
+	 */
+	private CachedFile cached(Path file, long lastModified, long length) throws IOException {
+		synchronized (this.cache) {
+			final CachedFile cached = this.cache.get(file);
+			if (cached != null && cached.lastModified == lastModified && cached.body.content.readableBytes() == length) {
+				return cached;
+			}
+		}
+		final byte[] bytes = Files.readAllBytes(file);
+		if (bytes.length != length) {
+			// modified while reading
+			return null;
+		}
+		// a heap buffer; the cached files are shared with pending responses and never released
+		final CachedFile result = new CachedFile(lastModified, Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes).asReadOnly()));
+		synchronized (this.cache) {
+			final CachedFile old = this.cache.put(file, result);
+			if (old != null) {
+				this.cachedBytes -= old.body.content.readableBytes();
+			}
+			this.cachedBytes += bytes.length;
+			final Iterator<CachedFile> iter = this.cache.values().iterator();
+			while (this.cachedBytes > this.cacheCapacity && iter.hasNext()) {
+				// the heap buffers are shared with pending responses and are left to the garbage collector
+				this.cachedBytes -= iter.next().body.content.readableBytes();
+				iter.remove();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Sets the caching headers.
+	 * @param response
+	 * @param lastModified
+	 * @param hasVariant
+	 */
+	private static void applyHeaders(HttpResponse response, String lastModified, boolean hasVariant) {
+		response.headers().set(HttpHeaderNames.LAST_MODIFIED, lastModified);
+		response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+		if (hasVariant) {
+			response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+		}
+	}
+	
+	/**
+	 * @param file
+	 * @return file attributes or {@code null} if the file does not exist
+	 */
+	private static BasicFileAttributes readAttributes(Path file) {
+		try {
+			return Files.readAttributes(file, BasicFileAttributes.class);
+		}
+		catch (IOException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @param lastModified
+	 * @param ifModifiedSince
+	 * @return {@code true} if the file was modified since the given date
+	 */
+	private static boolean isModifiedSince(long lastModified, String ifModifiedSince) {
+		final Date date = DateFormatter.parseHttpDate(ifModifiedSince);
+		return date == null || lastModified > date.getTime();
+	}
+	
+	/** marker for ranges that cannot be satisfied */
+	private static final long[] UNSATISFIABLE = new long[0];
+	
+	/**
+	 * Parses a single byte range.
+	 * @param range
+	 * @param length
+	 * @return first and last byte position; {@code null} to send the whole file; {@link #UNSATISFIABLE}
+	 */
+	private static long[] parseRange(String range, long length) {
+		if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+			// multiple ranges are answered with the whole file
+			return null;
+		}
+		final String spec = range.substring(6).trim();
+		final int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			if (dash == 0) {
+				final long suffix = Long.parseLong(spec.substring(1));
+				if (suffix <= 0 || length == 0) {
+					return UNSATISFIABLE;
+				}
+				return new long[] { Math.max(0, length - suffix), length - 1 };
+			}
+			final long start = Long.parseLong(spec.substring(0, dash));
+			final long end = dash == spec.length() - 1 ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+			if (start >= length || end < start) {
+				return UNSATISFIABLE;
+			}
+			return new long[] { start, end };
+		}
+		catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @param fileName
+	 * @return content type by file extension
+	 */
+	private static String contentType(String fileName) {
+		final int dot = fileName.lastIndexOf('.');
+		final String type = dot < 0 ? null : CONTENT_TYPES.get(fileName.substring(dot + 1).toLowerCase());
+		return type == null ? "application/octet-stream" : type;
+	}
+	
+	/**
+	 * A file held in memory.
+	 */
+	private static final class CachedFile {
+		
+		/** the last modification time in millis */
+		final long lastModified;
+		
+		/** the shared read-only content */
+		final Compression.SharedBody body;
+		
+		/**
+		 * Constructor
+		 * @param lastModified
+		 * @param content
+		 */
+		CachedFile(long lastModified, ByteBuf content) {
+			this.lastModified = lastModified;
+			this.body = new Compression.SharedBody(content);
+		}
+		
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import cn.nukkit.Server;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeadersFactory;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+/**
+ * A webpage handler sending a constant response.
+ * 
+ * <p>The body is encoded once into a shared read-only direct buffer; every response only gets a duplicate of this
+ * buffer or of its compressed variant. The handler is thread safe and should be kept as a singleton.</p>
+ * 
+ * @author mepeisen
+ */
+public final class StaticResponse implements WebpageHandler {
+	
+	/** creates the headers of prebuilt responses; the values are known to be valid */
+	static final DefaultHttpHeadersFactory HEADERS = DefaultHttpHeadersFactory.headersFactory().withValidation(false);
+	
+	/** the http status */
+	private final HttpResponseStatus status;
+	
+	/** the content type or {@code null} */
+	private final String contentType;
+	
+	/** the shared body */
+	private final Compression.SharedBody body;
+	
+	/**
+	 * Constructor for responses without body.
+	 * @param status the http status
+	 */
+	public StaticResponse(HttpResponseStatus status) {
+		this(status, null, Unpooled.EMPTY_BUFFER);
+	}
+	
+	/**
+	 * Constructor for text responses.
+	 * @param status the http status
+	 * @param contentType the content type, f.e. {@code "text/plain; charset=UTF-8"}
+	 * @param body the body, encoded as UTF-8
+	 */
+	public StaticResponse(HttpResponseStatus status, String contentType, String body) {
+		this(status, contentType, body.getBytes(CharsetUtil.UTF_8));
+	}
+	
+	/**
+	 * Constructor for binary responses.
+	 * @param status the http status
+	 * @param contentType the content type
+	 * @param body the body
+	 */
+	public StaticResponse(HttpResponseStatus status, String contentType, byte[] body) {
+		this(status, contentType, Unpooled.directBuffer(body.length).writeBytes(body));
+	}
+	
+	/**
+	 * Constructor
+	 * @param status
+	 * @param contentType
+	 * @param body the body; the buffer is owned by this handler afterwards
+	 */
+	private StaticResponse(HttpResponseStatus status, String contentType, ByteBuf body) {
+		this.status = status;
+		this.contentType = contentType;
+		// the shared buffer is never released and must not be changed by anyone
+		this.body = new Compression.SharedBody(Unpooled.unreleasableBuffer(body.asReadOnly()));
+	}
+
+	@Override
+	public FullHttpResponse handleRequest(WebRequestContext ctx, Server server) {
+		if (this.contentType == null) {
+			return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, this.status, this.body.content.duplicate());
+		}
+		final HttpHeaders headers = HEADERS.newHeaders().set(HttpHeaderNames.CONTENT_TYPE, this.contentType);
+		// large bodies are compressed once
+		final ByteBuf content = WebserverTask.compressionOf(ctx).select(this.body, headers, ctx.getRequestHeaders().get(HttpHeaderNames.ACCEPT_ENCODING));
+		final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, this.status, content);
+		response.headers().set(headers);
+		return response;
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.File;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * A response whose body is streamed from a {@link ChunkedInput}, f.e. a {@link ChunkGenerator} or one of the netty
+ * inputs {@link io.netty.handler.stream.ChunkedStream} or {@link io.netty.handler.stream.ChunkedNioFile}.
+ * 
+ * <p>The body is sent with chunked transfer encoding unless a Content-Length header is set. The input is closed by
+ * the webserver after the last chunk was written or if the connection was closed before.</p>
+ * 
+ * <p>File responses are sent with zero copy (sendfile) if the connection is not encrypted; they are never compressed
+ * by the webserver.</p>
+ * 
+ * @author mepeisen
+ */
+public final class StreamingResponse {
+	
+	/** the response head */
+	private final HttpResponse head;
+	
+	/** the body; {@code null} for file responses and complete responses */
+	private final ChunkedInput<ByteBuf> body;
+	
+	/** the file; {@code null} if this is not a file response */
+	private final File file;
+	
+	/** the position of the first byte within the file */
+	private final long position;
+	
+	/** the number of bytes to be sent from the file */
+	private final long count;
+	
+	/** the complete response; {@code null} if the body is streamed */
+	private final FullHttpResponse fullResponse;
+	
+	/**
+	 * Constructor
+	 * @param status the response status
+	 * @param contentType the content type
+	 * @param body the body
+	 */
+	public StreamingResponse(HttpResponseStatus status, String contentType, ChunkedInput<ByteBuf> body) {
+		this.head = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+		this.head.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+		this.body = body;
+		this.file = null;
+		this.position = 0;
+		this.count = 0;
+		this.fullResponse = null;
+	}
+	
+	/**
+	 * Constructor for file responses; the Content-Length is set by the webserver.
+	 * @param status the response status
+	 * @param contentType the content type
+	 * @param file the file
+	 * @param position the position of the first byte within the file
+	 * @param count the number of bytes to be sent
+	 */
+	public StreamingResponse(HttpResponseStatus status, String contentType, File file, long position, long count) {
+		this.head = new FileHead(status);
+		this.head.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+		this.body = null;
+		this.file = file;
+		this.position = position;
+		this.count = count;
+		this.fullResponse = null;
+	}
+	
+	/**
+	 * Constructor for responses that are already complete, f.e. error pages or small bodies taken from a cache.
+	 * @param response the complete response
+	 */
+	public StreamingResponse(FullHttpResponse response) {
+		this.head = response;
+		this.body = null;
+		this.file = null;
+		this.position = 0;
+		this.count = 0;
+		this.fullResponse = response;
+	}
+
+	/**
+	 * Returns the response head; handlers may add headers before returning the response.
+	 * @return the response head
+	 */
+	public HttpResponse getHead() {
+		return this.head;
+	}
+	
+	/**
+	 * @return the response headers
+	 */
+	public HttpHeaders headers() {
+		return this.head.headers();
+	}
+
+	/**
+	 * @return the body; {@code null} for file responses and complete responses
+	 */
+	public ChunkedInput<ByteBuf> getBody() {
+		return this.body;
+	}
+
+	/**
+	 * @return the file; {@code null} if this is not a file response
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * @return the position of the first byte within the file
+	 */
+	public long getPosition() {
+		return this.position;
+	}
+
+	/**
+	 * @return the number of bytes to be sent from the file
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return the complete response; {@code null} if the body is streamed
+	 */
+	public FullHttpResponse getFullResponse() {
+		return this.fullResponse;
+	}
+	
+	/**
+	 * The head of file responses; the compressor passes file responses unchanged.
+	 */
+	static final class FileHead extends DefaultHttpResponse {
+		
+		/**
+		 * Constructor
+		 * @param status
+		 */
+		FileHead(HttpResponseStatus status) {
+			super(HttpVersion.HTTP_1_1, status);
+		}
+		
+	}
+
+}
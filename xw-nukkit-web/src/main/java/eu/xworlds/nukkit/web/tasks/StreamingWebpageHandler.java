@@ -0,0 +1,46 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import cn.nukkit.Server;
+
+/**
+ * Interface to be implemented by plugins sending large payloads, f.e. player lists, log tails or exports.
+ * 
+ * <p>The body is pulled chunk by chunk while the connection is writable; the payload is never materialized in
+ * memory as a whole.</p>
+ * 
+ * @author mepeisen
+ */
+public interface StreamingWebpageHandler extends WebRequestHandler {
+
+	/**
+	 * Handles an incoming web request by returning a streaming response. Transfer-Encoding and keep alive handling
+	 * is managed by the webserver implementation.
+	 * 
+	 * @param ctx
+	 *            web request context; the request content is released as soon as this method returns
+	 * @param server
+	 *            the nukkit server instance
+	 * @return the streaming response; {@code null} shows up an internal error.
+	 * @throws RuntimeException
+	 *             can be thrown to show up an internal error.
+	 */
+	StreamingResponse handleStreamingRequest(WebRequestContext ctx, Server server);
+
+}
@@ -0,0 +1,270 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+/**
+ * The tls termination of the web server.
+ * 
+ * <p>The ssl context is built from a pem certificate chain and a pem private key. Every new connection reads the
+ * current context, so a reloaded certificate is used by the next connection while open connections keep their
+ * context; the server channels are never rebound. The session cache and the session tickets (openssl) let polling
+ * clients resume their sessions instead of performing a full handshake.</p>
+ * 
+ * @author mepeisen
+ */
+final class TlsTermination {
+	
+	/** the pem certificate chain */
+	private final File certFile;
+	
+	/** the pem private key (pkcs#8) */
+	private final File keyFile;
+	
+	/** the password of the private key; {@code null} if the key is not encrypted */
+	private final String keyPassword;
+	
+	/** the enabled protocols; empty for the provider defaults */
+	private final List<String> protocols;
+	
+	/** the enabled cipher suites; empty for the provider defaults */
+	private final List<String> ciphers;
+	
+	/** the tls implementation */
+	private final SslProvider provider;
+	
+	/** the maximum number of cached sessions */
+	private final long sessionCacheSize;
+	
+	/** the lifetime of cached sessions and tickets (seconds) */
+	private final long sessionTimeout;
+	
+	/** the session ticket keys (openssl); shared by every reloaded context, so issued tickets stay valid */
+	private final OpenSslSessionTicketKey[] ticketKeys;
+	
+	/** true to negotiate http/2 (alpn) */
+	private final boolean http2;
+	
+	/** the metrics counting the handshakes */
+	private final WebMetrics metrics;
+	
+	/** the current context; {@code null} before the first load */
+	private volatile SslContext context;
+	
+	/** the leaf certificate of the current context */
+	private volatile X509Certificate certificate;
+	
+	/** the stamp of the files the last load tried; guarded by this */
+	private String loadedStamp;
+	
+	/** the stamp of the files seen by the last check; guarded by this */
+	private String checkedStamp;
+	
+	/**
+	 * Constructor
+	 * @param certFile the pem certificate chain
+	 * @param keyFile the pem private key (pkcs#8)
+	 * @param keyPassword the password of the private key; {@code null} if the key is not encrypted
+	 * @param protocols the enabled protocols; empty for the provider defaults
+	 * @param ciphers the enabled cipher suites; empty for the provider defaults
+	 * @param provider the tls implementation; {@code null} to prefer openssl if available
+	 * @param sessionCacheSize the maximum number of cached sessions
+	 * @param sessionTimeout the lifetime of cached sessions and tickets (seconds)
+	 * @param sessionTickets true to issue session tickets
+	 * @param http2 true to negotiate http/2 (alpn)
+	 * @param metrics the metrics counting the handshakes
+	 */
+	TlsTermination(File certFile, File keyFile, String keyPassword, List<String> protocols, List<String> ciphers, SslProvider provider,
+			long sessionCacheSize, long sessionTimeout, boolean sessionTickets, boolean http2, WebMetrics metrics) {
+		this.certFile = certFile;
+		this.keyFile = keyFile;
+		this.keyPassword = keyPassword == null || keyPassword.isEmpty() ? null : keyPassword;
+		this.protocols = protocols;
+		this.ciphers = ciphers;
+		this.provider = provider != null ? provider : (OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK);
+		this.sessionCacheSize = sessionCacheSize;
+		this.sessionTimeout = sessionTimeout;
+		this.ticketKeys = sessionTickets && this.provider != SslProvider.JDK ? new OpenSslSessionTicketKey[] { newTicketKey() } : null;
+		this.http2 = http2;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Creates a random session ticket key.
+	 * @return ticket key
+	 */
+	private static OpenSslSessionTicketKey newTicketKey() {
+		final SecureRandom random = new SecureRandom();
+		final byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+		final byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+		final byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+		random.nextBytes(name);
+		random.nextBytes(hmacKey);
+		random.nextBytes(aesKey);
+		return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+	}
+	
+	/**
+	 * @return the tls implementation
+	 */
+	SslProvider getProvider() {
+		return this.provider;
+	}
+	
+	/**
+	 * @return the current context; {@code null} before the first load
+	 */
+	SslContext getContext() {
+		return this.context;
+	}
+	
+	/**
+	 * @return the leaf certificate of the current context; {@code null} before the first load
+	 */
+	X509Certificate getCertificate() {
+		return this.certificate;
+	}
+	
+	/**
+	 * Loads the certificate and the key and replaces the current context. The current context is kept if loading fails.
+	 * @throws IOException if the files cannot be read or the context cannot be created
+	 * @throws GeneralSecurityException if the certificate is invalid
+	 */
+	synchronized void reload() throws IOException, GeneralSecurityException {
+		this.loadedStamp = this.checkedStamp = this.stamp();
+		final X509Certificate leaf;
+		try (final InputStream is = new FileInputStream(this.certFile)) {
+			leaf = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+		}
+		final SslContextBuilder builder;
+		try {
+			builder = SslContextBuilder.forServer(this.certFile, this.keyFile, this.keyPassword);
+		}
+		catch (IllegalArgumentException ex) {
+			throw new SSLException(ex.getMessage(), ex);
+		}
+		builder.sslProvider(this.provider);
+		builder.sessionCacheSize(this.sessionCacheSize);
+		builder.sessionTimeout(this.sessionTimeout);
+		if (!this.protocols.isEmpty()) {
+			builder.protocols(this.protocols);
+		}
+		if (!this.ciphers.isEmpty()) {
+			builder.ciphers(this.ciphers, SupportedCipherSuiteFilter.INSTANCE);
+		}
+		if (this.http2 && SslProvider.isAlpnSupported(this.provider)) {
+			builder.applicationProtocolConfig(Http2Support.ALPN);
+		}
+		final SslContext result = builder.build();
+		if (result.cipherSuites().isEmpty()) {
+			throw new SSLException("None of the configured cipher suites is supported");
+		}
+		if (this.ticketKeys != null && result.sessionContext() instanceof OpenSslSessionContext) {
+			((OpenSslSessionContext) result.sessionContext()).setTicketKeys(this.ticketKeys);
+		}
+		// the protocols are validated as soon as an engine is created
+		final SSLEngine probe;
+		try {
+			probe = result.newEngine(ByteBufAllocator.DEFAULT);
+		}
+		catch (IllegalArgumentException ex) {
+			throw new SSLException(ex.getMessage(), ex);
+		}
+		ReferenceCountUtil.release(probe);
+		this.certificate = leaf;
+		this.context = result;
+	}
+	
+	/**
+	 * Reloads the context if the certificate or the key changed. Files still being written are not loaded: a change
+	 * is loaded by the first check seeing the same files as the check before.
+	 * @return true if the context was reloaded
+	 * @throws IOException if the files cannot be read or the context cannot be created
+	 * @throws GeneralSecurityException if the certificate is invalid
+	 */
+	synchronized boolean reloadIfModified() throws IOException, GeneralSecurityException {
+		final String stamp = this.stamp();
+		if (stamp.equals(this.loadedStamp)) {
+			return false;
+		}
+		if (!stamp.equals(this.checkedStamp)) {
+			this.checkedStamp = stamp;
+			return false;
+		}
+		this.reload();
+		return true;
+	}
+	
+	/**
+	 * @return the modification stamp of the certificate and the key
+	 */
+	private String stamp() {
+		return this.certFile.lastModified() + ":" + this.certFile.length() + ":" + this.keyFile.lastModified() + ":" + this.keyFile.length();
+	}
+	
+	/**
+	 * Creates the tls handler of a new connection; counts the handshake as soon as it finished.
+	 * @param ctx the context read by the caller
+	 * @param channel the new connection
+	 * @return tls handler
+	 */
+	SslHandler newHandler(SslContext ctx, Channel channel) {
+		final SslHandler handler = ctx.newHandler(channel.alloc());
+		final long start = System.currentTimeMillis();
+		handler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+			@Override
+			public void operationComplete(Future<Channel> future) throws Exception {
+				if (future.isSuccess()) {
+					// a resumed session was created by an earlier handshake
+					metrics.handshake(handler.engine().getSession().getCreationTime() < start);
+				}
+				else {
+					metrics.handshakeFailed();
+				}
+			}
+		});
+		return handler;
+	}
+
+}
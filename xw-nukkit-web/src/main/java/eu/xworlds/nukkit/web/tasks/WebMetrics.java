@@ -0,0 +1,426 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The web server metrics: request counts by route and status, latency histograms of the request phases, traffic and
+ * connections.
+ * 
+ * <p>The request phases are: decode (first byte until the request was received completely), handler (handler
+ * invocation until the response is available, including the queue time of the handler stage) and write (response
+ * passed to the channel until it was written to the socket, including the compression).</p>
+ * 
+ * <p>All metrics are lock free and may be recorded by any thread.</p>
+ * 
+ * @author mepeisen
+ */
+public final class WebMetrics {
+	
+	/** the route name of requests not matching any route */
+	public static final String NO_ROUTE = "none";
+	
+	/** the prometheus content type */
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+	
+	/** the bucket bounds exported to prometheus (seconds) */
+	private static final String[] PROMETHEUS_BUCKETS = {
+			"0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10" };
+	
+	/** the metrics by route pattern */
+	private final ConcurrentMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+	
+	/** bytes received */
+	private final AtomicLong bytesIn = new AtomicLong();
+	
+	/** bytes sent */
+	private final AtomicLong bytesOut = new AtomicLong();
+	
+	/** open connections */
+	private final AtomicInteger connections = new AtomicInteger();
+	
+	/** rejected connections and requests by reason */
+	private final AtomicLongArray rejections = new AtomicLongArray(Rejection.values().length);
+	
+	/** completed tls handshakes */
+	private final AtomicLong handshakes = new AtomicLong();
+	
+	/** completed tls handshakes resuming a session */
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+	
+	/** failed tls handshakes */
+	private final AtomicLong failedHandshakes = new AtomicLong();
+	
+	/**
+	 * Returns the metrics of a route.
+	 * @param pattern the route pattern; {@code null} for requests not matching any route
+	 * @return route metrics; created on first access
+	 */
+	RouteMetrics route(String pattern) {
+		final String name = pattern == null ? NO_ROUTE : pattern;
+		RouteMetrics result = this.routes.get(name);
+		if (result == null) {
+			final RouteMetrics metrics = new RouteMetrics();
+			result = this.routes.putIfAbsent(name, metrics);
+			if (result == null) {
+				result = metrics;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the metrics by route pattern, sorted by pattern
+	 */
+	public Map<String, RouteMetrics> getRoutes() {
+		return Collections.unmodifiableMap(new TreeMap<>(this.routes));
+	}
+	
+	/**
+	 * @return number of bytes received
+	 */
+	public long getBytesIn() {
+		return this.bytesIn.get();
+	}
+	
+	/**
+	 * @return number of bytes sent
+	 */
+	public long getBytesOut() {
+		return this.bytesOut.get();
+	}
+	
+	/**
+	 * @return number of open connections
+	 */
+	public int getConnections() {
+		return this.connections.get();
+	}
+	
+	/**
+	 * Returns the number of rejected connections or requests.
+	 * @param reason the rejection reason
+	 * @return number of rejections
+	 */
+	public long getRejected(Rejection reason) {
+		return this.rejections.get(reason.ordinal());
+	}
+	
+	/**
+	 * Counts a rejected connection or request.
+	 * @param reason
+	 */
+	void rejected(Rejection reason) {
+		this.rejections.incrementAndGet(reason.ordinal());
+	}
+	
+	/**
+	 * @return number of completed tls handshakes (full and resumed)
+	 */
+	public long getHandshakes() {
+		return this.handshakes.get();
+	}
+	
+	/**
+	 * @return number of completed tls handshakes resuming a session
+	 */
+	public long getResumedHandshakes() {
+		return this.resumedHandshakes.get();
+	}
+	
+	/**
+	 * @return number of failed tls handshakes
+	 */
+	public long getFailedHandshakes() {
+		return this.failedHandshakes.get();
+	}
+	
+	/**
+	 * A tls handshake completed.
+	 * @param resumed true if the handshake resumed a session
+	 */
+	void handshake(boolean resumed) {
+		// counted before the resumed handshakes; readers never see more resumed than completed handshakes
+		this.handshakes.incrementAndGet();
+		if (resumed) {
+			this.resumedHandshakes.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * A tls handshake failed.
+	 */
+	void handshakeFailed() {
+		this.failedHandshakes.incrementAndGet();
+	}
+	
+	/**
+	 * @param bytes
+	 */
+	void received(long bytes) {
+		this.bytesIn.addAndGet(bytes);
+	}
+	
+	/**
+	 * @param bytes
+	 */
+	void sent(long bytes) {
+		this.bytesOut.addAndGet(bytes);
+	}
+	
+	/**
+	 * A connection was opened.
+	 */
+	void opened() {
+		this.connections.incrementAndGet();
+	}
+	
+	/**
+	 * A connection was closed.
+	 */
+	void closed() {
+		this.connections.decrementAndGet();
+	}
+	
+	/**
+	 * Writes the metrics in the prometheus text format.
+	 * @param out the target
+	 * @param pendingTasks the number of pending tasks by event loop
+	 */
+	public void writePrometheus(StringBuilder out, int[] pendingTasks) {
+		final Map<String, RouteMetrics> sorted = this.getRoutes();
+		
+		out.append("# HELP xw_web_requests_total Requests answered by route and status.\n");
+		out.append("# TYPE xw_web_requests_total counter\n");
+		for (final Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+			for (final Map.Entry<Integer, AtomicLong> status : new TreeMap<>(route.getValue().statuses).entrySet()) {
+				out.append("xw_web_requests_total{route=\"");
+				escape(out, route.getKey());
+				out.append("\",status=\"").append(status.getKey()).append("\"} ").append(status.getValue().get()).append('\n');
+			}
+		}
+		
+		out.append("# HELP xw_web_request_phase_seconds Latency of the request phases (decode, handler, write).\n");
+		out.append("# TYPE xw_web_request_phase_seconds histogram\n");
+		for (final Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+			writeHistogram(out, route.getKey(), "decode", route.getValue().decode);
+			writeHistogram(out, route.getKey(), "handler", route.getValue().handler);
+			writeHistogram(out, route.getKey(), "write", route.getValue().write);
+		}
+		
+		out.append("# HELP xw_web_received_bytes_total Bytes received.\n");
+		out.append("# TYPE xw_web_received_bytes_total counter\n");
+		out.append("xw_web_received_bytes_total ").append(this.getBytesIn()).append('\n');
+		out.append("# HELP xw_web_sent_bytes_total Bytes sent.\n");
+		out.append("# TYPE xw_web_sent_bytes_total counter\n");
+		out.append("xw_web_sent_bytes_total ").append(this.getBytesOut()).append('\n');
+		out.append("# HELP xw_web_open_connections Open client connections.\n");
+		out.append("# TYPE xw_web_open_connections gauge\n");
+		out.append("xw_web_open_connections ").append(this.getConnections()).append('\n');
+		out.append("# HELP xw_web_rejected_total Connections and requests rejected by the connection limits.\n");
+		out.append("# TYPE xw_web_rejected_total counter\n");
+		for (final Rejection reason : Rejection.values()) {
+			out.append("xw_web_rejected_total{reason=\"").append(reason.getLabel()).append("\"} ").append(this.getRejected(reason)).append('\n');
+		}
+		out.append("# HELP xw_web_tls_handshakes_total Tls handshakes by result (full, resumed, failed).\n");
+		out.append("# TYPE xw_web_tls_handshakes_total counter\n");
+		final long resumed = this.getResumedHandshakes();
+		out.append("xw_web_tls_handshakes_total{result=\"full\"} ").append(this.getHandshakes() - resumed).append('\n');
+		out.append("xw_web_tls_handshakes_total{result=\"resumed\"} ").append(resumed).append('\n');
+		out.append("xw_web_tls_handshakes_total{result=\"failed\"} ").append(this.getFailedHandshakes()).append('\n');
+		out.append("# HELP xw_web_event_loop_pending_tasks Tasks waiting for an event loop.\n");
+		out.append("# TYPE xw_web_event_loop_pending_tasks gauge\n");
+		for (int i = 0; i < pendingTasks.length; i++) {
+			out.append("xw_web_event_loop_pending_tasks{loop=\"").append(i).append("\"} ").append(pendingTasks[i]).append('\n');
+		}
+	}
+	
+	/**
+	 * Writes a histogram in the prometheus text format.
+	 * @param out
+	 * @param route
+	 * @param phase
+	 * @param histogram
+	 */
+	private static void writeHistogram(StringBuilder out, String route, String phase, LatencyHistogram histogram) {
+		final long count = histogram.getCount();
+		if (count == 0) {
+			return;
+		}
+		for (final String bound : PROMETHEUS_BUCKETS) {
+			writeLabels(out, "xw_web_request_phase_seconds_bucket", route, phase);
+			out.append(",le=\"").append(bound).append("\"} ").append(histogram.getCountBelow((long) (Double.parseDouble(bound) * 1e9))).append('\n');
+		}
+		writeLabels(out, "xw_web_request_phase_seconds_bucket", route, phase);
+		out.append(",le=\"+Inf\"} ").append(count).append('\n');
+		writeLabels(out, "xw_web_request_phase_seconds_sum", route, phase);
+		out.append("} ").append(histogram.getSum() / 1e9).append('\n');
+		writeLabels(out, "xw_web_request_phase_seconds_count", route, phase);
+		out.append("} ").append(count).append('\n');
+	}
+	
+	/**
+	 * Writes the metric name and the route and phase labels; the label set is left open.
+	 * @param out
+	 * @param name
+	 * @param route
+	 * @param phase
+	 */
+	private static void writeLabels(StringBuilder out, String name, String route, String phase) {
+		out.append(name).append("{route=\"");
+		escape(out, route);
+		out.append("\",phase=\"").append(phase).append('"');
+	}
+	
+	/**
+	 * Escapes a label value.
+	 * @param out
+	 * @param value
+	 */
+	private static void escape(StringBuilder out, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+				case '\\':
+					out.append("\\\\");
+					break;
+				case '"':
+					out.append("\\\"");
+					break;
+				case '\n':
+					out.append("\\n");
+					break;
+				default:
+					out.append(c);
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * The reasons to reject a connection or request.
+	 */
+	public enum Rejection {
+		/** the global connection cap was reached */
+		CONNECTIONS("connections"),
+		/** the connection cap of the client address was reached */
+		CONNECTIONS_PER_ADDRESS("connections_per_ip"),
+		/** the client exceeded its request rate */
+		RATE_LIMIT("rate_limit"),
+		/** the client did not send a request within the read timeout */
+		READ_TIMEOUT("read_timeout"),
+		/** the client did not read the response within the write timeout */
+		WRITE_TIMEOUT("write_timeout"),
+		/** the response bytes waiting for the client exceeded the limit */
+		WRITE_BUFFER("write_buffer");
+		
+		/** the prometheus label */
+		private final String label;
+		
+		/**
+		 * Constructor
+		 * @param label
+		 */
+		private Rejection(String label) {
+			this.label = label;
+		}
+		
+		/**
+		 * @return the prometheus label
+		 */
+		public String getLabel() {
+			return this.label;
+		}
+	}
+	
+	/**
+	 * The metrics of a single route.
+	 */
+	public static final class RouteMetrics {
+		
+		/** the decode phase */
+		final LatencyHistogram decode = new LatencyHistogram();
+		
+		/** the handler phase */
+		final LatencyHistogram handler = new LatencyHistogram();
+		
+		/** the write phase */
+		final LatencyHistogram write = new LatencyHistogram();
+		
+		/** the request counts by status */
+		final ConcurrentMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+		
+		/**
+		 * Counts an answered request.
+		 * @param status
+		 */
+		void answered(int status) {
+			AtomicLong counter = this.statuses.get(status);
+			if (counter == null) {
+				final AtomicLong newCounter = new AtomicLong();
+				counter = this.statuses.putIfAbsent(status, newCounter);
+				if (counter == null) {
+					counter = newCounter;
+				}
+			}
+			counter.incrementAndGet();
+		}
+		
+		/**
+		 * @return number of answered requests
+		 */
+		public long getRequests() {
+			long result = 0;
+			for (final AtomicLong counter : this.statuses.values()) {
+				result += counter.get();
+			}
+			return result;
+		}
+		
+		/**
+		 * @return the decode phase latencies
+		 */
+		public LatencyHistogram getDecode() {
+			return this.decode;
+		}
+		
+		/**
+		 * @return the handler phase latencies
+		 */
+		public LatencyHistogram getHandler() {
+			return this.handler;
+		}
+		
+		/**
+		 * @return the write phase latencies
+		 */
+		public LatencyHistogram getWrite() {
+			return this.write;
+		}
+		
+	}
+
+}
@@ -17,7 +17,14 @@
  */
 package eu.xworlds.nukkit.web.tasks;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpVersion;
@@ -66,11 +73,72 @@ public interface WebRequestContext {
 	 */
 	QueryStringDecoder getQueryString();
 	
+	/**
+	 * Returns a path parameter of the matching route, f.e. the value of {@code {name}} within route
+	 * {@code /myplugin/player/{name}}. Use {@code "**"} to get the path matched by the wildcard.
+	 * @param name the parameter name
+	 * @return decoded parameter value or {@code null} if the route does not declare the parameter
+	 */
+	String getPathParameter(String name);
+	
 	/**
 	 * returns the request content (maybe form content).
 	 * To decode as string use f.e. {@code toString(CharsetUtil.UTF_8)}.
+	 * The content is empty if the body was spilled to disk or is streamed.
 	 * @return request content as byte buffer.
 	 */
 	ByteBuf getRequestContent();
+	
+	/**
+	 * Returns the number of body bytes received.
+	 * @return request content length
+	 */
+	long getRequestContentLength();
+	
+	/**
+	 * Returns the file holding the request body if the body was spilled to disk (see
+	 * {@link RequestBodyPolicy#spillToDisk(long)}). The file is deleted after the handler finished; handlers may move
+	 * the file to keep it.
+	 * @return body file or {@code null} if the body is held in memory
+	 */
+	Path getRequestBodyFile();
+	
+	/**
+	 * Opens the request body, regardless whether it is held in memory or was spilled to disk.
+	 * @return input stream; the caller must close the stream
+	 * @throws IOException thrown if the spilled body cannot be read
+	 */
+	InputStream openRequestBody() throws IOException;
+	
+	/**
+	 * Sets the listener receiving the request body of routes registered with {@link RequestBodyPolicy#stream(long)}.
+	 * Chunks not received by any listener are discarded as soon as the response was written.
+	 * @param listener the body listener
+	 * @throws IllegalStateException thrown if the route does not stream the body or a listener was already set
+	 */
+	void setRequestBodyListener(RequestBodyListener listener);
+	
+	/**
+	 * Returns the allocator of the http channel; response buffers should be allocated by this allocator.
+	 * @return byte buffer allocator
+	 * @see JsonResponse
+	 */
+	ByteBufAllocator getAllocator();
+	
+	/**
+	 * Returns the latest snapshot of the server state. Handlers run outside the main thread and should read the
+	 * snapshot instead of the live server, level and player objects.
+	 * @return server snapshot
+	 */
+	ServerSnapshot getServerSnapshot();
+	
+	/**
+	 * Submits work that needs the live nukkit objects (f.e. teleporting a player) to the main thread. Use it together
+	 * with {@link AsyncWebpageHandler} so that no thread is blocked while waiting for the main thread.
+	 * @param callable the work to be executed on the main thread
+	 * @return future receiving the result of the callable; completed on the event loop of the connection, so dependent
+	 *         stages never run on the main thread
+	 */
+	<T> CompletableFuture<T> callOnMainThread(Callable<T> callable);
 
 }
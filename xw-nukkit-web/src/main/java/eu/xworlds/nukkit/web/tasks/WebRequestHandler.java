@@ -0,0 +1,32 @@
+/*
+    This file is part of "nukkit xWorlds plugin".
+
+    "nukkit xWorlds plugin" is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    "nukkit xWorlds plugin" is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with "nukkit xWorlds plugin". If not, see <http://www.gnu.org/licenses/>.
+
+ */
+package eu.xworlds.nukkit.web.tasks;
+
+/**
+ * Common type of the handlers serving a route.
+ * 
+ * <p>Implement one of the sub interfaces: {@link WebpageHandler} creates full responses,
+ * {@link StreamingWebpageHandler} streams large payloads and {@link EventStreamWebpageHandler} selects an event
+ * stream. Handlers registered as routes are shared singletons invoked by concurrent requests and must be thread
+ * safe.</p>
+ * 
+ * @author mepeisen
+ */
+public interface WebRequestHandler {
+
+}
@@ -25,9 +25,12 @@ import io.netty.handler.codec.http.FullHttpResponse;
  * 
  * Provides a web page handler to handle http requests.
  * 
+ * Handlers registered as routes are shared singletons invoked by concurrent requests and must be thread safe.
+ * Handlers created by a {@link WebpageHandlerFactory} serve a single request.
+ * 
  * @author mepeisen
  */
-public interface WebpageHandler {
+public interface WebpageHandler extends WebRequestHandler {
 
 	/**
 	 * Handles an incoming web request. Content-Length and keep alive handling
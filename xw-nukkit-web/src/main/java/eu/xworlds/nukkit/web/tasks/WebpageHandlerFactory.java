@@ -22,6 +22,9 @@ import cn.nukkit.Server;
 /**
  * A factory to create webpage request handlers on demand.
  * 
+ * Creating handlers per request is optional; prefer registering thread safe handlers as routes, see
+ * {@link eu.xworlds.nukkit.web.WebserverPlugin#registerRoute(cn.nukkit.plugin.Plugin, String, WebRequestHandler, long)}.
+ * 
  * @author mepeisen
  */
 public interface WebpageHandlerFactory {
@@ -33,6 +36,17 @@ public interface WebpageHandlerFactory {
 	 * @param paths the file path, splitted by slash
 	 * @return the web handler or {@code null} to send a HTTP 404 (not found)
 	 */
-	WebpageHandler requestHandler(WebRequestContext context, Server server, String[] paths);
+	WebRequestHandler requestHandler(WebRequestContext context, Server server, String[] paths);
+	
+	/**
+	 * Returns the time successful responses of GET requests may be cached by the web server. Cached responses are
+	 * served without invoking the factory or the handler; they carry an ETag and support conditional requests.
+	 * Requests with a query string are never cached.
+	 * @param paths the file path, splitted by slash
+	 * @return time to live in milliseconds; {@code 0} to disable caching (default)
+	 */
+	default long getCacheTtl(String[] paths) {
+		return 0;
+	}
 
 }
@@ -17,10 +17,45 @@
  */
 package eu.xworlds.nukkit.web.tasks;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 import cn.nukkit.scheduler.PluginTask;
 import cn.nukkit.utils.Config;
@@ -28,36 +63,76 @@ import cn.nukkit.utils.TextFormat;
 import eu.xworlds.nukkit.web.WebserverPlugin;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
 import io.netty.handler.codec.http.HttpContent;
-import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
-import io.netty.handler.codec.http.HttpHeaders.Names;
 import io.netty.handler.codec.http.HttpMethod;
-import io.netty.handler.codec.http.HttpObject;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
+import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
 
 /**
  * A task to manage the built in web server.
@@ -69,14 +144,198 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 	public static final String CONFIG_KEY_ENABLED = "webserver-enabled";
 	public static final String CONFIG_KEY_PORT = "webserver-port";
 	public static final String CONFIG_KEY_MAINTENANCE = "webserver-maintenance";
+	public static final String CONFIG_KEY_HANDLER_MODE = "webserver-handler-mode";
+	public static final String CONFIG_KEY_HANDLER_THREADS = "webserver-handler-threads";
+	public static final String CONFIG_KEY_HANDLER_QUEUE = "webserver-handler-queue";
+	public static final String CONFIG_KEY_RETRY_AFTER = "webserver-retry-after";
+	public static final String CONFIG_KEY_KEEPALIVE_MAX_REQUESTS = "webserver-keepalive-max-requests";
+	public static final String CONFIG_KEY_PIPELINE_LIMIT = "webserver-pipeline-limit";
+	public static final String CONFIG_KEY_TRANSPORT = "webserver-transport";
+	public static final String CONFIG_KEY_BOSS_THREADS = "webserver-boss-threads";
+	public static final String CONFIG_KEY_WORKER_THREADS = "webserver-worker-threads";
+	public static final String CONFIG_KEY_THREAD_NAME = "webserver-thread-name";
+	public static final String CONFIG_KEY_THREAD_PRIORITY = "webserver-thread-priority";
+	public static final String CONFIG_KEY_ACCEPTORS = "webserver-acceptors";
+	public static final String CONFIG_KEY_DRAIN_TIMEOUT = "webserver-drain-timeout";
+	public static final String CONFIG_KEY_SNAPSHOT_INTERVAL = "webserver-snapshot-interval";
+	public static final String CONFIG_KEY_MAIN_THREAD_BUDGET = "webserver-main-thread-budget";
+	public static final String CONFIG_KEY_MAIN_THREAD_QUEUE = "webserver-main-thread-queue";
+	public static final String CONFIG_KEY_POOLED_BUFFERS = "webserver-pooled-buffers";
+	public static final String CONFIG_KEY_CACHE_SIZE = "webserver-cache-size";
+	public static final String CONFIG_KEY_MAX_BODY_SIZE = "webserver-max-body-size";
+	public static final String CONFIG_KEY_COMPRESSION_LEVEL = "webserver-compression-level";
+	public static final String CONFIG_KEY_COMPRESSION_MIN_SIZE = "webserver-compression-min-size";
+	public static final String CONFIG_KEY_COMPRESSION_TYPES = "webserver-compression-types";
+	public static final String CONFIG_KEY_LIVE_SNAPSHOT_INTERVAL = "webserver-live-snapshot-interval";
+	public static final String CONFIG_KEY_LIVE_MAX_LAG = "webserver-live-max-lag";
+	public static final String CONFIG_KEY_SSE_REPLAY_SIZE = "webserver-sse-replay-size";
+	public static final String CONFIG_KEY_SSE_HEARTBEAT = "webserver-sse-heartbeat";
+	public static final String CONFIG_KEY_MAX_CONNECTIONS = "webserver-max-connections";
+	public static final String CONFIG_KEY_MAX_CONNECTIONS_PER_IP = "webserver-max-connections-per-ip";
+	public static final String CONFIG_KEY_READ_TIMEOUT = "webserver-read-timeout";
+	public static final String CONFIG_KEY_WRITE_TIMEOUT = "webserver-write-timeout";
+	public static final String CONFIG_KEY_RATE_LIMIT = "webserver-rate-limit";
+	public static final String CONFIG_KEY_RATE_LIMIT_BURST = "webserver-rate-limit-burst";
+	public static final String CONFIG_KEY_RATE_LIMIT_ADDRESSES = "webserver-rate-limit-addresses";
+	public static final String CONFIG_KEY_WRITE_BUFFER_HIGH = "webserver-write-buffer-high";
+	public static final String CONFIG_KEY_WRITE_BUFFER_LOW = "webserver-write-buffer-low";
+	public static final String CONFIG_KEY_MAX_PENDING_BYTES = "webserver-max-pending-bytes";
+	public static final String CONFIG_KEY_HTTP2 = "webserver-http2";
+	public static final String CONFIG_KEY_HTTP2_MAX_STREAMS = "webserver-http2-max-streams";
+	public static final String CONFIG_KEY_HTTP2_STREAM_WINDOW = "webserver-http2-stream-window";
+	public static final String CONFIG_KEY_HTTP2_CONNECTION_WINDOW = "webserver-http2-connection-window";
+	public static final String CONFIG_KEY_TLS = "webserver-tls";
+	public static final String CONFIG_KEY_TLS_CERT = "webserver-tls-cert";
+	public static final String CONFIG_KEY_TLS_KEY = "webserver-tls-key";
+	public static final String CONFIG_KEY_TLS_KEY_PASSWORD = "webserver-tls-key-password";
+	public static final String CONFIG_KEY_TLS_PROTOCOLS = "webserver-tls-protocols";
+	public static final String CONFIG_KEY_TLS_CIPHERS = "webserver-tls-ciphers";
+	public static final String CONFIG_KEY_TLS_PROVIDER = "webserver-tls-provider";
+	public static final String CONFIG_KEY_TLS_SESSION_CACHE = "webserver-tls-session-cache";
+	public static final String CONFIG_KEY_TLS_SESSION_TIMEOUT = "webserver-tls-session-timeout";
+	public static final String CONFIG_KEY_TLS_SESSION_TICKETS = "webserver-tls-session-tickets";
+	public static final String CONFIG_KEY_TLS_RELOAD_INTERVAL = "webserver-tls-reload-interval";
+	
+	/** the live topic publishing the server statistics */
+	public static final String STATS_TOPIC = "stats";
+	
+	/** the event stream publishing the nukkit events */
+	public static final String EVENTS_STREAM = "events";
+	
+	/** the content types being compressed by default */
+	public static final List<String> DEFAULT_COMPRESSION_TYPES = Collections.unmodifiableList(Arrays.asList(
+			"text/", "application/json", "application/javascript", "application/xml", "image/svg+xml"));
+	
+	/** the tls protocols enabled by default */
+	public static final List<String> DEFAULT_TLS_PROTOCOLS = Collections.unmodifiableList(Arrays.asList("TLSv1.3", "TLSv1.2"));
+	
+	/** the body error of requests rejected by the rate limiter; shared and without stack trace */
+	private static final IOException RATE_LIMITED = new IOException("Too many requests");
+	
+	static {
+		RATE_LIMITED.setStackTrace(new StackTraceElement[0]);
+	}
+	
+	/** the pipeline names of the handlers behind the http/1 codec; removed on upgrades to http/2 */
+	private static final String HTTP1_COMPRESSOR = "compressor";
+	private static final String HTTP1_CHUNKED = "chunked";
+	private static final String HTTP1_HANDLER = "http";
+	
+	/** the maximum body size of a request upgrading to http/2 */
+	private static final int MAX_UPGRADE_SIZE = 65536;
+	
+	private volatile boolean maintenance;
+	
+	private volatile int port;
+	
+	private long drainTimeout;
+	
+	private int snapshotInterval;
+	
+	/** the latest server snapshot, published by the main thread */
+	private volatile ServerSnapshot snapshot;
+	
+	/** the tick the latest snapshot was captured */
+	private int snapshotTick;
+	
+	/** work to be executed on the main thread */
+	private final MainThreadBridge mainThread;
+	
+	/** the response cache; {@code null} if caching is disabled */
+	private final ResponseCache responseCache;
+	
+	/** the body policy of routes not declaring their own policy */
+	private final RequestBodyPolicy defaultBodyPolicy;
+	
+	/** the compression settings */
+	private final Compression compression;
+	
+	/** the request metrics */
+	private final WebMetrics metrics = new WebMetrics();
+	
+	/** the live topics by name */
+	private final ConcurrentMap<String, LiveTopic> liveTopics = new ConcurrentHashMap<>();
+	
+	/** number of deltas between two full snapshots of the live topics */
+	private final int liveSnapshotInterval;
+	
+	/** the time a live subscriber may stay unwritable before it is disconnected (millis) */
+	private final long liveMaxLag;
+	
+	/** the server statistics topic */
+	private final LiveTopic statsTopic;
+	
+	/** the connection caps, idle timeouts and request rate limits */
+	private final ConnectionLimits limits;
+	
+	/** the event streams by name */
+	private final ConcurrentMap<String, EventStream> eventStreams = new ConcurrentHashMap<>();
+	
+	/** number of events kept per stream for reconnecting clients */
+	private final int sseReplaySize;
+	
+	/** the heartbeat interval of idle event streams (nanos); 0 to disable heartbeats */
+	private final long sseHeartbeat;
+	
+	private HandlerExecutor.Mode handlerMode = HandlerExecutor.Mode.POOL;
+	
+	private int handlerThreads;
+	
+	private int handlerQueue;
 	
-	private boolean startupIssued;
+	private int retryAfter;
 	
-	private boolean stopIssued;
+	private int maxRequestsPerConnection;
 	
-	private boolean maintenance;
+	private int pipelineLimit;
 	
-	private int port;
+	private String transport;
+	
+	private int bossThreads;
+	
+	private int workerThreads;
+	
+	private String threadName;
+	
+	private int threadPriority;
+	
+	private int acceptors;
+	
+	private boolean pooledBuffers;
+	
+	/** the write buffer size a connection becomes unwritable at (bytes) */
+	private int writeBufferHigh;
+	
+	/** the write buffer size an unwritable connection becomes writable again at (bytes) */
+	private int writeBufferLow;
+	
+	/** the maximum number of response bytes per connection waiting for the client; 0 for no limit */
+	private long maxPendingBytes;
+	
+	/** true to accept http/2 connections (h2c and alpn) */
+	private boolean http2;
+	
+	/** the maximum number of concurrent streams per http/2 connection */
+	private int http2MaxStreams;
+	
+	/** the flow control window of each http/2 stream (bytes) */
+	private int http2StreamWindow;
+	
+	/** the flow control window of each http/2 connection (bytes) */
+	private int http2ConnectionWindow;
+	
+	/** the tls termination; {@code null} if tls is disabled */
+	private final TlsTermination tls;
+	
+	/** the interval of checking the certificate for changes (seconds); 0 to disable automatic reloads */
+	private final long tlsReloadInterval;
+	
+	/** the pending certificate check; {@code null} if the web server is stopped */
+	private ScheduledFuture<?> tlsReloadTask;
+	
+	private EventLoopGroup externalBossGroup;
+	
+	private EventLoopGroup externalWorkerGroup;
 	
 	public enum ServerState {
 		STOPPED,
@@ -86,119 +345,508 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 		MAINTENANCE
 	}
 	
-	private ServerState currentState = ServerState.STOPPED;
+	private final AtomicReference<ServerState> currentState = new AtomicReference<>(ServerState.STOPPED);
 	
-	private int currentPort = -1;
+	private volatile int currentPort = -1;
 	
-	private Map<String, WebpageHandlerFactory> factories = new ConcurrentHashMap<>();
+	/** the registered routes by pattern; guarded by itself */
+	private final Map<String, RouteTrie.Route> routeDefinitions = new LinkedHashMap<>();
+	
+	/** the compiled routes; replaced on every registration change */
+	private volatile RouteTrie routes = RouteTrie.EMPTY;
 	
 	public WebserverTask(WebserverPlugin owner, Config config) { 
 		super(owner);
 		if (config.getBoolean(CONFIG_KEY_MAINTENANCE)) {
 			this.maintenance = true;
 		}
-		if (config.getBoolean(CONFIG_KEY_ENABLED)) {
-			this.startupIssued = true;
-		}
 		this.port = config.getInt(CONFIG_KEY_PORT);
+		this.drainTimeout = Math.max(0, config.getLong(CONFIG_KEY_DRAIN_TIMEOUT, 5000));
+		this.snapshotInterval = Math.max(1, config.getInt(CONFIG_KEY_SNAPSHOT_INTERVAL, 20));
+		// the task is created on the main thread; handlers always see a snapshot
+		this.snapshotTick = owner.getServer().getTick();
+		this.snapshot = new ServerSnapshot(owner.getServer(), 0, this.snapshotTick);
+		this.mainThread = new MainThreadBridge(Math.max(1, config.getInt(CONFIG_KEY_MAIN_THREAD_QUEUE, 1024)),
+				Math.max(0, config.getLong(CONFIG_KEY_MAIN_THREAD_BUDGET, 2000000)));
+		final String mode = config.getString(CONFIG_KEY_HANDLER_MODE, HandlerExecutor.Mode.POOL.name());
+		try {
+			this.handlerMode = HandlerExecutor.Mode.valueOf(mode.toUpperCase());
+		}
+		catch (IllegalArgumentException ex) {
+			owner.getLogger().warning(TextFormat.RED + "Invalid handler mode " + mode + ". Using " + this.handlerMode + ".");
+		}
+		this.handlerThreads = config.getInt(CONFIG_KEY_HANDLER_THREADS, 4);
+		this.handlerQueue = config.getInt(CONFIG_KEY_HANDLER_QUEUE, 256);
+		this.retryAfter = config.getInt(CONFIG_KEY_RETRY_AFTER, 1);
+		this.maxRequestsPerConnection = config.getInt(CONFIG_KEY_KEEPALIVE_MAX_REQUESTS, 100);
+		this.pipelineLimit = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_LIMIT, 16));
+		this.transport = config.getString(CONFIG_KEY_TRANSPORT, "auto");
+		this.bossThreads = Math.max(1, config.getInt(CONFIG_KEY_BOSS_THREADS, 1));
+		this.workerThreads = Math.max(0, config.getInt(CONFIG_KEY_WORKER_THREADS, 2));
+		this.threadName = config.getString(CONFIG_KEY_THREAD_NAME, "xw-web");
+		this.acceptors = Math.max(1, config.getInt(CONFIG_KEY_ACCEPTORS, 1));
+		this.pooledBuffers = config.getBoolean(CONFIG_KEY_POOLED_BUFFERS, true);
+		this.writeBufferHigh = Math.max(1, config.getInt(CONFIG_KEY_WRITE_BUFFER_HIGH, 65536));
+		this.writeBufferLow = Math.max(0, Math.min(this.writeBufferHigh, config.getInt(CONFIG_KEY_WRITE_BUFFER_LOW, 32768)));
+		this.maxPendingBytes = Math.max(0, config.getLong(CONFIG_KEY_MAX_PENDING_BYTES, 8388608));
+		this.http2 = config.getBoolean(CONFIG_KEY_HTTP2, true);
+		this.http2MaxStreams = Math.max(1, config.getInt(CONFIG_KEY_HTTP2_MAX_STREAMS, 100));
+		this.http2StreamWindow = Math.max(16384, config.getInt(CONFIG_KEY_HTTP2_STREAM_WINDOW, 65535));
+		this.http2ConnectionWindow = Math.max(65535, config.getInt(CONFIG_KEY_HTTP2_CONNECTION_WINDOW, 1048576));
+		final int cacheSize = config.getInt(CONFIG_KEY_CACHE_SIZE, 256);
+		this.responseCache = cacheSize > 0 ? new ResponseCache(cacheSize) : null;
+		this.defaultBodyPolicy = RequestBodyPolicy.aggregate(config.getLong(CONFIG_KEY_MAX_BODY_SIZE, 1048576));
+		final List<String> compressionTypes = config.exists(CONFIG_KEY_COMPRESSION_TYPES) ? config.getStringList(CONFIG_KEY_COMPRESSION_TYPES) : DEFAULT_COMPRESSION_TYPES;
+		this.compression = new Compression(config.getInt(CONFIG_KEY_COMPRESSION_LEVEL, 6), config.getInt(CONFIG_KEY_COMPRESSION_MIN_SIZE, 1024), compressionTypes);
+		this.threadPriority = Math.min(Thread.MAX_PRIORITY, Math.max(Thread.MIN_PRIORITY, config.getInt(CONFIG_KEY_THREAD_PRIORITY, Thread.NORM_PRIORITY)));
+		this.liveSnapshotInterval = Math.max(1, config.getInt(CONFIG_KEY_LIVE_SNAPSHOT_INTERVAL, 30));
+		this.liveMaxLag = Math.max(0, config.getLong(CONFIG_KEY_LIVE_MAX_LAG, 10000));
+		this.statsTopic = this.getLiveTopic(STATS_TOPIC);
+		this.sseReplaySize = Math.max(1, config.getInt(CONFIG_KEY_SSE_REPLAY_SIZE, 256));
+		this.sseHeartbeat = Math.max(0, config.getLong(CONFIG_KEY_SSE_HEARTBEAT, 15000)) * 1000000L;
+		final int rateLimit = config.getInt(CONFIG_KEY_RATE_LIMIT, 0);
+		this.limits = new ConnectionLimits(Math.max(0, config.getInt(CONFIG_KEY_MAX_CONNECTIONS, 1024)),
+				Math.max(0, config.getInt(CONFIG_KEY_MAX_CONNECTIONS_PER_IP, 0)),
+				Math.max(0, config.getLong(CONFIG_KEY_READ_TIMEOUT, 30000)),
+				Math.max(0, config.getLong(CONFIG_KEY_WRITE_TIMEOUT, 30000)),
+				rateLimit > 0 ? new RateLimiter(rateLimit, config.getInt(CONFIG_KEY_RATE_LIMIT_BURST, 100), config.getInt(CONFIG_KEY_RATE_LIMIT_ADDRESSES, 4096)) : null,
+				this.metrics);
+		this.tls = config.getBoolean(CONFIG_KEY_TLS, false) ? this.createTls(config) : null;
+		this.tlsReloadInterval = Math.max(0, config.getLong(CONFIG_KEY_TLS_RELOAD_INTERVAL, 60));
+		this.publishStats(this.snapshot);
+	}
+
+	/**
+	 * Creates the tls termination; the certificate is loaded on start.
+	 * @param config
+	 * @return tls termination
+	 */
+	private TlsTermination createTls(Config config) {
+		SslProvider provider = null;
+		final String providerName = config.getString(CONFIG_KEY_TLS_PROVIDER, "auto");
+		if (!"auto".equalsIgnoreCase(providerName)) {
+			try {
+				provider = SslProvider.valueOf(providerName.toUpperCase());
+			}
+			catch (IllegalArgumentException ex) {
+				this.owner.getLogger().warning(TextFormat.RED + "Invalid tls provider " + providerName + ". Using auto detection.");
+			}
+		}
+		final TlsTermination result = new TlsTermination(
+				this.dataFile(config.getString(CONFIG_KEY_TLS_CERT, "cert.pem")),
+				this.dataFile(config.getString(CONFIG_KEY_TLS_KEY, "key.pem")),
+				config.getString(CONFIG_KEY_TLS_KEY_PASSWORD, ""),
+				config.exists(CONFIG_KEY_TLS_PROTOCOLS) ? config.getStringList(CONFIG_KEY_TLS_PROTOCOLS) : DEFAULT_TLS_PROTOCOLS,
+				config.exists(CONFIG_KEY_TLS_CIPHERS) ? config.getStringList(CONFIG_KEY_TLS_CIPHERS) : Collections.<String>emptyList(),
+				provider,
+				Math.max(0, config.getLong(CONFIG_KEY_TLS_SESSION_CACHE, 20480)),
+				Math.max(0, config.getLong(CONFIG_KEY_TLS_SESSION_TIMEOUT, 86400)),
+				config.getBoolean(CONFIG_KEY_TLS_SESSION_TICKETS, true),
+				this.http2,
+				this.metrics);
+		if (result.getProvider() == SslProvider.JDK && !config.getBoolean(CONFIG_KEY_TLS_SESSION_TICKETS, true)) {
+			this.owner.getLogger().warning(TextFormat.RED + "Session tickets of the jdk tls provider are controlled by the jvm option jdk.tls.server.enableSessionTicketExtension.");
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves a configured file.
+	 * @param path absolute path or path relative to the data folder
+	 * @return file
+	 */
+	private File dataFile(String path) {
+		final File file = new File(path);
+		return file.isAbsolute() ? file : new File(this.owner.getDataFolder(), path);
 	}
 
 	/**
+	 * Registers a factory for all paths below {@code /<name>/}; replaces a factory registered before.
 	 * @param name
 	 * @param factory
 	 */
 	public void registerFactory(String name, WebpageHandlerFactory factory) {
-		this.factories.put(name, factory);
+		final String pattern = "/" + name + "/" + RouteTrie.WILDCARD;
+		synchronized (this.routeDefinitions) {
+			final RouteTrie.Route old = this.routeDefinitions.remove(pattern);
+			try {
+				this.registerRoute(name, pattern, factory);
+			}
+			catch (IllegalArgumentException ex) {
+				if (old != null) {
+					this.routeDefinitions.put(pattern, old);
+				}
+				throw ex;
+			}
+		}
 	}
 
 	/**
+	 * Unregisters the factory and every route registered by given owner.
 	 * @param name
 	 */
 	public void unregisterFactory(String name) {
-		this.factories.remove(name);
+		this.unregisterRoutes(name);
+	}
+	
+	/**
+	 * Registers a route. See {@link WebserverPlugin#registerRoute(cn.nukkit.plugin.Plugin, String, WebpageHandlerFactory)}
+	 * for the pattern syntax.
+	 * @param owner the owner (plugin name)
+	 * @param pattern the route pattern
+	 * @param factory the factory serving the route
+	 * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+	 */
+	public void registerRoute(String owner, String pattern, WebpageHandlerFactory factory) {
+		this.registerRoute(owner, pattern, factory, null);
+	}
+	
+	/**
+	 * Registers a route with its own request body policy.
+	 * @param owner the owner (plugin name)
+	 * @param pattern the route pattern
+	 * @param factory the factory serving the route
+	 * @param bodyPolicy the request body policy; {@code null} for the default policy
+	 * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+	 */
+	public void registerRoute(String owner, String pattern, WebpageHandlerFactory factory, RequestBodyPolicy bodyPolicy) {
+		this.registerRoute(new RouteTrie.Route(owner, pattern, factory, 0, bodyPolicy));
+	}
+	
+	/**
+	 * Registers a route served by a shared thread safe handler. See
+	 * {@link WebserverPlugin#registerRoute(cn.nukkit.plugin.Plugin, String, WebRequestHandler, long)}.
+	 * @param owner the owner (plugin name)
+	 * @param pattern the route pattern
+	 * @param handler the handler serving the route
+	 * @param cacheTtl the time successful GET responses without query string may be cached in milliseconds; {@code 0}
+	 *            to disable caching
+	 * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+	 */
+	public void registerRoute(String owner, String pattern, WebRequestHandler handler, long cacheTtl) {
+		this.registerRoute(owner, pattern, handler, cacheTtl, null);
+	}
+	
+	/**
+	 * Registers a route served by a shared thread safe handler with its own request body policy.
+	 * @param owner the owner (plugin name)
+	 * @param pattern the route pattern
+	 * @param handler the handler serving the route
+	 * @param cacheTtl the time successful GET responses without query string may be cached in milliseconds; {@code 0}
+	 *            to disable caching
+	 * @param bodyPolicy the request body policy; {@code null} for the default policy
+	 * @throws IllegalArgumentException thrown if the pattern is invalid or conflicts with another route
+	 */
+	public void registerRoute(String owner, String pattern, WebRequestHandler handler, long cacheTtl, RequestBodyPolicy bodyPolicy) {
+		this.registerRoute(new RouteTrie.Route(owner, pattern, handler, cacheTtl, bodyPolicy));
+	}
+	
+	/**
+	 * Registers a route
+	 * @param route
+	 */
+	private void registerRoute(RouteTrie.Route route) {
+		final String pattern = route.pattern;
+		synchronized (this.routeDefinitions) {
+			final Map<String, RouteTrie.Route> newDefinitions = new LinkedHashMap<>(this.routeDefinitions);
+			newDefinitions.put(pattern, route);
+			// compile first; the registration is rejected if the new route conflicts with existing routes
+			this.routes = RouteTrie.compile(newDefinitions.values());
+			this.routeDefinitions.put(pattern, route);
+		}
+		this.clearCache();
+	}
+	
+	/**
+	 * Unregisters every route of given owner.
+	 * @param owner the owner (plugin name)
+	 */
+	public void unregisterRoutes(String owner) {
+		synchronized (this.routeDefinitions) {
+			final Iterator<RouteTrie.Route> iter = this.routeDefinitions.values().iterator();
+			while (iter.hasNext()) {
+				if (iter.next().owner.equals(owner)) {
+					iter.remove();
+				}
+			}
+			this.routes = RouteTrie.compile(this.routeDefinitions.values());
+		}
+		this.clearCache();
+	}
+	
+	/**
+	 * Invalidates all cached responses.
+	 */
+	public void clearCache() {
+		if (this.responseCache != null) {
+			this.responseCache.clear();
+		}
+	}
+	
+	/**
+	 * Returns the response cache statistics.
+	 * @return map from route to hits (index 0) and misses (index 1); empty if caching is disabled
+	 */
+	public Map<String, long[]> getCacheStatistics() {
+		return this.responseCache == null ? Collections.<String, long[]>emptyMap() : this.responseCache.getStatistics();
+	}
+	
+	/**
+	 * Creates the initializer of the client connections; lets the benchmarks drive the pipeline through embedded
+	 * channels instead of sockets.
+	 * @return channel initializer
+	 */
+	ChannelInitializer<Channel> newChannelInitializer() {
+		return new NukkitNettyInitializer(null);
+	}
+	
+	/**
+	 * @return true if the web server accepts tls connections only
+	 */
+	public boolean isTls() {
+		return this.tls != null;
+	}
+	
+	/**
+	 * @return the tls implementation; {@code null} if tls is disabled
+	 */
+	public String getTlsProvider() {
+		return this.tls == null ? null : this.tls.getProvider().name();
+	}
+	
+	/**
+	 * @return the leaf certificate in use; {@code null} if tls is disabled or the certificate was not loaded yet
+	 */
+	public X509Certificate getTlsCertificate() {
+		return this.tls == null ? null : this.tls.getCertificate();
+	}
+	
+	/**
+	 * Reloads the tls certificate and key; new connections use the new certificate while open connections and the
+	 * server channels are kept. The current certificate is kept if loading fails.
+	 * @return future being completed as soon as the certificate was reloaded
+	 */
+	public CompletableFuture<Void> reloadTls() {
+		if (this.tls == null) {
+			final CompletableFuture<Void> result = new CompletableFuture<>();
+			result.completeExceptionally(new IllegalStateException("Tls is disabled"));
+			return result;
+		}
+		return this.loadTls().whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void t, Throwable ex) {
+				if (ex != null) {
+					getOwner().getLogger().error("Unable to reload the tls certificate. Keeping the current certificate.", ex);
+				}
+				else {
+					getOwner().getLogger().info(TextFormat.DARK_GREEN + "Tls certificate reloaded.");
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Loads the tls certificate and key; the files are not read on the main thread.
+	 * @return future being completed as soon as the certificate was loaded
+	 */
+	private CompletableFuture<Void> loadTls() {
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		GlobalEventExecutor.INSTANCE.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tls.reload();
+					result.complete(null);
+				}
+				catch (IOException | GeneralSecurityException | RuntimeException ex) {
+					result.completeExceptionally(ex);
+				}
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * @return the request metrics
+	 */
+	public WebMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Returns the number of pending tasks of the worker event loops.
+	 * @return pending tasks by event loop; empty if the web server is stopped
+	 */
+	public int[] getPendingTasks() {
+		final EventLoopGroup group = this.workerGroup;
+		if (group == null) {
+			return new int[0];
+		}
+		final List<Integer> result = new ArrayList<>();
+		final Iterator<EventExecutor> iter = group.iterator();
+		while (iter.hasNext()) {
+			final EventExecutor executor = iter.next();
+			result.add(executor instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) executor).pendingTasks() : 0);
+		}
+		final int[] array = new int[result.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = result.get(i);
+		}
+		return array;
+	}
+	
+	/**
+	 * Lets the web server reuse existing event loop groups instead of creating its own groups. The groups are used on
+	 * next start and are never shut down by the web server.
+	 * @param bossGroup the group accepting connections; {@code null} to create a new group on start
+	 * @param workerGroup the group handling the connections; {@code null} to use the boss group
+	 */
+	public void setEventLoopGroups(EventLoopGroup bossGroup, EventLoopGroup workerGroup) {
+		this.externalBossGroup = bossGroup;
+		this.externalWorkerGroup = bossGroup == null ? null : (workerGroup == null ? bossGroup : workerGroup);
 	}
 
 	@Override
 	public void onRun(int currentTick) {
-		if (this.startupIssued) {
-			if (this.stopIssued) {
-				// issued both commands since last run
-				this.startupIssued = false;
-				this.stopIssued = false;
-				this.owner.getLogger().warning(TextFormat.RED + "Webserver got start and stop command. Ignoring start/stop commands.");
+		// the web server lifecycle is event driven; the task only passes work from and to the main thread
+		this.mainThread.drain();
+		if (this.currentState.get() == ServerState.STOPPED) {
+			return;
+		}
+		if (currentTick - this.snapshotTick >= this.snapshotInterval) {
+			this.snapshotTick = currentTick;
+			try {
+				this.snapshot = new ServerSnapshot(this.owner.getServer(), this.snapshot.getVersion() + 1, currentTick);
+				this.publishStats(this.snapshot);
 			}
-			else {
-				// start the server asynchronous
-				switch (this.currentState) {
-					case STOPPED:
-						this.startupIssued = false;
-						this.currentState = ServerState.STARTING;
-						this.owner.getLogger().info(TextFormat.DARK_GREEN + "Perform web server start.");
-						this.startAsync();
-						break;
-					case MAINTENANCE:
-						this.startupIssued = false;
-						this.owner.getLogger().warning(TextFormat.RED + "Webserver already running but in maintenance mode. Ignoring start command.");
-						break;
-					case RUNNING:
-						this.startupIssued = false;
-						this.owner.getLogger().warning(TextFormat.RED + "Webserver already running. Ignoring start command.");
-						break;
-					case STARTING:
-						this.startupIssued = false;
-						this.owner.getLogger().warning(TextFormat.RED + "Webserver already starting. Ignoring start command.");
-						break;
-					case STOPPING:
-						this.owner.getLogger().warning(TextFormat.RED + "Webserver is currently stopping. Will try to start again later.");
-						break;
-				}
+			catch (RuntimeException ex) {
+				this.owner.getLogger().error("Failed to capture server snapshot", ex);
 			}
 		}
-		else if (this.stopIssued) {
-			// stop the server asynchronous
-			switch (this.currentState) {
-				case STOPPED:
-					this.stopIssued = false;
-					this.owner.getLogger().warning(TextFormat.RED + "Webserver already stopped. Ignoring stop command.");
-					this.currentState = ServerState.STARTING;
-					break;
-				case MAINTENANCE:
-				case RUNNING:
-					this.stopIssued = false;
-					this.currentState = ServerState.STOPPING;
-					this.owner.getLogger().info(TextFormat.DARK_GREEN + "Perform web server stop.");
-					this.stopAsync();
-					break;
-				case STOPPING:
-					this.stopIssued = false;
-					this.owner.getLogger().warning(TextFormat.RED + "Webserver already stopping. Ignoring stop command.");
-					break;
-				case STARTING:
-					this.owner.getLogger().warning(TextFormat.RED + "Webserver is currently starting. Will try to start again later.");
-					break;
+		// every change of this tick is encoded once and sent to all subscribers
+		for (final LiveTopic topic : this.liveTopics.values()) {
+			topic.publish();
+		}
+		final long now = System.nanoTime();
+		for (final EventStream stream : this.eventStreams.values()) {
+			stream.flush(now, this.sseHeartbeat);
+		}
+	}
+	
+	/**
+	 * Passes the server statistics to the stats topic; only changed values are sent to the subscribers.
+	 * @param stats
+	 */
+	private void publishStats(ServerSnapshot stats) {
+		this.statsTopic.set("name", stats.getName());
+		this.statsTopic.set("maxPlayers", stats.getMaxPlayers());
+		this.statsTopic.set("onlinePlayers", stats.getOnlinePlayers());
+		this.statsTopic.set("defaultLevel", stats.getDefaultLevel());
+		final JsonArray levels = new JsonArray();
+		for (final ServerSnapshot.LevelInfo level : stats.getLevels()) {
+			final JsonObject info = new JsonObject();
+			info.addProperty("id", level.getId());
+			info.addProperty("name", level.getName());
+			info.addProperty("players", level.getPlayers());
+			levels.add(info);
+		}
+		this.statsTopic.set("levels", levels);
+		final JsonArray players = new JsonArray();
+		for (final ServerSnapshot.PlayerInfo player : stats.getPlayers()) {
+			players.add(new JsonPrimitive(player.getName()));
+		}
+		this.statsTopic.set("players", players);
+	}
+	
+	/**
+	 * Returns the event stream of given name; creates the stream on first access.
+	 * @param name the stream name
+	 * @return the stream
+	 */
+	public EventStream getEventStream(String name) {
+		EventStream result = this.eventStreams.get(name);
+		if (result == null) {
+			final EventStream stream = new EventStream(name, this.sseReplaySize, this.liveMaxLag);
+			result = this.eventStreams.putIfAbsent(name, stream);
+			if (result == null) {
+				result = stream;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the live topic of given name; creates the topic on first access.
+	 * @param name the topic name
+	 * @return the topic
+	 */
+	public LiveTopic getLiveTopic(String name) {
+		LiveTopic result = this.liveTopics.get(name);
+		if (result == null) {
+			final LiveTopic topic = new LiveTopic(name, this.liveSnapshotInterval, this.liveMaxLag);
+			result = this.liveTopics.putIfAbsent(name, topic);
+			if (result == null) {
+				result = topic;
 			}
 		}
+		return result;
+	}
+	
+	/**
+	 * Submits work to the main thread. The work is executed within the next ticks; every tick only spends the
+	 * configured time budget on web work. The future is completed outside the main thread.
+	 * @param callable the work to be executed on the main thread
+	 * @return future receiving the result; completed with {@link java.util.concurrent.RejectedExecutionException}
+	 *         if there are too many pending tasks
+	 */
+	public <T> CompletableFuture<T> callOnMainThread(Callable<T> callable) {
+		return this.mainThread.submit(callable, GlobalEventExecutor.INSTANCE);
+	}
+	
+	/**
+	 * Returns the compression settings of the request.
+	 * @param ctx
+	 * @return compression settings; disabled for foreign contexts
+	 */
+	static Compression compressionOf(WebRequestContext ctx) {
+		return ctx instanceof RequestContext ? ((RequestContext) ctx).compression() : Compression.DISABLED;
+	}
+	
+	/**
+	 * Returns the latest server snapshot.
+	 * @return server snapshot; never {@code null}
+	 */
+	public ServerSnapshot getServerSnapshot() {
+		return this.snapshot;
 	}
 
 	/**
 	 * @return the currentState
 	 */
 	public ServerState getCurrentState() {
-		return this.currentState;
+		return this.currentState.get();
 	}
 
 	/**
 	 * @param startupIssued the startupIssued to set
+	 * @deprecated use {@link #start()}
 	 */
+	@Deprecated
 	public void setStartupIssued(boolean startupIssued) {
-		this.startupIssued = startupIssued;
+		if (startupIssued) {
+			this.start();
+		}
 	}
 
 	/**
 	 * @param stopIssued the stopIssued to set
+	 * @deprecated use {@link #stop()}
 	 */
+	@Deprecated
 	public void setStopIssued(boolean stopIssued) {
-		this.stopIssued = stopIssued;
+		if (stopIssued) {
+			this.stop();
+		}
 	}
 
 	/**
@@ -206,6 +854,13 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 	 */
 	public void setMaintenance(boolean maintenance) {
 		this.maintenance = maintenance;
+		// a running server switches immediately; a starting server picks up the flag as soon as it is bound
+		if (maintenance) {
+			this.currentState.compareAndSet(ServerState.RUNNING, ServerState.MAINTENANCE);
+		}
+		else {
+			this.currentState.compareAndSet(ServerState.MAINTENANCE, ServerState.RUNNING);
+		}
 	}
 	
 	/**
@@ -216,10 +871,12 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 	}
 
 	/**
+	 * Sets the port. A running web server binds the new port before the old port is closed; established connections
+	 * are not affected.
 	 * @param port the port to set
 	 */
 	public void setPort(int port) {
-		this.port = port;
+		this.changePort(port);
 	}
 
 	/**
@@ -228,22 +885,140 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 	public boolean isMaintenance() {
 		return this.maintenance;
 	}
+	
+	/**
+	 * Starts the web server.
+	 * @return future being completed as soon as the web server accepts connections.
+	 */
+	public synchronized CompletableFuture<Void> start() {
+		switch (this.currentState.get()) {
+			case STOPPED:
+				this.currentState.set(ServerState.STARTING);
+				this.owner.getLogger().info(TextFormat.DARK_GREEN + "Perform web server start.");
+				this.startFuture = new CompletableFuture<>();
+				this.startAsync(this.startFuture);
+				return this.startFuture;
+			case STARTING:
+				return this.startFuture;
+			case STOPPING:
+				this.owner.getLogger().info(TextFormat.DARK_GREEN + "Webserver is currently stopping. Will start after stop.");
+				return this.stopFuture.thenCompose(new Function<Void, CompletableFuture<Void>>() {
+					@Override
+					public CompletableFuture<Void> apply(Void t) {
+						return start();
+					}
+				});
+			default:
+			case MAINTENANCE:
+			case RUNNING:
+				this.owner.getLogger().warning(TextFormat.RED + "Webserver already running. Ignoring start command.");
+				return CompletableFuture.completedFuture(null);
+		}
+	}
+	
+	/**
+	 * Stops the web server. The acceptors are closed immediately; in-flight requests are drained until the configured
+	 * deadline passed.
+	 * @return future being completed as soon as the web server stopped.
+	 */
+	public synchronized CompletableFuture<Void> stop() {
+		switch (this.currentState.get()) {
+			case MAINTENANCE:
+			case RUNNING:
+				this.currentState.set(ServerState.STOPPING);
+				this.owner.getLogger().info(TextFormat.DARK_GREEN + "Perform web server stop.");
+				this.stopFuture = new CompletableFuture<>();
+				this.stopAsync(this.stopFuture);
+				return this.stopFuture;
+			case STOPPING:
+				return this.stopFuture;
+			case STARTING:
+				this.owner.getLogger().info(TextFormat.DARK_GREEN + "Webserver is currently starting. Will stop after start.");
+				return this.startFuture.handle(new BiFunction<Void, Throwable, Void>() {
+					@Override
+					public Void apply(Void t, Throwable u) {
+						return null;
+					}
+				}).thenCompose(new Function<Void, CompletableFuture<Void>>() {
+					@Override
+					public CompletableFuture<Void> apply(Void t) {
+						return stop();
+					}
+				});
+			default:
+			case STOPPED:
+				this.owner.getLogger().warning(TextFormat.RED + "Webserver already stopped. Ignoring stop command.");
+				return CompletableFuture.completedFuture(null);
+		}
+	}
+	
+	/**
+	 * Restarts the web server; starts it if it is stopped.
+	 * @return future being completed as soon as the web server accepts connections again.
+	 */
+	public CompletableFuture<Void> restart() {
+		return this.stop().thenCompose(new Function<Void, CompletableFuture<Void>>() {
+			@Override
+			public CompletableFuture<Void> apply(Void t) {
+				return start();
+			}
+		});
+	}
+	
+	/**
+	 * Changes the port. A running web server binds the new port before the old port is closed.
+	 * @param newPort
+	 * @return future being completed as soon as the web server listens on the new port.
+	 */
+	public synchronized CompletableFuture<Void> changePort(final int newPort) {
+		this.port = newPort;
+		final ServerState state = this.currentState.get();
+		if ((state != ServerState.RUNNING && state != ServerState.MAINTENANCE) || newPort == this.currentPort) {
+			// will be used on next start
+			return CompletableFuture.completedFuture(null);
+		}
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		this.bindAcceptors(newPort).whenComplete(new BiConsumer<ChannelGroup, Throwable>() {
+			@Override
+			public void accept(ChannelGroup channels, Throwable ex) {
+				if (ex != null) {
+					getOwner().getLogger().error("Unable to bind webserver to port " + newPort + ". Keeping port " + currentPort + ".");
+					result.completeExceptionally(ex);
+					return;
+				}
+				final ChannelGroup old;
+				synchronized (WebserverTask.this) {
+					if (currentState.get() == ServerState.STOPPING || currentState.get() == ServerState.STOPPED) {
+						// stopped while binding
+						channels.close();
+						result.completeExceptionally(new IllegalStateException("Webserver stopped"));
+						return;
+					}
+					old = serverChannels;
+					serverChannels = channels;
+					currentPort = newPort;
+				}
+				old.close();
+				getOwner().getLogger().info(TextFormat.DARK_GREEN + "Webserver now listening on port " + newPort + ".");
+				result.complete(null);
+			}
+		});
+		return result;
+	}
 
 	/**
 	 * Forces web server shutdown due to shutting down the whole server
 	 */
 	public void shutdown() {
-		final Channel ch = serverChannel;
-		if (ch != null) {
-			boolean success = false;
-			try {
-				success = ch.close().await(5000);
-			} catch (InterruptedException e) {
-				// silently ignore
-			}
-			if (!success) {
-				getOwner().getLogger().error("Failed to stop webserver within time limit.");
-			}
+		boolean success = false;
+		try {
+			this.stop().get(this.drainTimeout + 5000, TimeUnit.MILLISECONDS);
+			success = true;
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			// silently ignore
+		}
+		if (!success) {
+			getOwner().getLogger().error("Failed to stop webserver within time limit.");
 		}
 	}
 
@@ -256,67 +1031,375 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 
 	/**
 	 * stops the web server async
+	 * @param future the future to be completed after the server stopped
 	 */
-	private void stopAsync() {
-		serverChannel.close();
+	private void stopAsync(final CompletableFuture<Void> future) {
+		// stop accepting new connections; in-flight requests are still served
+		serverChannels.close();
+		serverChannels = null;
+		final CompletableFuture<Void> drained = this.drainFuture = new CompletableFuture<>();
+		if (this.inFlight.get() == 0) {
+			drained.complete(null);
+		}
+		final ScheduledFuture<?> deadline = GlobalEventExecutor.INSTANCE.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (drained.complete(null)) {
+					getOwner().getLogger().warning(TextFormat.RED + "Webserver stopped with " + inFlight.get() + " requests still in flight.");
+				}
+			}
+		}, this.drainTimeout, TimeUnit.MILLISECONDS);
+		drained.thenRun(new Runnable() {
+			@Override
+			public void run() {
+				deadline.cancel(false);
+				clientChannels.close().addListener(new GenericFutureListener<ChannelGroupFuture>() {
+					@Override
+					public void operationComplete(ChannelGroupFuture f) throws Exception {
+						synchronized (WebserverTask.this) {
+							releaseResources();
+							drainFuture = null;
+							currentPort = -1;
+							currentState.set(ServerState.STOPPED);
+						}
+						future.complete(null);
+					}
+				});
+			}
+		});
 	}
 	
-	private Channel serverChannel;
+	/** the listening server channels; more than one channel if using SO_REUSEPORT acceptors */
+	private ChannelGroup serverChannels;
+	/** the accepted client connections */
+	private final ChannelGroup clientChannels = new DefaultChannelGroup("xw-web-clients", GlobalEventExecutor.INSTANCE);
 	private EventLoopGroup bossGroup;
-	private EventLoopGroup workerGroup;
+	private volatile EventLoopGroup workerGroup;
+	private ServerBootstrap bootstrap;
+	private int acceptorCount;
+	private volatile HandlerExecutor handlerExecutor;
+	/** pending start operation */
+	private CompletableFuture<Void> startFuture;
+	/** pending stop operation */
+	private CompletableFuture<Void> stopFuture;
+	/** completed as soon as every in-flight request was served during stop */
+	private volatile CompletableFuture<Void> drainFuture;
+	/** number of requests received but not yet answered */
+	private final AtomicInteger inFlight = new AtomicInteger();
 
 	/**
 	 * starts the web server async
+	 * @param future the future to be completed after the server started
 	 */
-	private void startAsync() {
-		bossGroup = new NioEventLoopGroup(1);
-		workerGroup = new NioEventLoopGroup();
-		final ServerBootstrap b = new ServerBootstrap();
-		b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class).childHandler(new NukkitNettyInitializer(null));
-		this.currentPort = this.port;
-		b.bind(this.port).addListener(new StartupListener());
-	}
-	
-	private final class StartupListener implements GenericFutureListener<ChannelFuture> {
-
-		@Override
-		public void operationComplete(ChannelFuture future) throws Exception {
-			if (future.isSuccess()) {
-				serverChannel = future.channel();
-				serverChannel.closeFuture().addListener(new ShutdownListener());
-				currentState = maintenance ? ServerState.MAINTENANCE : ServerState.RUNNING;
-			}
-			else {
-				WebserverTask.this.getOwner().getLogger().error("Unable to bind webserver. Starting failed.");
-				currentState = ServerState.STOPPED;
-			}
+	private void startAsync(final CompletableFuture<Void> future) {
+		if (this.tls == null) {
+			this.bindAsync(future);
+			return;
 		}
-		
+		// the certificate is loaded off the main thread before the acceptors are bound
+		this.loadTls().whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void t, Throwable ex) {
+				synchronized (WebserverTask.this) {
+					if (ex != null) {
+						getOwner().getLogger().error("Unable to load the tls certificate. Starting failed.", ex);
+						currentState.set(ServerState.STOPPED);
+					}
+					else {
+						scheduleTlsReload();
+						bindAsync(future);
+						return;
+					}
+				}
+				future.completeExceptionally(ex);
+			}
+		});
 	}
 	
-	private final class ShutdownListener implements GenericFutureListener<ChannelFuture> {
-
-		@Override
-		public void operationComplete(ChannelFuture future) throws Exception {
+	/**
+	 * Schedules the check for changed certificate files.
+	 */
+	private void scheduleTlsReload() {
+		if (this.tlsReloadInterval > 0) {
+			this.tlsReloadTask = GlobalEventExecutor.INSTANCE.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (tls.reloadIfModified()) {
+							getOwner().getLogger().info(TextFormat.DARK_GREEN + "Tls certificate changed and was reloaded.");
+						}
+					}
+					catch (IOException | GeneralSecurityException ex) {
+						getOwner().getLogger().error("Unable to reload the changed tls certificate. Keeping the current certificate.", ex);
+					}
+				}
+			}, this.tlsReloadInterval, this.tlsReloadInterval, TimeUnit.SECONDS);
+		}
+	}
+	
+	/**
+	 * Binds the web server async
+	 * @param future the future to be completed after the server started
+	 */
+	private void bindAsync(final CompletableFuture<Void> future) {
+		handlerExecutor = new HandlerExecutor(this.handlerMode, this.handlerThreads, this.handlerQueue, this.threadName + "-handler", this.threadPriority);
+		if (handlerExecutor.getMode() != this.handlerMode) {
+			this.owner.getLogger().warning(TextFormat.RED + "Handler mode " + this.handlerMode + " not supported by this jvm. Using " + handlerExecutor.getMode() + ".");
+		}
+		final NettyTransport nettyTransport;
+		if (this.externalBossGroup != null) {
+			bossGroup = this.externalBossGroup;
+			workerGroup = this.externalWorkerGroup;
+			nettyTransport = NettyTransport.of(bossGroup);
+		}
+		else {
+			nettyTransport = this.selectTransport();
+			// every acceptor needs its own event loop
+			final int bossCount = nettyTransport == NettyTransport.EPOLL ? Math.max(this.bossThreads, this.acceptors) : this.bossThreads;
+			bossGroup = nettyTransport.newGroup(bossCount, new DefaultThreadFactory(this.threadName + "-boss", true, this.threadPriority));
+			workerGroup = nettyTransport.newGroup(this.workerThreads, new DefaultThreadFactory(this.threadName + "-worker", true, this.threadPriority));
+		}
+		this.owner.getLogger().info(TextFormat.DARK_GREEN + "Using " + nettyTransport + " transport.");
+		final ServerBootstrap b = new ServerBootstrap();
+		b.group(bossGroup, workerGroup).channel(nettyTransport.serverChannelClass()).childHandler(new NukkitNettyInitializer(this.tls));
+		// the default allocator depends on system properties
+		final ByteBufAllocator allocator = this.pooledBuffers ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+		b.option(ChannelOption.ALLOCATOR, allocator);
+		b.childOption(ChannelOption.ALLOCATOR, allocator);
+		b.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(this.writeBufferLow, this.writeBufferHigh));
+		this.acceptorCount = 1;
+		if (this.acceptors > 1) {
+			if (nettyTransport == NettyTransport.EPOLL) {
+				// linux distributes the incoming connections to all channels bound on the same port
+				b.option(EpollChannelOption.SO_REUSEPORT, true);
+				this.acceptorCount = this.acceptors;
+			}
+			else {
+				this.owner.getLogger().warning(TextFormat.RED + "Multiple acceptors require the epoll transport. Using a single acceptor.");
+			}
+		}
+		this.bootstrap = b;
+		final int bindPort = this.port;
+		this.bindAcceptors(bindPort).whenComplete(new BiConsumer<ChannelGroup, Throwable>() {
+			@Override
+			public void accept(ChannelGroup channels, Throwable ex) {
+				synchronized (WebserverTask.this) {
+					if (ex != null) {
+						getOwner().getLogger().error("Unable to bind webserver. Starting failed.");
+						releaseResources();
+						currentState.set(ServerState.STOPPED);
+					}
+					else {
+						serverChannels = channels;
+						currentPort = bindPort;
+						currentState.set(maintenance ? ServerState.MAINTENANCE : ServerState.RUNNING);
+					}
+				}
+				if (ex != null) {
+					future.completeExceptionally(ex);
+				}
+				else {
+					future.complete(null);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Binds the acceptor channels to given port.
+	 * @param bindPort
+	 * @return the future receiving the bound channels.
+	 */
+	private CompletableFuture<ChannelGroup> bindAcceptors(int bindPort) {
+		final CompletableFuture<ChannelGroup> result = new CompletableFuture<>();
+		final ChannelGroup channels = new DefaultChannelGroup("xw-web-acceptors", GlobalEventExecutor.INSTANCE);
+		final BindListener listener = new BindListener(this.acceptorCount, channels, result);
+		for (int i = 0; i < this.acceptorCount; i++) {
+			// each bind registers the channel on the next boss event loop
+			this.bootstrap.bind(bindPort).addListener(listener);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the configured transport
+	 */
+	private NettyTransport selectTransport() {
+		try {
+			final NettyTransport result = NettyTransport.select(this.transport);
+			if (!result.name().equalsIgnoreCase(this.transport) && !"auto".equalsIgnoreCase(this.transport)) {
+				this.owner.getLogger().warning(TextFormat.RED + "Transport " + this.transport + " not available. Using " + result + ".");
+			}
+			return result;
+		}
+		catch (IllegalArgumentException ex) {
+			this.owner.getLogger().warning(TextFormat.RED + "Invalid transport " + this.transport + ". Using auto detection.");
+			return NettyTransport.select("auto");
+		}
+	}
+	
+	/**
+	 * Releases the event loop groups and the handler stage after the server channels were closed.
+	 */
+	private void releaseResources() {
+		if (this.tlsReloadTask != null) {
+			this.tlsReloadTask.cancel(false);
+			this.tlsReloadTask = null;
+		}
+		if (bossGroup != this.externalBossGroup) {
 			bossGroup.shutdownGracefully();
 			workerGroup.shutdownGracefully();
-			bossGroup = null;
-			workerGroup = null;
-			serverChannel = null;
-			currentState = ServerState.STOPPED;
+		}
+		handlerExecutor.shutdown();
+		bossGroup = null;
+		workerGroup = null;
+		bootstrap = null;
+	}
+	
+	/**
+	 * Marks a request as finished; used to drain the in-flight requests on stop.
+	 */
+	void requestFinished() {
+		if (this.inFlight.decrementAndGet() == 0) {
+			final CompletableFuture<Void> drained = this.drainFuture;
+			if (drained != null) {
+				drained.complete(null);
+			}
+		}
+	}
+	
+	/**
+	 * Waits for all acceptor channels to be bound.
+	 */
+	private static final class BindListener implements GenericFutureListener<ChannelFuture> {
+		
+		/** number of bind operations still running */
+		private int pending;
+		
+		/** true if at least one bind operation failed */
+		private Throwable failure;
+		
+		/** the bound channels */
+		private final ChannelGroup channels;
+		
+		/** the future to be completed */
+		private final CompletableFuture<ChannelGroup> result;
+		
+		BindListener(int acceptorCount, ChannelGroup channels, CompletableFuture<ChannelGroup> result) {
+			this.pending = acceptorCount;
+			this.channels = channels;
+			this.result = result;
+		}
+
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			synchronized (this) {
+				if (future.isSuccess()) {
+					this.channels.add(future.channel());
+				}
+				else if (this.failure == null) {
+					this.failure = future.cause();
+				}
+				if (--this.pending > 0) {
+					return;
+				}
+			}
+			if (this.failure != null) {
+				this.channels.close();
+				this.result.completeExceptionally(this.failure);
+			}
+			else {
+				this.result.complete(this.channels);
+			}
 		}
 		
 	}
 	
-	private final class RequestContext implements WebRequestContext {
+	/**
+	 * The request context; listens for the response being written to mark the request as finished.
+	 */
+	private final class RequestContext implements WebRequestContext, ChannelFutureListener {
 		
-		protected HttpHeaders headers;
+		protected final HttpHeaders headers;
 		protected HttpHeaders trailingHeaders;
-		protected HttpVersion protocolVersion;
-		protected String uri;
+		protected final HttpVersion protocolVersion;
+		protected final String uri;
 		protected QueryStringDecoder queryStringDecoder;
 		protected ByteBuf content;
-		protected HttpMethod method;
+		protected final HttpMethod method;
+		
+		/** the position of this request within the connection (pipelining) */
+		protected final int sequence;
+		/** true to keep the connection alive after this request */
+		protected boolean keepAlive;
+		/** the response, set as soon as the handler finished */
+		protected FullHttpResponse response;
+		/** the streaming response, set instead of the full response by streaming handlers */
+		protected StreamingResponse stream;
+		/** the event stream, set instead of the full response by event stream handlers */
+		protected EventStream eventStream;
+		/** the channel allocator */
+		protected final ByteBufAllocator alloc;
+		/** the cache time to live in millis; 0 if the response is not cacheable */
+		protected long cacheTtl;
+		/** the route for cache statistics */
+		protected String cacheRoute;
+		/** the matching route; {@code null} if no route matches */
+		protected RouteTrie.Route route;
+		/** the parameter offsets within the uri */
+		protected int[] paramOffsets;
+		/** the request body policy of the matching route */
+		protected RequestBodyPolicy bodyPolicy;
+		/** the number of body bytes received */
+		protected long contentLength;
+		/** the file the body was spilled to; {@code null} if the body is held in memory */
+		protected Path bodyFile;
+		/** the channel writing the spilled body; event loop only */
+		protected FileChannel bodyChannel;
+		/** the listener requested by a streaming handler */
+		protected volatile RequestBodyListener requestedListener;
+		/** the listener receiving the streamed body; event loop only */
+		protected RequestBodyListener bodyListener;
+		/** chunks received before the body listener was set; event loop only */
+		protected List<ByteBuf> queuedChunks;
+		/** true if the handler was invoked; event loop only */
+		protected boolean invoked;
+		/** true if the body was received completely; event loop only */
+		protected boolean bodyComplete;
+		/** true if the remaining body is discarded; event loop only */
+		protected boolean bodyDiscarded;
+		/** the failure aborting the body; event loop only */
+		protected Throwable bodyError;
+		/** true if the request asks for a web socket upgrade of a live endpoint */
+		protected boolean upgrade;
+		/** the time the first bytes of the request were read (nanos) */
+		protected long receivedAt;
+		/** the time the handler was invoked (nanos); 0 if no handler was invoked */
+		protected long invokedAt;
+		/** the time the response was passed to the channel (nanos) */
+		protected long writeStart;
+		/** the response status */
+		protected int status;
+		/** the size of the full response; counted as pending until the response was written */
+		protected int responseBytes;
+		/** the metrics of the matching route; event loop only */
+		protected WebMetrics.RouteMetrics routeMetrics;
+		/** the channel context */
+		protected final ChannelHandlerContext channelCtx;
+		/** the connection handler */
+		protected final NukkitNettyHandler connection;
+		
+		RequestContext(HttpRequest request, int sequence, ChannelHandlerContext channelCtx, NukkitNettyHandler connection) {
+			this.channelCtx = channelCtx;
+			this.connection = connection;
+			this.alloc = channelCtx.alloc();
+			this.protocolVersion = request.protocolVersion();
+			this.headers = request.headers();
+			this.uri = request.uri();
+			this.method = request.method();
+			this.sequence = sequence;
+			this.keepAlive = HttpUtil.isKeepAlive(request);
+		}
 
 		@Override
 		public HttpHeaders getRequestHeaders() {
@@ -340,6 +1423,9 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 
 		@Override
 		public QueryStringDecoder getQueryString() {
+			if (this.queryStringDecoder == null) {
+				this.queryStringDecoder = new QueryStringDecoder(this.uri);
+			}
 			return this.queryStringDecoder;
 		}
 
@@ -348,18 +1434,198 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 			return this.content;
 		}
 
+		@Override
+		public long getRequestContentLength() {
+			return this.contentLength;
+		}
+
+		@Override
+		public Path getRequestBodyFile() {
+			return this.bodyFile;
+		}
+
+		@Override
+		public InputStream openRequestBody() throws IOException {
+			if (this.bodyFile != null) {
+				return Files.newInputStream(this.bodyFile);
+			}
+			return new ByteBufInputStream(this.content.duplicate());
+		}
+
+		@Override
+		public void setRequestBodyListener(final RequestBodyListener listener) {
+			if (this.bodyPolicy.getMode() != RequestBodyPolicy.Mode.STREAM) {
+				throw new IllegalStateException("The route does not stream the request body");
+			}
+			if (this.requestedListener != null) {
+				throw new IllegalStateException("Body listener already set");
+			}
+			this.requestedListener = listener;
+			if (this.channelCtx.executor().inEventLoop()) {
+				this.connection.startBody(this.channelCtx, this);
+				return;
+			}
+			try {
+				this.channelCtx.executor().execute(new Runnable() {
+					@Override
+					public void run() {
+						connection.startBody(channelCtx, RequestContext.this);
+					}
+				});
+			}
+			catch (RejectedExecutionException ex) {
+				listener.onError(new ClosedChannelException());
+			}
+		}
+		
+		/**
+		 * @return the compression settings
+		 */
+		Compression compression() {
+			return compression;
+		}
+		
+		/**
+		 * @return the metrics of the matching route
+		 */
+		WebMetrics.RouteMetrics metrics() {
+			if (this.routeMetrics == null) {
+				this.routeMetrics = metrics.route(this.route == null ? null : this.route.pattern);
+			}
+			return this.routeMetrics;
+		}
+		
+		/**
+		 * Marks the start of the write phase.
+		 * @param responseStatus the response status
+		 * @return this context; to be added as listener of the write future
+		 */
+		RequestContext writing(HttpResponseStatus responseStatus) {
+			this.status = responseStatus.code();
+			this.writeStart = System.nanoTime();
+			return this;
+		}
+
+		/**
+		 * Invoked as soon as the response was written.
+		 */
+		@Override
+		public void operationComplete(ChannelFuture future) throws Exception {
+			final WebMetrics.RouteMetrics routeMetrics = this.metrics();
+			routeMetrics.write.record(System.nanoTime() - this.writeStart);
+			routeMetrics.answered(this.status);
+			this.connection.answeredRequests++;
+			this.connection.pendingBytes -= this.responseBytes;
+			requestFinished();
+		}
+		
+		/**
+		 * Releases the request body after the handler finished.
+		 */
+		void releaseBody() {
+			this.content.release();
+			if (this.bodyFile != null) {
+				try {
+					Files.deleteIfExists(this.bodyFile);
+				}
+				catch (IOException ex) {
+					getOwner().getLogger().warning("Failed to delete " + this.bodyFile);
+				}
+			}
+		}
+
 		@Override
 		public HttpMethod getMethod() {
 			return this.method;
 		}
+
+		@Override
+		public String getPathParameter(String name) {
+			if (this.route == null) {
+				return null;
+			}
+			final String[] names = this.route.paramNames;
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) {
+					// a plus sign is literal within the path; only the query string encodes spaces as plus signs
+					return QueryStringDecoder.decodeComponent(this.uri.substring(this.paramOffsets[2 * i], this.paramOffsets[2 * i + 1]).replace("+", "%2B"));
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public ByteBufAllocator getAllocator() {
+			return this.alloc;
+		}
+
+		@Override
+		public ServerSnapshot getServerSnapshot() {
+			return snapshot;
+		}
+
+		@Override
+		public <T> CompletableFuture<T> callOnMainThread(Callable<T> callable) {
+			// the handler continues on the event loop of its connection
+			return mainThread.submit(callable, this.channelCtx.executor());
+		}
 		
 	}
 	
+	/**
+	 * The per connection handler. The handler fields are only touched by the channel event loop.
+	 * 
+	 * <p>Requests may be pipelined and their handlers may finish in any order; the responses are
+	 * buffered and written in the order of the requests.</p>
+	 */
 	private final class NukkitNettyHandler extends SimpleChannelInboundHandler<Object> {
 		
-		private HttpRequest request;
+		/** the request currently being received */
+		private RequestContext rContext;
+		
+		/** number of requests received on this connection */
+		private int receivedRequests;
+		
+		/** sequence of the next response to be written */
+		private int nextResponse;
+		
+		/** responses that finished before their predecessors */
+		private final Map<Integer, RequestContext> pendingResponses = new HashMap<>();
+		
+		/** true if the last request of this connection was received; further requests are discarded */
+		private boolean closing;
+		
+		/** receives the parameter offsets while matching the routes */
+		private final int[] offsets = new int[2 * RouteTrie.MAX_PARAMS];
 		
-		private final RequestContext rContext = new RequestContext();
+		/** true while reading is paused until a streaming handler set its body listener */
+		private boolean waitingForListener;
+		
+		/** sequence of the request expecting a 100 continue as soon as its predecessors were answered; -1 for none */
+		private int continueSequence = -1;
+		
+		/** the event stream subscription; the connection does not answer further requests */
+		private EventStream.Subscriber eventSubscriber;
+		
+		/** the connection metrics */
+		private final ConnectionMetrics connectionMetrics;
+		
+		/** number of responses written completely */
+		private int answeredRequests;
+		
+		/** the bytes of the full responses passed to the channel but not written yet */
+		private long pendingBytes;
+		
+		/** the client address; {@code null} until the first request was received or for non internet channels */
+		private InetAddress address;
+		
+		/**
+		 * Constructor
+		 * @param connectionMetrics the connection metrics
+		 */
+		NukkitNettyHandler(ConnectionMetrics connectionMetrics) {
+			this.connectionMetrics = connectionMetrics;
+		}
 
 		/**
 		 * @see io.netty.channel.SimpleChannelInboundHandler#channelRead0(io.netty.channel.ChannelHandlerContext, java.lang.Object)
@@ -367,94 +1633,736 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 		@Override
 		protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
 			if (msg instanceof HttpRequest) {
-				final HttpRequest request = this.request = (HttpRequest) msg;
-				if (HttpHeaders.is100ContinueExpected(request)) {
-					send100Continue(ctx);
+				if (this.closing) {
+					return;
 				}
 				
-				this.rContext.protocolVersion = request.getProtocolVersion();
-				this.rContext.headers = request.headers();
-				this.rContext.uri = request.getUri();
-				this.rContext.headers = request.headers();
-				this.rContext.queryStringDecoder = new QueryStringDecoder(request.getUri());
-				this.rContext.method = request.getMethod();
+				// the handler may run on another thread; every request needs its own context
+				final HttpRequest request = (HttpRequest) msg;
+				this.rContext = new RequestContext(request, this.receivedRequests++, ctx, this);
+				if (maxRequestsPerConnection > 0 && this.receivedRequests >= maxRequestsPerConnection) {
+					this.rContext.keepAlive = false;
+				}
+				this.closing = !this.rContext.keepAlive;
+				// too many pipelined requests in flight; continue reading after some responses were written
+				this.updateAutoRead(ctx);
+				
+				// the route decides how to receive the body
+				this.matchRoute(this.rContext);
+				this.rContext.receivedAt = this.connectionMetrics.requestStart();
+				this.rContext.metrics();
+				if (this.address == null) {
+					this.address = ConnectionLimits.address(ctx.channel().remoteAddress());
+				}
+				final long wait = limits.acquireRequest(this.address);
+				if (wait != 0) {
+					// the connection is kept if there is no body; the remaining chunks of a body are discarded and the
+					// connection is closed
+					final boolean complete = msg instanceof LastHttpContent
+							|| (!HttpUtil.isTransferEncodingChunked(request) && HttpUtil.getContentLength(request, 0L) == 0);
+					this.abortBody(ctx, this.rContext, RATE_LIMITED, WebserverPlugin.TOO_MANY_REQUESTS, (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999999999L)), complete);
+					return;
+				}
+				if (this.rContext.route != null && this.rContext.route.target instanceof LiveEndpoint
+						&& HttpMethod.GET.equals(request.method()) && "websocket".equalsIgnoreCase(request.headers().get(HttpHeaderNames.UPGRADE))) {
+					this.rContext.upgrade = true;
+				}
+				final RequestBodyPolicy policy = this.rContext.route != null && this.rContext.route.bodyPolicy != null ? this.rContext.route.bodyPolicy : defaultBodyPolicy;
+				this.rContext.bodyPolicy = policy;
+				if (policy.exceeds(HttpUtil.getContentLength(request, -1L))) {
+					// reject before the body is sent
+					this.abortBody(ctx, this.rContext, new TooLongFrameException("Request body exceeds " + policy.getMaxSize() + " bytes"));
+					return;
+				}
+				if (HttpUtil.is100ContinueExpected(request)) {
+					this.continueSequence = this.rContext.sequence;
+					this.sendContinue(ctx);
+				}
+				if (policy.getMode() == RequestBodyPolicy.Mode.STREAM) {
+					// the handler runs while the body is received
+					this.rContext.content = Unpooled.EMPTY_BUFFER;
+					this.invoke(ctx, this.rContext);
+				}
 			}
 			
-			if (msg instanceof HttpContent) {
-				HttpContent httpContent = (HttpContent) msg;
-				
-				this.rContext.content = httpContent.content();
+			if (msg instanceof HttpContent && this.rContext != null) {
+				final RequestContext current = this.rContext;
+				if (!current.bodyDiscarded) {
+					this.receiveContent(ctx, current, ((HttpContent) msg).content());
+				}
 				
 				if (msg instanceof LastHttpContent) {
-					LastHttpContent trailer = (LastHttpContent) msg;
-					this.rContext.trailingHeaders = trailer.trailingHeaders();
-					
-					if (!writeResponse(trailer, ctx)) {
-						// If keep-alive is off, close the connection once the content is fully written.
-						ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+					this.rContext = null;
+					if (this.closing) {
+						// further pipelined requests are not read
+						this.updateAutoRead(ctx);
+					}
+					this.connectionMetrics.requestReceived();
+					current.routeMetrics.decode.record(System.nanoTime() - current.receivedAt);
+					current.trailingHeaders = ((LastHttpContent) msg).trailingHeaders();
+					if (current.upgrade && !current.bodyDiscarded && this.upgrade(ctx, current)) {
+						return;
+					}
+					if (!current.bodyDiscarded) {
+						this.completeBody(ctx, current);
 					}
 				}
 			}
 
 		}
 		
-		private WebpageHandler getHandler() {
-			if (currentState != ServerState.RUNNING) {
+		/**
+		 * Receives the next body chunk.
+		 * @param ctx
+		 * @param rContext
+		 * @param chunk
+		 */
+		private void receiveContent(ChannelHandlerContext ctx, RequestContext rContext, ByteBuf chunk) {
+			final int size = chunk.readableBytes();
+			if (size == 0) {
+				return;
+			}
+			rContext.contentLength += size;
+			if (rContext.bodyPolicy.exceeds(rContext.contentLength)) {
+				this.abortBody(ctx, rContext, new TooLongFrameException("Request body exceeds " + rContext.bodyPolicy.getMaxSize() + " bytes"));
+				return;
+			}
+			switch (rContext.bodyPolicy.getMode()) {
+				case STREAM:
+					if (rContext.bodyListener != null) {
+						try {
+							rContext.bodyListener.onContent(chunk);
+						}
+						catch (Exception ex) {
+							this.abortBody(ctx, rContext, ex);
+						}
+					}
+					else {
+						// the handler did not set its listener yet; stop reading until it did
+						if (rContext.queuedChunks == null) {
+							rContext.queuedChunks = new ArrayList<>();
+						}
+						rContext.queuedChunks.add(chunk.retain());
+						if (!this.waitingForListener) {
+							this.waitingForListener = true;
+							this.updateAutoRead(ctx);
+						}
+					}
+					break;
+				case SPILL:
+					try {
+						if (rContext.bodyChannel == null && rContext.contentLength > rContext.bodyPolicy.getMemoryThreshold()) {
+							rContext.bodyFile = Files.createTempFile("xw-web-", ".body");
+							rContext.bodyChannel = FileChannel.open(rContext.bodyFile, StandardOpenOption.WRITE);
+							if (rContext.content != null) {
+								writeFully(rContext.content, rContext.bodyChannel);
+								rContext.content.release();
+								rContext.content = null;
+							}
+						}
+						if (rContext.bodyChannel != null) {
+							writeFully(chunk, rContext.bodyChannel);
+							break;
+						}
+					}
+					catch (IOException ex) {
+						this.abortBody(ctx, rContext, ex);
+						break;
+					}
+					this.aggregate(ctx, rContext, chunk);
+					break;
+				default:
+				case AGGREGATE:
+					this.aggregate(ctx, rContext, chunk);
+					break;
+			}
+		}
+		
+		/**
+		 * Appends the chunk to the in-memory body.
+		 * @param ctx
+		 * @param rContext
+		 * @param chunk
+		 */
+		private void aggregate(ChannelHandlerContext ctx, RequestContext rContext, ByteBuf chunk) {
+			if (rContext.content == null) {
+				// single chunk bodies are not copied
+				rContext.content = chunk.retain();
+				return;
+			}
+			final CompositeByteBuf composite;
+			if (rContext.content instanceof CompositeByteBuf) {
+				composite = (CompositeByteBuf) rContext.content;
+			}
+			else {
+				composite = ctx.alloc().compositeBuffer(1024);
+				composite.addComponent(rContext.content);
+				composite.writerIndex(rContext.content.readableBytes());
+				rContext.content = composite;
+			}
+			composite.addComponent(chunk.retain());
+			composite.writerIndex(composite.writerIndex() + chunk.readableBytes());
+		}
+		
+		/**
+		 * Invoked after the last body chunk was received.
+		 * @param ctx
+		 * @param rContext
+		 */
+		private void completeBody(ChannelHandlerContext ctx, RequestContext rContext) {
+			rContext.bodyComplete = true;
+			if (rContext.bodyPolicy.getMode() == RequestBodyPolicy.Mode.STREAM) {
+				if (rContext.bodyListener != null) {
+					rContext.bodyListener.onComplete(rContext.trailingHeaders);
+				}
+				else if (this.waitingForListener) {
+					// the chunks are queued; the next request may be read
+					this.waitingForListener = false;
+					this.updateAutoRead(ctx);
+				}
+				return;
+			}
+			if (rContext.bodyChannel != null) {
+				try {
+					rContext.bodyChannel.close();
+					rContext.bodyChannel = null;
+				}
+				catch (IOException ex) {
+					this.abortBody(ctx, rContext, ex);
+					return;
+				}
+			}
+			if (rContext.content == null) {
+				rContext.content = Unpooled.EMPTY_BUFFER;
+			}
+			this.invoke(ctx, rContext);
+		}
+		
+		/**
+		 * Passes the body listener of a streaming handler the chunks received so far; invoked on the event loop.
+		 * @param ctx
+		 * @param rContext
+		 */
+		void startBody(ChannelHandlerContext ctx, RequestContext rContext) {
+			final RequestBodyListener listener = rContext.requestedListener;
+			if (rContext.bodyDiscarded && rContext.bodyError == null) {
+				// the response was written before
+				listener.onError(new IllegalStateException("Request body already discarded"));
+				return;
+			}
+			rContext.bodyListener = listener;
+			if (rContext.queuedChunks != null) {
+				final List<ByteBuf> chunks = rContext.queuedChunks;
+				rContext.queuedChunks = null;
+				for (final ByteBuf chunk : chunks) {
+					try {
+						if (!rContext.bodyDiscarded) {
+							listener.onContent(chunk);
+						}
+					}
+					catch (Exception ex) {
+						this.abortBody(ctx, rContext, ex);
+					}
+					finally {
+						chunk.release();
+					}
+				}
+			}
+			if (rContext.bodyError != null) {
+				listener.onError(rContext.bodyError);
+				return;
+			}
+			if (rContext.bodyComplete) {
+				listener.onComplete(rContext.trailingHeaders);
+			}
+			if (this.waitingForListener && rContext == this.rContext) {
+				this.waitingForListener = false;
+				this.updateAutoRead(ctx);
+			}
+		}
+		
+		/**
+		 * Aborts receiving the body; the remaining chunks are discarded and the connection is closed after the
+		 * response was written.
+		 * @param ctx
+		 * @param rContext
+		 * @param cause
+		 */
+		private void abortBody(ChannelHandlerContext ctx, RequestContext rContext, Throwable cause) {
+			final WebpageHandler handler = cause instanceof TooLongFrameException ? WebserverPlugin.TOO_LARGE : WebserverPlugin._500;
+			this.abortBody(ctx, rContext, cause, handler, 0, false);
+		}
+		
+		/**
+		 * Aborts receiving the body and answers the request with given handler.
+		 * @param ctx
+		 * @param rContext
+		 * @param cause
+		 * @param handler the handler answering the request if no streaming handler was invoked
+		 * @param retryAfterSeconds the retry after header; 0 for none
+		 * @param keepAlive {@code true} to keep the connection; only allowed if the request does not have a body
+		 */
+		private void abortBody(ChannelHandlerContext ctx, RequestContext rContext, Throwable cause, WebpageHandler handler, int retryAfterSeconds, boolean keepAlive) {
+			if (rContext.bodyDiscarded) {
+				return;
+			}
+			rContext.bodyDiscarded = true;
+			rContext.bodyError = cause;
+			if (!keepAlive) {
+				rContext.keepAlive = false;
+				this.closing = true;
+			}
+			if (this.continueSequence == rContext.sequence) {
+				this.continueSequence = -1;
+			}
+			this.releaseIncompleteBody(rContext);
+			if (rContext.invoked) {
+				// streaming handler; the handler answers the request
+				if (rContext.bodyListener != null) {
+					rContext.bodyListener.onError(cause);
+				}
+				if (this.waitingForListener && rContext == this.rContext) {
+					this.waitingForListener = false;
+					this.updateAutoRead(ctx);
+				}
+				return;
+			}
+			rContext.invoked = true;
+			rContext.content = Unpooled.EMPTY_BUFFER;
+			inFlight.incrementAndGet();
+			rContext.response = handler.handleRequest(rContext, getOwner().getServer());
+			if (retryAfterSeconds > 0) {
+				rContext.response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfterSeconds);
+			}
+			completeResponse(ctx, rContext);
+		}
+		
+		/**
+		 * Releases the chunks, buffers and files of a body that was not received completely.
+		 * @param rContext
+		 */
+		private void releaseIncompleteBody(RequestContext rContext) {
+			if (rContext.queuedChunks != null) {
+				for (final ByteBuf chunk : rContext.queuedChunks) {
+					chunk.release();
+				}
+				rContext.queuedChunks = null;
+			}
+			if (!rContext.invoked && rContext.content != null) {
+				rContext.content.release();
+				rContext.content = null;
+			}
+			if (rContext.bodyChannel != null) {
+				try {
+					rContext.bodyChannel.close();
+					Files.deleteIfExists(rContext.bodyFile);
+				}
+				catch (IOException ex) {
+					getOwner().getLogger().warning("Failed to delete " + rContext.bodyFile);
+				}
+				rContext.bodyChannel = null;
+				rContext.bodyFile = null;
+			}
+		}
+		
+		/**
+		 * Invokes the handler of the given request.
+		 * @param ctx
+		 * @param rContext
+		 */
+		private void invoke(ChannelHandlerContext ctx, RequestContext rContext) {
+			rContext.invoked = true;
+			rContext.invokedAt = System.nanoTime();
+			inFlight.incrementAndGet();
+			final HandlerInvocation invocation = new HandlerInvocation(ctx, rContext);
+			if (invocation.serveFromCache()) {
+				return;
+			}
+			final HandlerExecutor executor = handlerExecutor;
+			if (executor == null || !executor.submit(invocation)) {
+				invocation.reject();
+			}
+		}
+		
+		/**
+		 * Switches the connection to the live channel; the http handler is replaced by the web socket handler.
+		 * @param ctx
+		 * @param rContext the upgrade request
+		 * @return {@code false} if the connection cannot be upgraded; the request is answered as plain http request
+		 */
+		private boolean upgrade(ChannelHandlerContext ctx, RequestContext rContext) {
+			if (rContext.sequence != this.nextResponse || currentState.get() != ServerState.RUNNING) {
+				// pipelined behind other requests or maintenance
+				return false;
+			}
+			final FullHttpRequest request = new DefaultFullHttpRequest(rContext.protocolVersion, rContext.method, rContext.uri, Unpooled.EMPTY_BUFFER);
+			request.headers().set(rContext.headers);
+			final String location = (ctx.pipeline().get(SslHandler.class) == null ? "ws://" : "wss://") + rContext.headers.get(HttpHeaderNames.HOST) + rContext.getQueryString().path();
+			final WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(location, null, false, LiveSocketHandler.MAX_FRAME_SIZE).newHandshaker(request);
+			if (handshaker == null) {
+				// unsupported web socket version; the endpoint answers with 426
+				return false;
+			}
+			this.closing = true;
+			this.releaseIncompleteBody(rContext);
+			final LiveSocketHandler live = new LiveSocketHandler(handshaker, (LiveEndpoint) rContext.route.target, liveTopics);
+			final List<String> topics = rContext.getQueryString().parameters().get("topic");
+			final Channel channel = ctx.channel();
+			ctx.pipeline().replace(this, "live", live);
+			// the pipeline limit no longer applies
+			channel.config().setAutoRead(true);
+			handshaker.handshake(channel, request).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception {
+					if (future.isSuccess()) {
+						live.start(topics);
+					}
+					else {
+						channel.close();
+					}
+				}
+			});
+			return true;
+		}
+		
+		/**
+		 * Sends the interim 100 continue response as soon as all predecessors were answered.
+		 * @param ctx
+		 */
+		private void sendContinue(ChannelHandlerContext ctx) {
+			if (this.continueSequence >= 0 && this.continueSequence == this.nextResponse) {
+				this.continueSequence = -1;
+				ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE, Unpooled.EMPTY_BUFFER));
+			}
+		}
+		
+		/**
+		 * Pauses reading while too many pipelined requests are in flight, a streaming handler did not take the
+		 * received chunks yet or the client does not read the responses (the write buffer exceeds the high water mark).
+		 * @param ctx
+		 */
+		private void updateAutoRead(ChannelHandlerContext ctx) {
+			// a closing connection only reads the body of its last request; event streams read to notice the client closing
+			final boolean autoRead = !this.waitingForListener && this.receivedRequests - this.nextResponse < pipelineLimit && ctx.channel().isWritable()
+					&& (!this.closing || this.rContext != null || this.eventSubscriber != null);
+			if (ctx.channel().config().isAutoRead() != autoRead) {
+				ctx.channel().config().setAutoRead(autoRead);
+			}
+		}
+		
+		/**
+		 * Matches the request uri against the compiled routes; invoked on the event loop.
+		 * @param rContext
+		 */
+		private void matchRoute(RequestContext rContext) {
+			final RouteTrie.Route route = routes.match(rContext.uri, this.offsets);
+			if (route != null) {
+				rContext.route = route;
+				if (route.paramNames.length > 0) {
+					rContext.paramOffsets = Arrays.copyOf(this.offsets, 2 * route.paramNames.length);
+				}
+			}
+		}
+		
+		/**
+		 * Checks if the response of given request may be served from and stored to the response cache. Requests with
+		 * a query string bypass the cache; the cache is keyed by the path so that clients cannot fill it with
+		 * arbitrary query strings.
+		 * @param rContext
+		 * @return {@code true} if the response cache may be used
+		 */
+		private boolean isCacheable(RequestContext rContext) {
+			return responseCache != null && HttpMethod.GET.equals(rContext.method) && rContext.uri.indexOf('?') < 0;
+		}
+		
+		private WebRequestHandler getHandler(RequestContext rContext) {
+			if (currentState.get() != ServerState.RUNNING) {
 				return WebserverPlugin.MAINTENANCE;
 			}
-			final String path = rContext.getQueryString().path();
-			final String[] splitted = path.split("/");
-			if (splitted == null || splitted.length == 0) {
-				return WebserverPlugin.INDEX;
+			final RouteTrie.Route route = rContext.route;
+			if (route == null) {
+				return RouteTrie.pathEnd(rContext.uri) <= 1 ? WebserverPlugin.INDEX : WebserverPlugin._404;
+			}
+			if (route.target instanceof WebRequestHandler) {
+				// shared handler; no factory call and no allocation
+				if (isCacheable(rContext)) {
+					rContext.cacheTtl = route.cacheTtl;
+					rContext.cacheRoute = route.pattern;
+				}
+				return (WebRequestHandler) route.target;
 			}
-			final String plugin = splitted[1];
-			final WebpageHandlerFactory factory = factories.get(plugin);
-			if (factory != null) {
-				final WebpageHandler result = factory.requestHandler(rContext, getOwner().getServer(), splitted);
-				if (result != null) {
-					return result;
+			final WebpageHandlerFactory factory = (WebpageHandlerFactory) route.target;
+			// the factories still expect the splitted path
+			final String[] splitted = rContext.getQueryString().path().split("/");
+			final WebRequestHandler result = factory.requestHandler(rContext, getOwner().getServer(), splitted);
+			if (result != null) {
+				if (isCacheable(rContext)) {
+					rContext.cacheTtl = factory.getCacheTtl(splitted);
+					rContext.cacheRoute = route.pattern;
 				}
+				return result;
 			}
 			return WebserverPlugin._404;
 		}
 		
-		private boolean writeResponse(HttpObject currentObj, ChannelHandlerContext ctx) {
-			// Decide whether to close the connection or not.
-			boolean keepAlive = HttpHeaders.isKeepAlive(request);
-			
-			// TODO set keepalive to false because browsers seem not to like it ?!?!?
-			//      there maybe some bug elsewhere
-			keepAlive = false;
-			
-			// Build the response object.
-			// TODO For better load management perform handleRequest in a separate worker group
-			//      Dont do that in http encoding/decoding worker group
-			FullHttpResponse response = null;
+		/**
+		 * Passes the finished response to the event loop.
+		 * @param ctx
+		 * @param rContext the request context, holding the response
+		 */
+		private void completeResponse(final ChannelHandlerContext ctx, final RequestContext rContext) {
+			if (rContext.invokedAt != 0) {
+				rContext.routeMetrics.handler.record(System.nanoTime() - rContext.invokedAt);
+			}
+			if (ctx.executor().inEventLoop()) {
+				writeInOrder(ctx, rContext);
+				return;
+			}
 			try {
-				response = getHandler().handleRequest(this.rContext, getOwner().getServer());
+				ctx.executor().execute(new Runnable() {
+					@Override
+					public void run() {
+						writeInOrder(ctx, rContext);
+					}
+				});
 			}
-			catch (RuntimeException ex) {
-				response = WebserverPlugin._500.handleRequest(this.rContext, getOwner().getServer());
+			catch (RejectedExecutionException ex) {
+				// event loop is shutting down
+				discardResponse(rContext);
+			}
+		}
+		
+		/**
+		 * Writes the given response and every buffered successor as soon as all predecessors were written.
+		 * @param ctx
+		 * @param rContext
+		 */
+		private void writeInOrder(ChannelHandlerContext ctx, RequestContext rContext) {
+			if (!ctx.channel().isActive()) {
+				discardResponse(rContext);
+				return;
+			}
+			if (rContext.sequence != this.nextResponse) {
+				this.pendingResponses.put(rContext.sequence, rContext);
+				return;
+			}
+			RequestContext next = rContext;
+			while (next != null) {
+				writeResponse(ctx, next);
+				next = this.pendingResponses.remove(++this.nextResponse);
+			}
+			ctx.flush();
+			this.sendContinue(ctx);
+			this.updateAutoRead(ctx);
+		}
+		
+		private void writeResponse(ChannelHandlerContext ctx, RequestContext rContext) {
+			if (rContext == this.rContext && rContext.bodyListener == null && !rContext.bodyDiscarded) {
+				// answered before the body was received; nobody is interested in the remaining chunks
+				rContext.bodyDiscarded = true;
+				this.releaseIncompleteBody(rContext);
+				this.waitingForListener = false;
+			}
+			if (this.eventSubscriber != null) {
+				// the connection carries an event stream; pipelined successors are never answered
+				discardResponse(rContext);
+				return;
+			}
+			if (rContext.stream != null) {
+				writeStream(ctx, rContext);
+				return;
+			}
+			if (rContext.eventStream != null) {
+				writeEventStream(ctx, rContext);
+				return;
+			}
+			final FullHttpResponse response = rContext.response;
+			final int size = response.content().readableBytes();
+			if (maxPendingBytes > 0 && this.pendingBytes > 0 && this.pendingBytes + size > maxPendingBytes) {
+				// the client sends requests without reading the responses
+				metrics.rejected(WebMetrics.Rejection.WRITE_BUFFER);
+				discardResponse(rContext);
+				ctx.close();
+				return;
+			}
+			rContext.response = null;
+			rContext.responseBytes = size;
+			this.pendingBytes += size;
+			
+			// full responses always carry their length so that the client is able to find the end of the response
+			if (response.status().code() != HttpResponseStatus.NOT_MODIFIED.code()) {
+				HttpUtil.setContentLength(response, response.content().readableBytes());
+			}
+			
+			if (currentState.get() == ServerState.STOPPING) {
+				// draining; do not accept further requests on this connection
+				rContext.keepAlive = false;
+				this.closing = true;
 			}
 			
-			if (keepAlive) {
-				// Add 'Content-Length' header only for a keep-alive connection.
-				response.headers().set(Names.CONTENT_LENGTH, response.content().readableBytes());
+			if (rContext.keepAlive) {
 				// Add keep alive header as per:
 				// - http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
-				response.headers().set(Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+				response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+				ctx.write(response).addListener(rContext.writing(response.status()));
+			}
+			else {
+				response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+				// If keep-alive is off, close the connection once the content is fully written.
+				ctx.write(response).addListener(rContext.writing(response.status())).addListener(this.closeListener(ctx));
+			}
+		}
+		
+		/**
+		 * Returns the listener ending the connection after the last response.
+		 * @param ctx
+		 * @return listener closing the connection without discarding pipelined input; http/2 streams end the stream only
+		 */
+		private ChannelFutureListener closeListener(ChannelHandlerContext ctx) {
+			return ctx.channel() instanceof Http2StreamChannel ? Http2Support.END_STREAM : LingeringClose.INSTANCE;
+		}
+		
+		/**
+		 * Writes the head of a streaming response and passes the body to the chunked write handler. The chunked write
+		 * handler pulls the chunks only while the channel is writable and queues the successors until the body was
+		 * written; the order of pipelined responses is kept.
+		 * @param ctx
+		 * @param rContext
+		 */
+		private void writeStream(ChannelHandlerContext ctx, RequestContext rContext) {
+			final StreamingResponse stream = rContext.stream;
+			rContext.stream = null;
+			final HttpResponse head = stream.getHead();
+			
+			if (currentState.get() == ServerState.STOPPING) {
+				// draining; do not accept further requests on this connection
+				rContext.keepAlive = false;
+				this.closing = true;
+			}
+			
+			if (stream.getFile() != null) {
+				HttpUtil.setContentLength(head, stream.getCount());
+			}
+			if (HttpUtil.isContentLengthSet(head) || HttpMethod.HEAD.equals(rContext.method)) {
+				// responses to HEAD requests never carry a body and need no framing
+				HttpUtil.setTransferEncodingChunked(head, false);
+			}
+			else if (HttpVersion.HTTP_1_0.equals(rContext.protocolVersion)) {
+				// no chunked encoding; closing the connection marks the end of the body
+				HttpUtil.setTransferEncodingChunked(head, false);
+				rContext.keepAlive = false;
+				this.closing = true;
 			}
 			else {
-				response.headers().set(Names.CONNECTION, HttpHeaders.Values.CLOSE);
+				HttpUtil.setTransferEncodingChunked(head, true);
 			}
 			
-			ctx.write(response);
-			return keepAlive;
+			head.headers().set(HttpHeaderNames.CONNECTION, rContext.keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+			ctx.write(head);
+			final ChannelFuture future;
+			if (HttpMethod.HEAD.equals(rContext.method)) {
+				closeBody(stream);
+				future = ctx.write(LastHttpContent.EMPTY_LAST_CONTENT);
+			}
+			else if (stream.getFile() != null) {
+				if (ctx.pipeline().get(SslHandler.class) == null && !(ctx.channel() instanceof Http2StreamChannel)) {
+					// zero copy
+					ctx.write(new DefaultFileRegion(stream.getFile(), stream.getPosition(), stream.getCount()));
+				}
+				else {
+					// encrypted connections and http/2 streams need the file content on the heap
+					try {
+						ctx.write(new ChunkedNioFile(FileChannel.open(stream.getFile().toPath()), stream.getPosition(), stream.getCount(), 8192));
+					}
+					catch (IOException ex) {
+						getOwner().getLogger().error("Failed to read " + stream.getFile(), ex);
+						ctx.close();
+					}
+				}
+				future = ctx.write(LastHttpContent.EMPTY_LAST_CONTENT);
+			}
+			else {
+				future = ctx.write(new HttpChunkedInput(stream.getBody()));
+			}
+			future.addListener(rContext.writing(head.status()));
+			if (!rContext.keepAlive) {
+				future.addListener(this.closeListener(ctx));
+			}
 		}
 		
-		private void send100Continue(ChannelHandlerContext ctx) {
-			FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE);
-			ctx.write(response);
+		/**
+		 * Writes the head of an event stream and subscribes the connection. The response never ends; the request
+		 * counts as answered as soon as the head was written so that event streams do not delay a server stop.
+		 * @param ctx
+		 * @param rContext
+		 */
+		private void writeEventStream(ChannelHandlerContext ctx, RequestContext rContext) {
+			final EventStream stream = rContext.eventStream;
+			rContext.eventStream = null;
+			final HttpResponse head = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+			head.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/event-stream; charset=UTF-8");
+			head.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+			if (HttpMethod.HEAD.equals(rContext.method)) {
+				head.headers().set(HttpHeaderNames.CONNECTION, rContext.keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+				ctx.write(head);
+				final ChannelFuture future = ctx.write(LastHttpContent.EMPTY_LAST_CONTENT).addListener(rContext.writing(head.status()));
+				if (!rContext.keepAlive) {
+					future.addListener(this.closeListener(ctx));
+				}
+				return;
+			}
+			if (HttpVersion.HTTP_1_0.equals(rContext.protocolVersion)) {
+				// no chunked encoding; the stream ends with the connection
+				head.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+			}
+			else {
+				HttpUtil.setTransferEncodingChunked(head, true);
+			}
+			this.closing = true;
+			ctx.write(head).addListener(rContext.writing(head.status()));
+			long lastEventId = -1;
+			final String header = rContext.headers.get("Last-Event-ID");
+			if (header != null) {
+				try {
+					lastEventId = Long.parseLong(header.trim());
+				}
+				catch (NumberFormatException ex) {
+					// receives new events only
+				}
+			}
+			this.eventSubscriber = stream.subscribe(ctx.channel(), lastEventId);
+			this.updateAutoRead(ctx);
+		}
+		
+		/**
+		 * Closes the body of a streaming response that is not sent.
+		 * @param stream
+		 */
+		private void closeBody(StreamingResponse stream) {
+			if (stream.getBody() != null) {
+				try {
+					stream.getBody().close();
+				}
+				catch (Exception ex) {
+					getOwner().getLogger().error("Failed to close streaming response", ex);
+				}
+			}
+		}
+		
+		/**
+		 * Drops the response of a request that cannot be answered any longer.
+		 * @param rContext
+		 */
+		private void discardResponse(RequestContext rContext) {
+			if (rContext.response != null) {
+				rContext.response.release();
+				rContext.response = null;
+			}
+			if (rContext.stream != null) {
+				closeBody(rContext.stream);
+				rContext.stream = null;
+			}
+			requestFinished();
 		}
 
 		/**
@@ -465,6 +2373,64 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 			ctx.flush();
 		}
 
+		/**
+		 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelWritabilityChanged(io.netty.channel.ChannelHandlerContext)
+		 */
+		@Override
+		public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+			if (this.eventSubscriber != null && this.eventSubscriber.isStale() && ctx.channel().isWritable()) {
+				// the slow consumer catches up from the replay buffer
+				this.eventSubscriber.catchUp();
+			}
+			// new requests are read as soon as the client read the pending responses
+			this.updateAutoRead(ctx);
+			super.channelWritabilityChanged(ctx);
+		}
+
+		/**
+		 * @see io.netty.channel.ChannelInboundHandlerAdapter#userEventTriggered(io.netty.channel.ChannelHandlerContext, java.lang.Object)
+		 */
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+				// incomplete requests (slowloris) and idle keep alive connections; not if reading was paused by ourself
+				if (this.eventSubscriber == null && ctx.channel().config().isAutoRead()
+						&& (this.rContext != null || this.answeredRequests == this.receivedRequests)) {
+					metrics.rejected(WebMetrics.Rejection.READ_TIMEOUT);
+					ctx.close();
+				}
+				return;
+			}
+			super.userEventTriggered(ctx, evt);
+		}
+
+		/**
+		 * @see io.netty.channel.ChannelInboundHandlerAdapter#channelInactive(io.netty.channel.ChannelHandlerContext)
+		 */
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			if (this.eventSubscriber != null) {
+				this.eventSubscriber.stream.unsubscribe(this.eventSubscriber);
+			}
+			final RequestContext receiving = this.rContext;
+			if (receiving != null && !receiving.bodyDiscarded) {
+				this.rContext = null;
+				receiving.bodyDiscarded = true;
+				this.releaseIncompleteBody(receiving);
+				if (receiving.bodyListener != null) {
+					receiving.bodyListener.onError(new ClosedChannelException());
+				}
+				else {
+					receiving.bodyError = new ClosedChannelException();
+				}
+			}
+			for (final RequestContext pending : this.pendingResponses.values()) {
+				discardResponse(pending);
+			}
+			this.pendingResponses.clear();
+			super.channelInactive(ctx);
+		}
+
 		/**
 		 * @see io.netty.channel.ChannelInboundHandlerAdapter#exceptionCaught(io.netty.channel.ChannelHandlerContext, java.lang.Throwable)
 		 */
@@ -475,31 +2441,293 @@ public class WebserverTask extends PluginTask<WebserverPlugin> {
 			WebserverTask.this.owner.getLogger().error("Exception within webserver: " + cause.getMessage() + "\n" + writer.toString());
 			ctx.close();
 		}
+		
+		/**
+		 * Invocation of the webpage handler within the handler execution stage.
+		 */
+		private final class HandlerInvocation implements Runnable, BiConsumer<FullHttpResponse, Throwable> {
+			
+			private final ChannelHandlerContext ctx;
+			private final RequestContext rContext;
+			
+			HandlerInvocation(ChannelHandlerContext ctx, RequestContext rContext) {
+				this.ctx = ctx;
+				this.rContext = rContext;
+			}
+
+			@Override
+			public void run() {
+				FullHttpResponse response = null;
+				StreamingResponse stream = null;
+				EventStream eventStream = null;
+				try {
+					final WebRequestHandler handler = getHandler(this.rContext);
+					if (handler instanceof AsyncWebpageHandler) {
+						((AsyncWebpageHandler) handler).handleRequestAsync(this.rContext, getOwner().getServer()).whenComplete(this);
+						return;
+					}
+					if (handler instanceof StreamingWebpageHandler) {
+						stream = ((StreamingWebpageHandler) handler).handleStreamingRequest(this.rContext, getOwner().getServer());
+					}
+					else if (handler instanceof EventStreamWebpageHandler) {
+						eventStream = ((EventStreamWebpageHandler) handler).selectEventStream(this.rContext, getOwner().getServer());
+						if (eventStream == null) {
+							response = WebserverPlugin._404.handleRequest(this.rContext, getOwner().getServer());
+						}
+					}
+					else {
+						response = ((WebpageHandler) handler).handleRequest(this.rContext, getOwner().getServer());
+					}
+				}
+				catch (RuntimeException ex) {
+					response = null;
+					stream = null;
+					eventStream = null;
+				}
+				if (stream != null && stream.getFullResponse() != null) {
+					response = stream.getFullResponse();
+					stream = null;
+				}
+				if (stream != null || eventStream != null) {
+					// streaming responses are never cached
+					this.rContext.releaseBody();
+					this.rContext.stream = stream;
+					this.rContext.eventStream = eventStream;
+					completeResponse(this.ctx, this.rContext);
+					return;
+				}
+				this.accept(response, null);
+			}
+
+			@Override
+			public void accept(FullHttpResponse response, Throwable ex) {
+				this.rContext.releaseBody();
+				if (ex != null || response == null) {
+					response = WebserverPlugin._500.handleRequest(this.rContext, getOwner().getServer());
+				}
+				else if (this.rContext.cacheTtl > 0 && response.status().code() == HttpResponseStatus.OK.code()) {
+					final long now = System.nanoTime();
+					final ResponseCache.Entry entry = responseCache.put(this.rContext.uri, this.rContext.cacheRoute, response, this.rContext.cacheTtl, now);
+					// even the first response uses the shared (compressed) body
+					response.release();
+					response = entry.toResponse(entry.isNotModified(this.rContext.headers.get(HttpHeaderNames.IF_NONE_MATCH)), now, compression, this.rContext.headers.get(HttpHeaderNames.ACCEPT_ENCODING));
+				}
+				this.rContext.response = response;
+				completeResponse(this.ctx, this.rContext);
+			}
+			
+			/**
+			 * Answers the request from the response cache without invoking any handler.
+			 * @return {@code true} if the request was served from cache
+			 */
+			boolean serveFromCache() {
+				if (!isCacheable(this.rContext) || currentState.get() != ServerState.RUNNING) {
+					return false;
+				}
+				final long now = System.nanoTime();
+				final ResponseCache.Entry entry = responseCache.get(this.rContext.uri, now);
+				if (entry == null) {
+					return false;
+				}
+				this.rContext.releaseBody();
+				this.rContext.response = entry.toResponse(entry.isNotModified(this.rContext.headers.get(HttpHeaderNames.IF_NONE_MATCH)), now, compression, this.rContext.headers.get(HttpHeaderNames.ACCEPT_ENCODING));
+				completeResponse(this.ctx, this.rContext);
+				return true;
+			}
+			
+			/**
+			 * Sheds the request because the handler stage is overloaded.
+			 */
+			void reject() {
+				this.rContext.releaseBody();
+				final FullHttpResponse response = WebserverPlugin.OVERLOADED.handleRequest(this.rContext, getOwner().getServer());
+				response.headers().set(HttpHeaderNames.RETRY_AFTER, retryAfter);
+				this.rContext.response = response;
+				completeResponse(this.ctx, this.rContext);
+			}
+			
+		}
 
 	}
 	
-	private final class NukkitNettyInitializer extends ChannelInitializer<SocketChannel> {
+	/**
+	 * Writes the readable bytes of given buffer to the file channel without modifying the reader index.
+	 * @param buffer
+	 * @param channel
+	 * @throws IOException
+	 */
+	static void writeFully(ByteBuf buffer, FileChannel channel) throws IOException {
+		int offset = buffer.readerIndex();
+		final int end = buffer.writerIndex();
+		while (offset < end) {
+			offset += buffer.getBytes(offset, channel, end - offset);
+		}
+	}
+	
+	/**
+	 * Initializes the client connections. Plain connections speak http/1 or http/2 (prior knowledge or upgrade from
+	 * http/1); tls connections negotiate the protocol (alpn).
+	 */
+	private final class NukkitNettyInitializer extends ChannelInitializer<Channel> {
 		
-		private final SslContext sslCtx;
+		/** the tls termination; {@code null} for plain connections */
+		private final TlsTermination tls;
 		
-		public NukkitNettyInitializer(SslContext sslCtx) {
-			this.sslCtx = sslCtx;
+		public NukkitNettyInitializer(TlsTermination tls) {
+			this.tls = tls;
 		}
 
 		/**
 		 * @see io.netty.channel.ChannelInitializer#initChannel(io.netty.channel.Channel)
 		 */
 		@Override
-		protected void initChannel(SocketChannel ch) throws Exception {
+		protected void initChannel(Channel ch) throws Exception {
 			final ChannelPipeline p = ch.pipeline();
+			clientChannels.add(ch);
 			
-			if (this.sslCtx != null) p.addLast(sslCtx.newHandler(ch.alloc()));
+			final ConnectionMetrics connectionMetrics = new ConnectionMetrics(metrics);
+			p.addLast(connectionMetrics); // bytes on the wire
+			p.addLast(limits.newGuard()); // connection caps and idle timeouts
+			if (this.tls != null) {
+				// read once per connection; a reloaded certificate is used by the next connection
+				final SslContext sslCtx = this.tls.getContext();
+				p.addLast(this.tls.newHandler(sslCtx, ch));
+				if (http2 && sslCtx.applicationProtocolNegotiator().protocols().contains(ApplicationProtocolNames.HTTP_2)) {
+					p.addLast(new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+						@Override
+						protected void configurePipeline(ChannelHandlerContext ctx, String protocol) throws Exception {
+							if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+								addHttp2(ctx.pipeline());
+							}
+							else {
+								ctx.pipeline().addLast(new HttpRequestDecoder(), new HttpResponseEncoder());
+								addHttp1(ctx.pipeline(), connectionMetrics);
+							}
+						}
+						
+						@Override
+						protected void handshakeFailure(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+							// counted by the metrics; port scanners and plain http clients should not fill the log
+							ctx.close();
+						}
+					});
+					return;
+				}
+			}
+			else if (http2) {
+				// the source codec and the upgrade handler are removed as soon as the connection speaks http/2
+				final HttpServerCodec codec = new HttpServerCodec();
+				p.addLast(new CleartextHttp2ServerUpgradeHandler(codec, new HttpServerUpgradeHandler(codec, new HttpServerUpgradeHandler.UpgradeCodecFactory() {
+					@Override
+					public UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+						return AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol) ? new Http2Upgrade() : null;
+					}
+				}, MAX_UPGRADE_SIZE), new ChannelInitializer<Channel>() {
+					@Override
+					protected void initChannel(Channel channel) throws Exception {
+						// prior knowledge
+						removeHttp1(channel.pipeline());
+						addHttp2(channel.pipeline());
+					}
+				}));
+				this.addHttp1(p, connectionMetrics);
+				return;
+			}
 			
-			p.addLast(new HttpRequestDecoder());
-			p.addLast(new HttpObjectAggregator(1048576)); // http chunks
+			p.addLast(new HttpRequestDecoder()); // bodies are received chunk by chunk, see RequestBodyPolicy
 			p.addLast(new HttpResponseEncoder());
-			p.addLast(new HttpContentCompressor()); // automatic compression
-			p.addLast(new NukkitNettyHandler());
+			this.addHttp1(p, connectionMetrics);
+		}
+		
+		/**
+		 * Adds the handlers behind the http/1 codec.
+		 * @param p
+		 * @param connectionMetrics
+		 */
+		void addHttp1(ChannelPipeline p, ConnectionMetrics connectionMetrics) {
+			if (compression.isEnabled()) {
+				p.addLast(HTTP1_COMPRESSOR, new ContentCompressor(compression)); // automatic compression
+			}
+			p.addLast(HTTP1_CHUNKED, new ChunkedWriteHandler()); // streaming responses
+			p.addLast(HTTP1_HANDLER, new NukkitNettyHandler(connectionMetrics));
+		}
+		
+		/**
+		 * Removes the handlers behind the http/1 codec; the connection switches to http/2.
+		 * @param p
+		 */
+		void removeHttp1(ChannelPipeline p) {
+			for (final String name : new String[] { HTTP1_COMPRESSOR, HTTP1_CHUNKED, HTTP1_HANDLER }) {
+				if (p.get(name) != null) {
+					p.remove(name);
+				}
+			}
+		}
+		
+		/**
+		 * Adds the http/2 handlers.
+		 * @param p
+		 */
+		void addHttp2(ChannelPipeline p) {
+			final Http2FrameCodec codec = Http2Support.newFrameCodec(http2MaxStreams, http2StreamWindow);
+			p.addLast(codec, new Http2MultiplexHandler(new StreamInitializer()), new Http2Support.ConnectionHandler(codec, http2ConnectionWindow, metrics));
+		}
+		
+		/**
+		 * The upgrade from http/1 to http/2 (h2c); the request is answered on the first stream.
+		 */
+		private final class Http2Upgrade implements UpgradeCodec {
+			
+			/** the codec adding the http/2 handlers */
+			private final Http2ServerUpgradeCodec delegate;
+			
+			/** the frame codec */
+			private final Http2FrameCodec codec = Http2Support.newFrameCodec(http2MaxStreams, http2StreamWindow);
+			
+			/**
+			 * Constructor
+			 */
+			Http2Upgrade() {
+				this.delegate = new Http2ServerUpgradeCodec(this.codec, new Http2MultiplexHandler(new StreamInitializer()),
+						new Http2Support.ConnectionHandler(this.codec, http2ConnectionWindow, metrics));
+			}
+
+			@Override
+			public Collection<CharSequence> requiredUpgradeHeaders() {
+				return this.delegate.requiredUpgradeHeaders();
+			}
+
+			@Override
+			public boolean prepareUpgradeResponse(ChannelHandlerContext ctx, FullHttpRequest upgradeRequest, HttpHeaders upgradeHeaders) {
+				return this.delegate.prepareUpgradeResponse(ctx, upgradeRequest, upgradeHeaders);
+			}
+
+			@Override
+			public void upgradeTo(ChannelHandlerContext ctx, FullHttpRequest upgradeRequest) {
+				removeHttp1(ctx.pipeline());
+				this.delegate.upgradeTo(ctx, upgradeRequest);
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * Initializes the http/2 streams; every stream runs the http/1 handler with a single request.
+	 */
+	private final class StreamInitializer extends ChannelInitializer<Http2StreamChannel> {
+
+		@Override
+		protected void initChannel(Http2StreamChannel ch) throws Exception {
+			final ChannelPipeline p = ch.pipeline();
+			p.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+			p.addLast(Http2Support.CONTENT_WRAPPER);
+			if (compression.isEnabled()) {
+				p.addLast(new ContentCompressor(compression));
+			}
+			p.addLast(new ChunkedWriteHandler());
+			// the bytes on the wire are counted by the connection
+			p.addLast(new NukkitNettyHandler(new ConnectionMetrics(metrics)));
 		}
 		
 	}